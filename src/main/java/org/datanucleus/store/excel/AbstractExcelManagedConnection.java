@@ -22,33 +22,82 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
+import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
 
 import org.apache.poi.ss.usermodel.Workbook;
 import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.store.connection.AbstractEmulatedXAResource;
 import org.datanucleus.store.connection.AbstractManagedConnection;
 import org.datanucleus.util.NucleusLogger;
 
 /**
  * Managed Connection for XLS or OOXML.
+ * The file is read holding a shared lock, and written holding an exclusive lock (see {@link ExcelFileLock}), so processes reading the
+ * file never see a partially written file. The file is written to a temporary file in the same directory which is then renamed over the
+ * original, so the file is always either the previous or the new version.
+ * On rollback of a transaction the file is not written. With a shared workbook the changes of the transaction are instead undone in the
+ * workbook (see {@link ExcelUndoLog}), so that other transactions no longer see them. They are never in the file, since the workbook
+ * isn't written while any transaction has uncommitted changes (see {@link SharedWorkbook}), so the file is only written on rollback where
+ * the changes committed by other transactions meanwhile are still to be written.
  */
 public abstract class AbstractExcelManagedConnection extends AbstractManagedConnection
 {
+    ExcelStoreManager storeMgr;
+
     String filename;
 
     /** The Excel XLS/OOXML file. */
     File file;
-    
-    public AbstractExcelManagedConnection(String filename)
+
+    /** Workbook shared by all connections of the StoreManager, or null when each connection loads its own. */
+    SharedWorkbook sharedWorkbook;
+
+    /** Undo log for the changes of the current transaction to a shared workbook. */
+    ExcelUndoLog undoLog;
+
+    /** Whether the current transaction has been rolled back. */
+    boolean rolledBack = false;
+
+    public AbstractExcelManagedConnection(ExcelStoreManager storeMgr, String filename, SharedWorkbook sharedWorkbook)
     {
+        this.storeMgr = storeMgr;
         this.filename = filename;
+        this.sharedWorkbook = sharedWorkbook;
+        this.undoLog = new ExcelUndoLog(storeMgr);
+    }
+
+    /**
+     * Accessor for the undo log for the changes of the current transaction.
+     * @return The undo log
+     */
+    public ExcelUndoLog getUndoLog()
+    {
+        return undoLog;
     }
 
     protected abstract Workbook getWorkbook();
 
     protected abstract Workbook getWorkbook(InputStream is) throws IOException;
 
+    /**
+     * Method to write the workbook to the provided stream (not closing it).
+     * @param wb The workbook
+     * @param os The stream
+     * @throws IOException if an error occurs writing the workbook
+     */
+    protected void writeWorkbook(Workbook wb, OutputStream os) throws IOException
+    {
+        wb.write(os);
+    }
+
     public Object getConnection()
     {
         if (conn == null)
@@ -56,16 +105,26 @@ public abstract class AbstractExcelManagedConnection extends AbstractManagedConn
             try
             {
                 file = new File(filename);
-                if (!file.exists())
+                if (sharedWorkbook != null)
                 {
-                    // Excel document doesn't exist, so create
-                    Workbook wb = getWorkbook();
-                    FileOutputStream fileOut = new FileOutputStream(file);
-                    wb.write(fileOut);
-                    fileOut.close();
+                    synchronized (sharedWorkbook)
+                    {
+                        // Load the workbook when first required, or reload it when idle and the file was rewritten by another process
+                        if (sharedWorkbook.getWorkbook() == null ||
+                            (sharedWorkbook.getNumberOfConnections() == 0 && sharedWorkbook.isFileChanged(file)))
+                        {
+                            Workbook wb = loadWorkbook();
+                            sharedWorkbook.setWorkbook(wb);
+                            sharedWorkbook.workbookWritten();
+                        }
+                        conn = sharedWorkbook.getWorkbook();
+                        sharedWorkbook.connectionOpened(undoLog);
+                    }
+                }
+                else
+                {
+                    conn = loadWorkbook();
                 }
-
-                conn = getWorkbook(new FileInputStream(file));
                 NucleusLogger.CONNECTION.debug("ManagedConnection " + this.toString() + " is starting for file=" + file);
             }
             catch (IOException e)
@@ -76,6 +135,163 @@ public abstract class AbstractExcelManagedConnection extends AbstractManagedConn
         return conn;
     }
 
+    /**
+     * Method to load the workbook from the file, creating the file if not yet existing.
+     * Any statistics of the worksheets persisted in the file (see {@link ExcelMetaSheet}), and any index file for the file
+     * (see {@link ExcelIndexFile}), are registered with the StoreManager.
+     * @return The workbook
+     * @throws IOException if an error occurs reading/writing the file
+     */
+    protected Workbook loadWorkbook() throws IOException
+    {
+        ExcelFileLock fileLock = ExcelFileLock.getLockForFile(file);
+        if (!file.exists())
+        {
+            FileLock lock = fileLock.lockExclusive();
+            try
+            {
+                if (!file.exists())
+                {
+                    // Excel document doesn't exist, so create
+                    writeToFile(getWorkbook());
+                }
+            }
+            finally
+            {
+                fileLock.unlockExclusive(lock);
+            }
+        }
+
+        fileLock.lockShared();
+        try
+        {
+            if (sharedWorkbook != null)
+            {
+                sharedWorkbook.setFileStamp(file);
+            }
+            Workbook wb = null;
+            try (InputStream is = new FileInputStream(file))
+            {
+                wb = getWorkbook(is);
+            }
+            if (storeMgr.getBooleanProperty(ExcelStoreManager.PROPERTY_STATISTICS_SHEET))
+            {
+                ExcelMetaSheet.read(storeMgr, wb);
+            }
+            if (storeMgr.getBooleanProperty(ExcelStoreManager.PROPERTY_INDEX_FILE))
+            {
+                storeMgr.setIndexFile(wb, ExcelIndexFile.read(storeMgr, wb, file));
+            }
+            return wb;
+        }
+        finally
+        {
+            fileLock.unlockShared();
+        }
+    }
+
+    /**
+     * Method to write the workbook to the file, by writing to a temporary file and renaming it over the file.
+     * The caller must hold the exclusive lock on the file.
+     * @param wb The workbook
+     * @throws IOException if an error occurs writing the file
+     */
+    protected void writeToFile(Workbook wb) throws IOException
+    {
+        File tmpFile = File.createTempFile(file.getName() + ".dn", ".tmp", file.getAbsoluteFile().getParentFile());
+        try
+        {
+            try (FileOutputStream os = new FileOutputStream(tmpFile))
+            {
+                writeWorkbook(wb, os);
+                os.getFD().sync();
+            }
+            try
+            {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException amnse)
+            {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    /**
+     * Method to write the workbook to the file (a checkpoint), first recording the statistics of its worksheets (see {@link ExcelMetaSheet}),
+     * and then writing any index file (see {@link ExcelIndexFile}).
+     * When using a shared workbook the workbook is locked while writing, so that no other connection can change it part way through.
+     * If this thread is within an operation on the shared workbook (i.e a nested operation) then the write is left to the end of the
+     * outermost operation. If the changes committed so far have already been written (by another connection that was writing while we
+     * waited for the lock) then there is nothing to write. If another transaction has uncommitted changes in the shared workbook then the
+     * write is left to the end of that transaction, so that the file never holds uncommitted changes.
+     * @throws IOException if an error occurs writing the file
+     */
+    protected void writeWorkbook() throws IOException
+    {
+        boolean locked = false;
+        if (sharedWorkbook != null)
+        {
+            long changeCount = sharedWorkbook.getCommittedChangeCount();
+            if (sharedWorkbook.isWrittenSince(changeCount))
+            {
+                return;
+            }
+            locked = sharedWorkbook.lockWorkbook();
+            if (!locked)
+            {
+                return;
+            }
+            if (sharedWorkbook.isWrittenSince(changeCount) || sharedWorkbook.hasUncommittedChanges())
+            {
+                // Already written, or to be written at the end of the transaction(s) with uncommitted changes
+                sharedWorkbook.unlockWorkbook();
+                return;
+            }
+        }
+
+        try
+        {
+            NucleusLogger.CONNECTION.debug("ManagedConnection " + this.toString() + " is committing");
+            ExcelFileLock fileLock = ExcelFileLock.getLockForFile(file);
+            FileLock lock = fileLock.lockExclusive();
+            try
+            {
+                if (storeMgr.getBooleanProperty(ExcelStoreManager.PROPERTY_STATISTICS_SHEET))
+                {
+                    ExcelMetaSheet.write(storeMgr, (Workbook)conn);
+                }
+                writeToFile((Workbook)conn);
+                if (sharedWorkbook != null)
+                {
+                    // Record the file as written by us, so it isn't taken as changed by another process
+                    sharedWorkbook.setFileStamp(file);
+                    sharedWorkbook.workbookWritten();
+                }
+                if (storeMgr.getBooleanProperty(ExcelStoreManager.PROPERTY_INDEX_FILE))
+                {
+                    ExcelIndexFile.write(storeMgr, (Workbook)conn, file);
+                }
+            }
+            finally
+            {
+                fileLock.unlockExclusive(lock);
+            }
+            NucleusLogger.CONNECTION.debug("ManagedConnection " + this.toString() + " committed connection");
+        }
+        finally
+        {
+            if (locked)
+            {
+                sharedWorkbook.unlockWorkbook();
+            }
+        }
+    }
+
     public void release()
     {
         if (commitOnRelease)
@@ -83,11 +299,11 @@ public abstract class AbstractExcelManagedConnection extends AbstractManagedConn
             // Non-transactional operation end : Write to file
             try
             {
-                NucleusLogger.CONNECTION.debug("ManagedConnection " + this.toString() + " is committing");
-                FileOutputStream os = new FileOutputStream(file);
-                ((Workbook)conn).write(new FileOutputStream(file));
-                os.close();
-                NucleusLogger.CONNECTION.debug("ManagedConnection " + this.toString() + " committed connection");
+                if (sharedWorkbook != null)
+                {
+                    sharedWorkbook.changesCommitted();
+                }
+                writeWorkbook();
             }
             catch (IOException e)
             {
@@ -111,14 +327,22 @@ public abstract class AbstractExcelManagedConnection extends AbstractManagedConn
                 listeners.get(i).managedConnectionPreClose();
             }
 
-            // Commit any remaining changes
-            NucleusLogger.CONNECTION.debug("ManagedConnection " + this.toString() + " is committing");
-            FileOutputStream os = new FileOutputStream(file);
-            ((Workbook)conn).write(new FileOutputStream(file));
-            os.close();
-            NucleusLogger.CONNECTION.debug("ManagedConnection " + this.toString() + " committed connection");
+            // Commit any remaining changes. After a rollback the workbook of the connection is just discarded, but with a shared
+            // workbook any changes committed by other transactions while this transaction had uncommitted changes are now written
+            if (!rolledBack && sharedWorkbook != null)
+            {
+                sharedWorkbook.changesCommitted();
+            }
+            if (!rolledBack || sharedWorkbook != null)
+            {
+                writeWorkbook();
+            }
 
-            // Close the connection
+            // Close the connection (any shared workbook is retained by the StoreManager)
+            if (sharedWorkbook != null)
+            {
+                sharedWorkbook.connectionClosed(undoLog);
+            }
             file = null;
             conn = null;
         }
@@ -128,6 +352,13 @@ public abstract class AbstractExcelManagedConnection extends AbstractManagedConn
         }
         finally
         {
+            rolledBack = false;
+            undoLog.clear();
+            if (sharedWorkbook != null)
+            {
+                // End of transaction, so release any rows locked by this connection
+                sharedWorkbook.getRowLockTable().unlockRows(this);
+            }
             for (int i=0; i<listeners.size(); i++)
             {
                 listeners.get(i).managedConnectionPostClose();
@@ -139,6 +370,37 @@ public abstract class AbstractExcelManagedConnection extends AbstractManagedConn
 
     public XAResource getXAResource()
     {
-        return null;
+        return new EmulatedXAResource(this);
+    }
+
+    /**
+     * Emulated XAResource for the connection, so that the end of the transaction is known to be a commit or a rollback.
+     */
+    class EmulatedXAResource extends AbstractEmulatedXAResource
+    {
+        EmulatedXAResource(AbstractExcelManagedConnection mconn)
+        {
+            super(mconn);
+        }
+
+        public void commit(Xid xid, boolean onePhase) throws XAException
+        {
+            super.commit(xid, onePhase);
+            undoLog.clear();
+            if (sharedWorkbook != null)
+            {
+                sharedWorkbook.changesCommitted();
+            }
+        }
+
+        public void rollback(Xid xid) throws XAException
+        {
+            super.rollback(xid);
+            if (sharedWorkbook != null && conn != null && !undoLog.isEmpty())
+            {
+                undoLog.rollback((Workbook)conn);
+            }
+            rolledBack = true;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,401 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+
+/**
+ * Matcher for a value in a particular column of a worksheet.
+ * The type of the column is resolved to a type code, and any numeric/boolean/date value is unboxed,
+ * when the matcher is created, so that matching against each row of a sheet is a single switch.
+ */
+public class CellMatcher
+{
+    final int colNumber;
+
+    final int typeCode;
+
+    final Object value;
+
+    /** Value when numeric integral (or char, boolean (0/1), or date (millisecs)). */
+    final long longValue;
+
+    /** Value when float/double. */
+    final double doubleValue;
+
+    /**
+     * Constructor for a matcher of a column to a value.
+     * @param colNumber The column number in the sheet
+     * @param type The Java type of the value
+     * @param value The value to match against (can be null, in which case nothing will match)
+     */
+    public CellMatcher(int colNumber, Class type, Object value)
+    {
+        this.colNumber = colNumber;
+        this.typeCode = (value != null ? ExcelTypeCode.forType(type) : ExcelTypeCode.OTHER);
+        this.value = value;
+
+        long lValue = 0;
+        double dValue = 0;
+        switch (typeCode)
+        {
+            case ExcelTypeCode.BYTE:
+            case ExcelTypeCode.SHORT:
+            case ExcelTypeCode.INTEGER:
+            case ExcelTypeCode.LONG:
+                lValue = ((Number)value).longValue();
+                break;
+            case ExcelTypeCode.FLOAT:
+            case ExcelTypeCode.DOUBLE:
+                dValue = ((Number)value).doubleValue();
+                break;
+            case ExcelTypeCode.CHARACTER:
+                lValue = ((Character)value).charValue();
+                break;
+            case ExcelTypeCode.BOOLEAN:
+                lValue = ((Boolean)value).booleanValue() ? 1 : 0;
+                break;
+            case ExcelTypeCode.DATE:
+            case ExcelTypeCode.SQL_DATE:
+            case ExcelTypeCode.SQL_TIME:
+            case ExcelTypeCode.SQL_TIMESTAMP:
+                lValue = ((Date)value).getTime();
+                break;
+            default:
+                break;
+        }
+        this.longValue = lValue;
+        this.doubleValue = dValue;
+    }
+
+    public int getColumnNumber()
+    {
+        return colNumber;
+    }
+
+    public int getTypeCode()
+    {
+        return typeCode;
+    }
+
+    /**
+     * Method to return whether the cell in our column of the specified row matches our value.
+     * @param row The row
+     * @return Whether it matches
+     */
+    public boolean matches(Row row)
+    {
+        return matches(row.getCell(colNumber));
+    }
+
+    /**
+     * Method to return whether the specified cell matches our value.
+     * @param cell The cell
+     * @return Whether it matches
+     */
+    public boolean matches(Cell cell)
+    {
+        if (cell == null)
+        {
+            return false;
+        }
+
+        switch (typeCode)
+        {
+            case ExcelTypeCode.STRING:
+                return cell.getRichStringCellValue().getString().equals(value);
+            case ExcelTypeCode.INTEGER:
+                return (int)longValue == (int)cell.getNumericCellValue();
+            case ExcelTypeCode.LONG:
+                return longValue == (long)cell.getNumericCellValue();
+            case ExcelTypeCode.SHORT:
+                return (short)longValue == (short)cell.getNumericCellValue();
+            case ExcelTypeCode.BYTE:
+                return (byte)longValue == (byte)cell.getNumericCellValue();
+            case ExcelTypeCode.FLOAT:
+                return (float)doubleValue == (float)cell.getNumericCellValue();
+            case ExcelTypeCode.DOUBLE:
+                return doubleValue == cell.getNumericCellValue();
+            case ExcelTypeCode.BOOLEAN:
+                return (longValue == 1) == cell.getBooleanCellValue();
+            case ExcelTypeCode.CHARACTER:
+                if (cell.getCellType() == CellType.NUMERIC)
+                {
+                    // StoreFieldManager stores a char as numeric
+                    return (char)longValue == (char)cell.getNumericCellValue();
+                }
+                return (char)longValue == cell.getRichStringCellValue().getString().charAt(0);
+            case ExcelTypeCode.DATE:
+            case ExcelTypeCode.SQL_DATE:
+            case ExcelTypeCode.SQL_TIME:
+            case ExcelTypeCode.SQL_TIMESTAMP:
+                return longValue == cell.getDateCellValue().getTime();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Method to return whether the cell in our column of the specified row may match our value, for use in pre-filtering rows.
+     * Unlike {@link #matches(Row)} this only returns false where the cell definitely holds a different value, so an empty cell
+     * (which is read as the default value of a primitive field) or a cell of a different type may match.
+     * @param row The row
+     * @return Whether it may match
+     */
+    public boolean mayMatch(Row row)
+    {
+        Cell cell = row.getCell(colNumber);
+        if (cell == null || cell.getCellType() == CellType.BLANK)
+        {
+            return true;
+        }
+        try
+        {
+            return matches(cell);
+        }
+        catch (RuntimeException e)
+        {
+            // Cell value not of the type of our value
+            return true;
+        }
+    }
+
+    /**
+     * Accessor for whether this matcher can provide a key for its value, for use in hashed lookups.
+     * Only the types that {@link #matches(Cell)} and {@link #getKey()} compare are keyable, so any other type (e.g an enum, Calendar or byte[],
+     * which aren't stored as a single comparable value) has to be compared in-memory.
+     * @return Whether a key is available (false if the value is null or of a type we can't compare)
+     */
+    public boolean isKeyable()
+    {
+        switch (typeCode)
+        {
+            case ExcelTypeCode.STRING:
+            case ExcelTypeCode.CHARACTER:
+            case ExcelTypeCode.BOOLEAN:
+            case ExcelTypeCode.BYTE:
+            case ExcelTypeCode.SHORT:
+            case ExcelTypeCode.INTEGER:
+            case ExcelTypeCode.LONG:
+            case ExcelTypeCode.FLOAT:
+            case ExcelTypeCode.DOUBLE:
+            case ExcelTypeCode.DATE:
+            case ExcelTypeCode.SQL_DATE:
+            case ExcelTypeCode.SQL_TIME:
+            case ExcelTypeCode.SQL_TIMESTAMP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Accessor for the value of this matcher in the normalised form used as a (component of a) lookup key.
+     * A cell that matches this value will return an equal key from {@link #getKeyForCell(Cell)}.
+     * @return The key (or null if not keyable)
+     */
+    public Object getKey()
+    {
+        switch (typeCode)
+        {
+            case ExcelTypeCode.STRING:
+                return value;
+            case ExcelTypeCode.INTEGER:
+                return Long.valueOf((int)longValue);
+            case ExcelTypeCode.LONG:
+                return Long.valueOf(longValue);
+            case ExcelTypeCode.SHORT:
+                return Long.valueOf((short)longValue);
+            case ExcelTypeCode.BYTE:
+                return Long.valueOf((byte)longValue);
+            case ExcelTypeCode.FLOAT:
+                return Float.valueOf((float)doubleValue);
+            case ExcelTypeCode.DOUBLE:
+                return Double.valueOf(doubleValue);
+            case ExcelTypeCode.BOOLEAN:
+                return Boolean.valueOf(longValue == 1);
+            case ExcelTypeCode.CHARACTER:
+                return Character.valueOf((char)longValue);
+            case ExcelTypeCode.DATE:
+            case ExcelTypeCode.SQL_DATE:
+            case ExcelTypeCode.SQL_TIME:
+            case ExcelTypeCode.SQL_TIMESTAMP:
+                return Long.valueOf(longValue);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Accessor for the value of the specified cell in the normalised key form for the type of this matcher.
+     * @param cell The cell
+     * @return The key (or null if the cell is null or not of the type of this matcher)
+     */
+    public Object getKeyForCell(Cell cell)
+    {
+        if (cell == null)
+        {
+            return null;
+        }
+
+        CellType cellType = cell.getCellType();
+        switch (typeCode)
+        {
+            case ExcelTypeCode.STRING:
+                return (cellType == CellType.STRING) ? cell.getRichStringCellValue().getString() : null;
+            case ExcelTypeCode.INTEGER:
+                return (cellType == CellType.NUMERIC) ? Long.valueOf((int)cell.getNumericCellValue()) : null;
+            case ExcelTypeCode.LONG:
+                return (cellType == CellType.NUMERIC) ? Long.valueOf((long)cell.getNumericCellValue()) : null;
+            case ExcelTypeCode.SHORT:
+                return (cellType == CellType.NUMERIC) ? Long.valueOf((short)cell.getNumericCellValue()) : null;
+            case ExcelTypeCode.BYTE:
+                return (cellType == CellType.NUMERIC) ? Long.valueOf((byte)cell.getNumericCellValue()) : null;
+            case ExcelTypeCode.FLOAT:
+                return (cellType == CellType.NUMERIC) ? Float.valueOf((float)cell.getNumericCellValue()) : null;
+            case ExcelTypeCode.DOUBLE:
+                return (cellType == CellType.NUMERIC) ? Double.valueOf(cell.getNumericCellValue()) : null;
+            case ExcelTypeCode.BOOLEAN:
+                return (cellType == CellType.BOOLEAN) ? Boolean.valueOf(cell.getBooleanCellValue()) : null;
+            case ExcelTypeCode.CHARACTER:
+                if (cellType == CellType.NUMERIC)
+                {
+                    return Character.valueOf((char)cell.getNumericCellValue());
+                }
+                else if (cellType == CellType.STRING)
+                {
+                    String str = cell.getRichStringCellValue().getString();
+                    return (str.length() > 0) ? Character.valueOf(str.charAt(0)) : null;
+                }
+                return null;
+            case ExcelTypeCode.DATE:
+            case ExcelTypeCode.SQL_DATE:
+            case ExcelTypeCode.SQL_TIME:
+            case ExcelTypeCode.SQL_TIMESTAMP:
+                return (cellType == CellType.NUMERIC) ? Long.valueOf(cell.getDateCellValue().getTime()) : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Convenience method to return whether all of the provided matchers can provide a key.
+     * @param matchers The matchers
+     * @return Whether they are all keyable
+     */
+    public static boolean isKeyable(CellMatcher[] matchers)
+    {
+        for (int i=0;i<matchers.length;i++)
+        {
+            if (!matchers[i].isKeyable())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convenience method to return the lookup key for the values of the provided matchers.
+     * With a single matcher this is the key of that matcher, otherwise a List of the keys.
+     * @param matchers The matchers
+     * @return The key
+     */
+    public static Object getKey(CellMatcher[] matchers)
+    {
+        if (matchers.length == 1)
+        {
+            return matchers[0].getKey();
+        }
+        Object[] keys = new Object[matchers.length];
+        for (int i=0;i<matchers.length;i++)
+        {
+            keys[i] = matchers[i].getKey();
+        }
+        return Arrays.asList(keys);
+    }
+
+    /**
+     * Convenience method to return the lookup key for the specified row, using the columns and types of
+     * the provided matchers. The key will equal {@link #getKey(CellMatcher[])} of matchers that match this row.
+     * @param row The row
+     * @param matchers The matchers
+     * @return The key (or null if the row has no value in any of the columns)
+     */
+    public static Object getKeyForRow(Row row, CellMatcher[] matchers)
+    {
+        if (matchers.length == 1)
+        {
+            return matchers[0].getKeyForCell(row.getCell(matchers[0].colNumber));
+        }
+        Object[] keys = new Object[matchers.length];
+        for (int i=0;i<matchers.length;i++)
+        {
+            keys[i] = matchers[i].getKeyForCell(row.getCell(matchers[i].colNumber));
+            if (keys[i] == null)
+            {
+                return null;
+            }
+        }
+        return Arrays.asList(keys);
+    }
+
+    /**
+     * Convenience method to return whether the cells of the specified row match all of the provided matchers.
+     * @param row The row
+     * @param matchers The matchers
+     * @return Whether all match
+     */
+    public static boolean matchesAll(Row row, CellMatcher[] matchers)
+    {
+        for (int i=0;i<matchers.length;i++)
+        {
+            if (!matchers[i].matches(row.getCell(matchers[i].colNumber)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convenience method to return whether the cells of the specified row may match all of the provided matchers (see {@link #mayMatch(Row)}).
+     * @param row The row
+     * @param matchers The matchers (or null if none)
+     * @return Whether all may match
+     */
+    public static boolean mayMatchAll(Row row, CellMatcher[] matchers)
+    {
+        if (matchers != null)
+        {
+            for (int i=0;i<matchers.length;i++)
+            {
+                if (!matchers[i].mayMatch(row))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -87,6 +87,8 @@ public class ConnectionFactoryImpl extends AbstractConnectionFactory
      */
     public ManagedConnection createManagedConnection(ExecutionContext ec, Map options)
     {
-        return ooxml ? new OOXMLManagedConnection(filename) : new XLSManagedConnection(filename);
+        SharedWorkbook sharedWorkbook = ((ExcelStoreManager)storeMgr).getSharedWorkbook();
+        return ooxml ? new OOXMLManagedConnection((ExcelStoreManager)storeMgr, filename, sharedWorkbook) :
+            new XLSManagedConnection((ExcelStoreManager)storeMgr, filename, sharedWorkbook);
     }
 }
\ No newline at end of file
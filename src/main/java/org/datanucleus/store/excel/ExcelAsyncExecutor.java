@@ -0,0 +1,276 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.state.DNStateManager;
+import org.datanucleus.store.StoreData;
+import org.datanucleus.store.StorePersistenceHandler;
+import org.datanucleus.store.query.Query;
+import org.datanucleus.util.Localiser;
+
+/**
+ * Asynchronous facade for operations on an Excel datastore, returning a CompletableFuture for each operation.
+ * Mutations (insert, update, delete) are run on writer threads, each worksheet being assigned to one writer (a stripe), so mutations of a
+ * sheet are run in order. Mutations of different sheets (e.g Orders and Payments) are queued independently, though the change to the
+ * (shared) workbook itself is serialised (see {@link SharedWorkbook}), so one sheet waiting for a row lock doesn't hold up the others.
+ * With a workbook per connection there is only a single writer, since each write-back of the file would overwrite those of the others.
+ * Reads (fetch, query) are run on a pool of reader threads, so can proceed in parallel (with the per-sheet locking of a
+ * shared workbook, see {@link SharedWorkbook}). The caller thread is not held for the POI work or the write-back of the file.
+ * <p>
+ * The objects passed in (StateManagers, Query) belong to an ExecutionContext, which is not thread-safe. So an ExecutionContext can have
+ * only one operation in flight, and the caller must not use that ExecutionContext until the returned future is complete. Both are
+ * enforced : submitting a second operation for the ExecutionContext, or using it for a datastore operation from any other thread
+ * (see {@link #checkExecutionContext(ExecutionContext)}), throws a NucleusUserException rather than corrupting its state.
+ * To run operations concurrently use a PersistenceManager/EntityManager per operation.
+ * Obtain this via {@link ExcelStoreManager#getAsyncExecutor()}.
+ */
+public class ExcelAsyncExecutor
+{
+    final ExcelStoreManager storeMgr;
+
+    final StorePersistenceHandler persistenceHandler;
+
+    final ExecutorService[] writeExecutors;
+
+    final ExecutorService readExecutor;
+
+    /** ExecutionContexts with an operation in flight, mapped to the thread running it (or QUEUED when not yet started). */
+    final Map<ExecutionContext, Object> activeContexts = new ConcurrentHashMap<>();
+
+    private static final Object QUEUED = new Object();
+
+    /**
+     * Constructor.
+     * @param storeMgr The StoreManager
+     * @param numberOfReaders Number of threads for read operations
+     * @param numberOfWriters Number of threads (stripes) for write operations
+     */
+    public ExcelAsyncExecutor(ExcelStoreManager storeMgr, int numberOfReaders, int numberOfWriters)
+    {
+        this.storeMgr = storeMgr;
+        this.persistenceHandler = storeMgr.getPersistenceHandler();
+        ThreadFactory writerThreadFactory = new DaemonThreadFactory("DataNucleus-Excel-Writer");
+        this.writeExecutors = new ExecutorService[Math.max(numberOfWriters, 1)];
+        for (int i=0;i<writeExecutors.length;i++)
+        {
+            writeExecutors[i] = Executors.newSingleThreadExecutor(writerThreadFactory);
+        }
+        this.readExecutor = Executors.newFixedThreadPool(numberOfReaders, new DaemonThreadFactory("DataNucleus-Excel-Reader"));
+    }
+
+    /**
+     * Method to run the specified mutation on the writer thread of the specified worksheet.
+     * @param sheetName Name of the worksheet being changed
+     * @param operation The operation
+     * @return Future for the result of the operation
+     * @param <T> Type of the result
+     */
+    public <T> CompletableFuture<T> submitWrite(String sheetName, Supplier<T> operation)
+    {
+        return CompletableFuture.supplyAsync(operation, writeExecutors[getStripe(sheetName)]);
+    }
+
+    /**
+     * Method to run the specified read on a reader thread.
+     * @param operation The operation
+     * @return Future for the result of the operation
+     * @param <T> Type of the result
+     */
+    public <T> CompletableFuture<T> submitRead(Supplier<T> operation)
+    {
+        return CompletableFuture.supplyAsync(operation, readExecutor);
+    }
+
+    public CompletableFuture<Void> insertObjects(DNStateManager... sms)
+    {
+        if (sms == null || sms.length == 0)
+        {
+            return CompletableFuture.completedFuture(null);
+        }
+        return submit(sms[0].getExecutionContext(), writeExecutors[getStripe(getSheetName(sms[0]))], () ->
+        {
+            persistenceHandler.insertObjects(sms);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> updateObject(DNStateManager sm, int[] fieldNumbers)
+    {
+        return submit(sm.getExecutionContext(), writeExecutors[getStripe(getSheetName(sm))], () ->
+        {
+            persistenceHandler.updateObject(sm, fieldNumbers);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteObjects(DNStateManager... sms)
+    {
+        if (sms == null || sms.length == 0)
+        {
+            return CompletableFuture.completedFuture(null);
+        }
+        return submit(sms[0].getExecutionContext(), writeExecutors[getStripe(getSheetName(sms[0]))], () ->
+        {
+            persistenceHandler.deleteObjects(sms);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> fetchObjects(int[] fieldNumbers, DNStateManager... sms)
+    {
+        if (sms == null || sms.length == 0)
+        {
+            return CompletableFuture.completedFuture(null);
+        }
+        return submit(sms[0].getExecutionContext(), readExecutor, () ->
+        {
+            persistenceHandler.fetchObjects(fieldNumbers, sms);
+            return null;
+        });
+    }
+
+    /**
+     * Method to execute the specified query on a reader thread.
+     * @param query The query
+     * @param parameters Values of any parameters of the query (or null)
+     * @return Future for the result of the query
+     */
+    public CompletableFuture<Object> executeQuery(Query query, Object[] parameters)
+    {
+        return submit(query.getExecutionContext(), readExecutor, () -> query.executeWithArray(parameters));
+    }
+
+    /**
+     * Method to check that the specified ExecutionContext can be used by the current thread, so isn't in use by an operation of this
+     * executor (either queued, or running on another thread).
+     * @param ec ExecutionContext
+     * @throws NucleusUserException if the ExecutionContext is in use by an operation not yet complete
+     */
+    public void checkExecutionContext(ExecutionContext ec)
+    {
+        Object owner = activeContexts.get(ec);
+        if (owner != null && owner != Thread.currentThread())
+        {
+            throw new NucleusUserException(Localiser.msg("Excel.Async.ContextInUse", ec));
+        }
+    }
+
+    /**
+     * Method to run the specified operation for an ExecutionContext on the specified executor, registering the ExecutionContext as
+     * in use until the operation completes.
+     * @param ec ExecutionContext the operation uses
+     * @param executor The executor to run it on
+     * @param operation The operation
+     * @return Future for the result of the operation
+     * @param <T> Type of the result
+     * @throws NucleusUserException if the ExecutionContext already has an operation in flight
+     */
+    private <T> CompletableFuture<T> submit(ExecutionContext ec, ExecutorService executor, Supplier<T> operation)
+    {
+        if (activeContexts.putIfAbsent(ec, QUEUED) != null)
+        {
+            throw new NucleusUserException(Localiser.msg("Excel.Async.ContextInUse", ec));
+        }
+
+        try
+        {
+            return CompletableFuture.supplyAsync(() ->
+            {
+                activeContexts.put(ec, Thread.currentThread());
+                try
+                {
+                    return operation.get();
+                }
+                finally
+                {
+                    activeContexts.remove(ec);
+                }
+            }, executor);
+        }
+        catch (RejectedExecutionException ree)
+        {
+            activeContexts.remove(ec);
+            throw ree;
+        }
+    }
+
+    /**
+     * Accessor for the writer (stripe) to use for mutations of the specified worksheet.
+     * @param sheetName Name of the worksheet
+     * @return Index of the writer
+     */
+    protected int getStripe(String sheetName)
+    {
+        return (sheetName.hashCode() & Integer.MAX_VALUE) % writeExecutors.length;
+    }
+
+    /**
+     * Method to close the executor. Operations already submitted are completed, but no further operations are accepted.
+     */
+    public void close()
+    {
+        for (ExecutorService writeExecutor : writeExecutors)
+        {
+            writeExecutor.shutdown();
+        }
+        readExecutor.shutdown();
+    }
+
+    /**
+     * Accessor for the name of the worksheet holding the specified object, used to select the writer for a mutation.
+     * Where the class isn't yet managed the class name is used, so mutations of that class are still run in order.
+     * @param sm StateManager of the object
+     * @return Name of the worksheet
+     */
+    protected String getSheetName(DNStateManager sm)
+    {
+        String className = sm.getClassMetaData().getFullClassName();
+        StoreData sd = storeMgr.getStoreDataForClass(className);
+        return (sd != null && sd.getTable() != null) ? sd.getTable().getName() : className;
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory
+    {
+        final String namePrefix;
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        DaemonThreadFactory(String namePrefix)
+        {
+            this.namePrefix = namePrefix;
+        }
+
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, namePrefix + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
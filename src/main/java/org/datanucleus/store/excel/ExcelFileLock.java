@@ -0,0 +1,164 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Lock on an Excel file, coordinating readers and writers of the file across processes (and across connections within this process).
+ * Readers (parsing the file) hold a shared lock and a writer (writing back the file) holds an exclusive lock.
+ * <p>
+ * The operating system lock is taken on a separate lock file "{filename}.lock", since the Excel file itself is replaced on each write
+ * (written to a temporary file that is then renamed over it). A FileLock is held by the whole JVM, so within the JVM access is coordinated
+ * by a read-write lock, with the shared FileLock taken by the first reader and released by the last.
+ */
+public class ExcelFileLock
+{
+    private static final Map<String, ExcelFileLock> LOCKS = new ConcurrentHashMap<>();
+
+    final File lockFile;
+
+    final ReentrantReadWriteLock jvmLock = new ReentrantReadWriteLock();
+
+    FileChannel channel;
+
+    FileLock sharedLock;
+
+    int numberOfReaders = 0;
+
+    /**
+     * Accessor for the lock for the specified Excel file.
+     * @param file The Excel file
+     * @return The lock
+     * @throws IOException if the path of the file can't be resolved
+     */
+    public static ExcelFileLock getLockForFile(File file) throws IOException
+    {
+        String path = file.getCanonicalPath();
+        return LOCKS.computeIfAbsent(path, k -> new ExcelFileLock(new File(k + ".lock")));
+    }
+
+    private ExcelFileLock(File lockFile)
+    {
+        this.lockFile = lockFile;
+    }
+
+    /**
+     * Method to take a shared lock on the file, for reading it.
+     * @throws IOException if an error occurs locking the file
+     */
+    public void lockShared() throws IOException
+    {
+        jvmLock.readLock().lock();
+        try
+        {
+            synchronized (this)
+            {
+                if (numberOfReaders == 0)
+                {
+                    sharedLock = getChannel().lock(0, Long.MAX_VALUE, true);
+                }
+                numberOfReaders++;
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            jvmLock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Method to release a shared lock taken by {@link #lockShared()}.
+     * @throws IOException if an error occurs unlocking the file
+     */
+    public void unlockShared() throws IOException
+    {
+        try
+        {
+            synchronized (this)
+            {
+                numberOfReaders--;
+                if (numberOfReaders == 0 && sharedLock != null)
+                {
+                    sharedLock.release();
+                    sharedLock = null;
+                }
+            }
+        }
+        finally
+        {
+            jvmLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method to take an exclusive lock on the file, for writing it.
+     * @return The file lock, to be passed to {@link #unlockExclusive(FileLock)}
+     * @throws IOException if an error occurs locking the file
+     */
+    public FileLock lockExclusive() throws IOException
+    {
+        jvmLock.writeLock().lock();
+        try
+        {
+            synchronized (this)
+            {
+                return getChannel().lock(0, Long.MAX_VALUE, false);
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            jvmLock.writeLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Method to release an exclusive lock taken by {@link #lockExclusive()}.
+     * @param fileLock The file lock
+     * @throws IOException if an error occurs unlocking the file
+     */
+    public void unlockExclusive(FileLock fileLock) throws IOException
+    {
+        try
+        {
+            fileLock.release();
+        }
+        finally
+        {
+            jvmLock.writeLock().unlock();
+        }
+    }
+
+    private FileChannel getChannel() throws IOException
+    {
+        if (channel == null || !channel.isOpen())
+        {
+            channel = new RandomAccessFile(lockFile, "rw").getChannel();
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,355 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.datanucleus.util.Localiser;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Index of the row number for each identity stored in a worksheet.
+ * Built with a single scan of the sheet the first time it is needed for a workbook, and then maintained by
+ * ExcelPersistenceHandler as objects are inserted and deleted, so that finding the row of an object is a hashed lookup.
+ * The identity key of a row is as defined by {@link CellMatcher#getKey(CellMatcher[])}.
+ * For a versioned class the index also holds the version stored in the row of each identity (read from the sheet the first time a
+ * version is required), so that an optimistic version check doesn't need to read the row.
+ * When using an index file (see {@link ExcelIndexFile}) the index can instead start from the sorted entries of that file, which are
+ * searched in place until the index is first changed. The file can't be relied on to be up to date (e.g the rows of the worksheet may
+ * have been sorted in Excel without changing its layout), so the row found for a key in an index started from the file is checked to
+ * hold that key, and on any mismatch the index is rebuilt by scanning the worksheet.
+ */
+public class ExcelIdentityIndex
+{
+    final String sheetName;
+
+    /** Numbers of the columns of the identity key. */
+    final int[] colNumbers;
+
+    /** Type codes (see {@link ExcelTypeCode}) of the columns of the identity key. */
+    final int[] typeCodes;
+
+    /** Entries read from the index file, used until the index is first changed (and then null). */
+    volatile ExcelIndexFile.Segment segment;
+
+    /** Row number for each identity key. Null while using the entries of the index file. */
+    volatile Map<Object, Integer> rowNumbersByKey;
+
+    /** Version stored for each identity key, in the form of {@link #getVersionKey(Object)}. Null until first required. */
+    Map<Object, Object> versionsByKey = null;
+
+    /** The worksheet, when the index was started from the index file so its rows need checking (otherwise null). */
+    volatile Sheet unverifiedSheet;
+
+    /** Number of the first row of the sheet holding objects, for rebuilding the index. */
+    int firstRowNum;
+
+    /** Matchers defining the columns and types of the key, for checking and rebuilding the index. */
+    CellMatcher[] matchers;
+
+    /**
+     * Constructor, building the index by scanning the specified sheet.
+     * @param sheet The worksheet
+     * @param firstRowNum Number of the first row of the sheet holding objects (i.e after any header row)
+     * @param matchers Matchers for the identity of (any) object stored in this sheet, defining the columns and types of the key
+     */
+    public ExcelIdentityIndex(Sheet sheet, int firstRowNum, CellMatcher[] matchers)
+    {
+        this.sheetName = sheet.getSheetName();
+        this.colNumbers = new int[matchers.length];
+        this.typeCodes = new int[matchers.length];
+        for (int i=0;i<matchers.length;i++)
+        {
+            colNumbers[i] = matchers[i].colNumber;
+            typeCodes[i] = matchers[i].typeCode;
+        }
+        this.rowNumbersByKey = ExcelUtils.getRowNumbersByKey(sheet, firstRowNum, matchers);
+    }
+
+    /**
+     * Constructor, using the entries read from the index file for the sheet.
+     * @param sheet The worksheet
+     * @param firstRowNum Number of the first row of the sheet holding objects (i.e after any header row)
+     * @param matchers Matchers for the identity of (any) object stored in this sheet, defining the columns and types of the key
+     * @param segment The entries for the sheet from the index file
+     */
+    public ExcelIdentityIndex(Sheet sheet, int firstRowNum, CellMatcher[] matchers, ExcelIndexFile.Segment segment)
+    {
+        this.sheetName = sheet.getSheetName();
+        this.colNumbers = segment.colNumbers;
+        this.typeCodes = segment.typeCodes;
+        this.segment = segment;
+        this.unverifiedSheet = sheet;
+        this.firstRowNum = firstRowNum;
+        this.matchers = matchers;
+    }
+
+    public String getSheetName()
+    {
+        return sheetName;
+    }
+
+    public int size()
+    {
+        ExcelIndexFile.Segment seg = segment;
+        return (seg != null) ? seg.size() : rowNumbersByKey.size();
+    }
+
+    /**
+     * Accessor for the entries read from the index file, if the index has not been changed since.
+     * @return The entries (or null)
+     */
+    public ExcelIndexFile.Segment getSegment()
+    {
+        return segment;
+    }
+
+    /**
+     * Accessor for the row number of each identity key, taking the entries from the index file (and no longer using the file) if
+     * not yet done.
+     * @return The row numbers keyed by identity key
+     */
+    public synchronized Map<Object, Integer> getRowNumbersByKey()
+    {
+        if (rowNumbersByKey == null)
+        {
+            rowNumbersByKey = segment.getRowNumbersByKey();
+            segment = null;
+        }
+        return rowNumbersByKey;
+    }
+
+    /**
+     * Accessor for the row number for the specified identity key.
+     * @param key The key
+     * @return The row number (or -1 if not present)
+     */
+    public int getRowNumber(Object key)
+    {
+        int rowNumber = getIndexedRowNumber(key);
+        Sheet sheet = unverifiedSheet;
+        if (rowNumber >= 0 && sheet != null && !key.equals(getKeyForRow(sheet, rowNumber)))
+        {
+            rebuild(sheet);
+            rowNumber = getIndexedRowNumber(key);
+        }
+        return rowNumber;
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return getRowNumber(key) >= 0;
+    }
+
+    private int getIndexedRowNumber(Object key)
+    {
+        ExcelIndexFile.Segment seg = segment;
+        if (seg != null)
+        {
+            return seg.getRowNumber(key);
+        }
+        Integer rowNumber = rowNumbersByKey.get(key);
+        return (rowNumber != null) ? rowNumber : -1;
+    }
+
+    private Object getKeyForRow(Sheet sheet, int rowNumber)
+    {
+        Row row = sheet.getRow(rowNumber);
+        return (row != null) ? CellMatcher.getKeyForRow(row, matchers) : null;
+    }
+
+    /**
+     * Method to rebuild the index by scanning the worksheet, where the entries taken from the index file are found not to match its rows.
+     * @param sheet The worksheet
+     */
+    private synchronized void rebuild(Sheet sheet)
+    {
+        if (unverifiedSheet == null)
+        {
+            // Already rebuilt by another thread
+            return;
+        }
+        NucleusLogger.DATASTORE_RETRIEVE.warn(Localiser.msg("Excel.IndexFile.Mismatch", sheetName));
+        rowNumbersByKey = ExcelUtils.getRowNumbersByKey(sheet, firstRowNum, matchers);
+        segment = null;
+        versionsByKey = null;
+        unverifiedSheet = null;
+    }
+
+    /**
+     * Method to register the row of a newly inserted identity.
+     * @param key The identity key
+     * @param rowNumber The row number
+     */
+    public void put(Object key, int rowNumber)
+    {
+        getRowNumbersByKey().put(key, rowNumber);
+    }
+
+    /**
+     * Method to remove the specified identity, where its row is left in place (but emptied).
+     * @param key The identity key
+     */
+    public void remove(Object key)
+    {
+        getRowNumbersByKey().remove(key);
+        if (versionsByKey != null)
+        {
+            versionsByKey.remove(key);
+        }
+    }
+
+    /**
+     * Accessor for the version stored for the specified identity key.
+     * The first time this is called the versions of all identities are read from the version column of the sheet (unless the index
+     * was started from the index file, and not rebuilt since, in which case just the version of this identity is read).
+     * @param key The identity key
+     * @param sheet The worksheet
+     * @param versionColNumber Number of the column holding the version
+     * @param dateVersion Whether the version is a date-time (otherwise a number)
+     * @return The version, in the form of {@link #getVersionKey(Object)} (or null if not known)
+     */
+    public synchronized Object getVersion(Object key, Sheet sheet, int versionColNumber, boolean dateVersion)
+    {
+        if (unverifiedSheet != null)
+        {
+            // Rows taken from the index file aren't all known to be correct, so just read the version from the (checked) row of this key
+            int rowNumber = getRowNumber(key);
+            if (unverifiedSheet != null)
+            {
+                Row row = (rowNumber >= 0) ? sheet.getRow(rowNumber) : null;
+                return (row != null) ? getVersionKeyForCell(row.getCell(versionColNumber), dateVersion) : null;
+            }
+        }
+        if (versionsByKey == null)
+        {
+            Map<Object, Integer> rowNumbers = getRowNumbersByKey();
+            versionsByKey = new HashMap<>(rowNumbers.size());
+            for (Map.Entry<Object, Integer> entry : rowNumbers.entrySet())
+            {
+                Row row = sheet.getRow(entry.getValue());
+                Object version = (row != null) ? getVersionKeyForCell(row.getCell(versionColNumber), dateVersion) : null;
+                if (version != null)
+                {
+                    versionsByKey.put(entry.getKey(), version);
+                }
+            }
+        }
+        return versionsByKey.get(key);
+    }
+
+    /**
+     * Method to register the version now stored for the specified identity key.
+     * @param key The identity key
+     * @param version The version (Long or Date)
+     */
+    public synchronized void putVersion(Object key, Object version)
+    {
+        if (versionsByKey != null)
+        {
+            Object versionKey = getVersionKey(version);
+            if (versionKey != null)
+            {
+                versionsByKey.put(key, versionKey);
+            }
+            else
+            {
+                versionsByKey.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Convenience method to return a version in the form held by the index, so versions can be compared with equals.
+     * @param version The version (Number or Date)
+     * @return The version as a Long (number, or millisecs for a date), or null if not a supported type
+     */
+    public static Object getVersionKey(Object version)
+    {
+        if (version instanceof Number)
+        {
+            return Long.valueOf(((Number)version).longValue());
+        }
+        else if (version instanceof Date)
+        {
+            return Long.valueOf(((Date)version).getTime());
+        }
+        return null;
+    }
+
+    /**
+     * Convenience method to return the version stored in a cell in the form held by the index.
+     * @param cell The cell
+     * @param dateVersion Whether the version is a date-time (otherwise a number)
+     * @return The version (or null if the cell has no version)
+     */
+    public static Object getVersionKeyForCell(Cell cell, boolean dateVersion)
+    {
+        if (cell == null || cell.getCellType() != CellType.NUMERIC)
+        {
+            return null;
+        }
+        return dateVersion ? Long.valueOf(cell.getDateCellValue().getTime()) : Long.valueOf((long)cell.getNumericCellValue());
+    }
+
+    /**
+     * Method to update the index for the removal of the specified rows from the sheet, with all following rows moved up.
+     * Entries for the removed rows are dropped, and every other entry has its row number reduced by the number of removed rows above it.
+     * @param removedRows Numbers of the removed rows, in ascending order
+     */
+    public void rowsRemoved(int[] removedRows)
+    {
+        if (removedRows.length == 0)
+        {
+            return;
+        }
+
+        Iterator<Map.Entry<Object, Integer>> entryIter = getRowNumbersByKey().entrySet().iterator();
+        while (entryIter.hasNext())
+        {
+            Map.Entry<Object, Integer> entry = entryIter.next();
+            int rowNumber = entry.getValue();
+            int pos = Arrays.binarySearch(removedRows, rowNumber);
+            if (pos >= 0)
+            {
+                if (versionsByKey != null)
+                {
+                    versionsByKey.remove(entry.getKey());
+                }
+                entryIter.remove();
+            }
+            else
+            {
+                // Number of removed rows above this row is the insertion point
+                int numRemovedAbove = -(pos + 1);
+                if (numRemovedAbove > 0)
+                {
+                    entry.setValue(rowNumber - numRemovedAbove);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,617 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.datanucleus.util.Localiser;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Index file "{filename}.dnidx" alongside an Excel file, persisting the identity indexes of its worksheets (see {@link ExcelIdentityIndex})
+ * so that a process opening the workbook doesn't need to read every row of a sheet to find an object. The file is written at each
+ * checkpoint (write of the workbook, see {@link AbstractExcelManagedConnection#writeWorkbook()}), holding for each sheet the identity keys
+ * in sorted order with their row numbers. The file records the modification time and length of the Excel file it was written for, and
+ * is ignored when these don't match (e.g the Excel file was written by a process not using an index file), so indexes are built from
+ * the sheets as before.
+ * <p>
+ * The file is memory-mapped when the workbook is loaded, and the entries for a sheet are searched in place (binary search) until the
+ * index of the sheet is first changed, at which point they are read into memory.
+ * <p>
+ * The format is (big-endian)
+ * <pre>
+ * int magic, int version, long modification time of Excel file, long length of Excel file, int number of sheets
+ * for each sheet : int length + UTF-8 bytes of sheet name, int number of key columns, (int column number, int type code) for each key column,
+ *     int last row number, int number of physical rows, int number of entries, int length of keys,
+ *     (int offset of key, int row number) for each entry in key order, then the keys
+ * </pre>
+ * A key is a tag byte followed by its value : 'L' long, 'D' double, 'F' float, 'Z' boolean, 'C' char, 'S' string (int length + UTF-8 bytes),
+ * 'T' composite key (int number of components, then each component).
+ */
+public class ExcelIndexFile
+{
+    /** Suffix added to the name of the Excel file for the index file. */
+    public static final String FILE_SUFFIX = ".dnidx";
+
+    static final int MAGIC = 0x444E4958; // "DNIX"
+
+    static final int FORMAT_VERSION = 1;
+
+    /** Entries for each worksheet not yet taken by an identity index, keyed by worksheet name. */
+    final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    /**
+     * Entries of the index file for a worksheet, sorted by identity key.
+     */
+    public static class Segment
+    {
+        final int[] colNumbers;
+
+        final int[] typeCodes;
+
+        final int lastRowNum;
+
+        final int physicalRows;
+
+        final int numEntries;
+
+        /** The entries (offset of key, row number) followed by the keys. */
+        final ByteBuffer buffer;
+
+        /** Modification epoch of the worksheet when the entries were read (see {@link ExcelStoreManager#getSheetEpoch}). */
+        long sheetEpoch;
+
+        Segment(int[] colNumbers, int[] typeCodes, int lastRowNum, int physicalRows, int numEntries, ByteBuffer buffer)
+        {
+            this.colNumbers = colNumbers;
+            this.typeCodes = typeCodes;
+            this.lastRowNum = lastRowNum;
+            this.physicalRows = physicalRows;
+            this.numEntries = numEntries;
+            this.buffer = buffer;
+        }
+
+        public int size()
+        {
+            return numEntries;
+        }
+
+        /**
+         * Accessor for the row number for the specified identity key, using a binary search of the entries.
+         * @param key The key
+         * @return The row number (or -1 if not present)
+         */
+        public int getRowNumber(Object key)
+        {
+            int low = 0;
+            int high = numEntries - 1;
+            while (low <= high)
+            {
+                int mid = (low + high) >>> 1;
+                int cmp = compareKeys(getKey(mid), key);
+                if (cmp < 0)
+                {
+                    low = mid + 1;
+                }
+                else if (cmp > 0)
+                {
+                    high = mid - 1;
+                }
+                else
+                {
+                    return buffer.getInt(mid * 8 + 4);
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Accessor for the row number of each identity key, read from the entries.
+         * @return The row numbers keyed by identity key
+         */
+        public Map<Object, Integer> getRowNumbersByKey()
+        {
+            Map<Object, Integer> rowNumbersByKey = new HashMap<>(Math.max(16, (int)(numEntries / 0.75f) + 1));
+            for (int i=0;i<numEntries;i++)
+            {
+                rowNumbersByKey.put(getKey(i), buffer.getInt(i * 8 + 4));
+            }
+            return rowNumbersByKey;
+        }
+
+        boolean isValidFor(Sheet sheet, CellMatcher[] matchers)
+        {
+            if (sheet.getLastRowNum() != lastRowNum || sheet.getPhysicalNumberOfRows() != physicalRows || matchers.length != colNumbers.length)
+            {
+                return false;
+            }
+            for (int i=0;i<matchers.length;i++)
+            {
+                if (matchers[i].colNumber != colNumbers[i] || matchers[i].typeCode != typeCodes[i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Object getKey(int index)
+        {
+            ByteBuffer keyBuffer = buffer.duplicate();
+            keyBuffer.position(numEntries * 8 + buffer.getInt(index * 8));
+            return readKey(keyBuffer);
+        }
+    }
+
+    private ExcelIndexFile()
+    {
+    }
+
+    /**
+     * Accessor for the index file of the specified Excel file.
+     * @param file The Excel file
+     * @return The index file
+     */
+    public static File getIndexFile(File file)
+    {
+        return new File(file.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * Method to read the index file of a workbook that has just been loaded from its Excel file, holding (at least) a shared lock on the file.
+     * Only the entries for worksheets that have the layout (last row number, number of physical rows) recorded in the index file are retained
+     * (checked when the entries are used for a worksheet not yet parsed, see {@link OOXMLSheetLoader}).
+     * @param storeMgr StoreManager
+     * @param wb The workbook
+     * @param file The Excel file
+     * @return The index file (or null if not present, or not for the current Excel file)
+     */
+    public static ExcelIndexFile read(ExcelStoreManager storeMgr, Workbook wb, File file)
+    {
+        File indexFile = getIndexFile(file);
+        if (!indexFile.exists())
+        {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+            {
+                return null;
+            }
+            long modified = buffer.getLong();
+            long length = buffer.getLong();
+            if (modified != file.lastModified() || length != file.length())
+            {
+                if (NucleusLogger.DATASTORE.isDebugEnabled())
+                {
+                    NucleusLogger.DATASTORE.debug(Localiser.msg("Excel.IndexFile.OutOfDate", indexFile, file));
+                }
+                return null;
+            }
+
+            ExcelIndexFile excelIndexFile = new ExcelIndexFile();
+            int numSegments = buffer.getInt();
+            for (int i=0;i<numSegments;i++)
+            {
+                String sheetName = readString(buffer);
+                int numCols = buffer.getInt();
+                int[] colNumbers = new int[numCols];
+                int[] typeCodes = new int[numCols];
+                for (int j=0;j<numCols;j++)
+                {
+                    colNumbers[j] = buffer.getInt();
+                    typeCodes[j] = buffer.getInt();
+                }
+                int lastRowNum = buffer.getInt();
+                int physicalRows = buffer.getInt();
+                int numEntries = buffer.getInt();
+                int keysLength = buffer.getInt();
+
+                ByteBuffer segmentBuffer = buffer.slice();
+                segmentBuffer.limit(numEntries * 8 + keysLength);
+                buffer.position(buffer.position() + numEntries * 8 + keysLength);
+
+                Sheet sheet = wb.getSheet(sheetName);
+                if (sheet != null && (!storeMgr.isSheetLoaded(wb, sheet) ||
+                    (sheet.getLastRowNum() == lastRowNum && sheet.getPhysicalNumberOfRows() == physicalRows)))
+                {
+                    Segment segment = new Segment(colNumbers, typeCodes, lastRowNum, physicalRows, numEntries, segmentBuffer);
+                    segment.sheetEpoch = storeMgr.getSheetEpoch(wb, sheetName);
+                    excelIndexFile.segments.put(sheetName, segment);
+                }
+            }
+
+            if (NucleusLogger.DATASTORE.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE.debug(Localiser.msg("Excel.IndexFile.Read", indexFile, "" + excelIndexFile.segments.size(), "" + numSegments));
+            }
+            return excelIndexFile;
+        }
+        catch (IOException | BufferUnderflowException | IllegalArgumentException e)
+        {
+            NucleusLogger.DATASTORE.warn(Localiser.msg("Excel.IndexFile.ReadFailed", indexFile, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Method to take the entries of the index file for the specified worksheet, for use by its identity index. The entries are
+     * only returned if the sheet hasn't been changed since the index file was read, and its identity is of the same columns and types.
+     * @param sheet The worksheet
+     * @param matchers Matchers for the identity of (any) object stored in the sheet
+     * @param sheetEpoch Current modification epoch of the sheet
+     * @return The entries (or null if not usable)
+     */
+    public Segment takeSegment(Sheet sheet, CellMatcher[] matchers, long sheetEpoch)
+    {
+        Segment segment = segments.remove(sheet.getSheetName());
+        if (segment != null && segment.sheetEpoch == sheetEpoch && segment.isValidFor(sheet, matchers))
+        {
+            return segment;
+        }
+        return null;
+    }
+
+    /**
+     * Method to write the index file for a workbook that has just been written to its Excel file, holding the exclusive lock on the file
+     * (and the lock of a shared workbook). The file contains the entries of each identity index of the workbook, together with any
+     * entries of the previous index file not yet used for a sheet that is unchanged. The file is written to a temporary file that is then
+     * renamed over the previous index file. A failure to write the file is logged, and means that it is ignored when next read.
+     * @param storeMgr StoreManager
+     * @param wb The workbook
+     * @param file The Excel file
+     */
+    public static void write(ExcelStoreManager storeMgr, Workbook wb, File file)
+    {
+        // Find the entries to write for each sheet
+        Map<String, Object> entriesBySheet = new HashMap<>();
+        ExcelIndexFile previous = storeMgr.getIndexFile(wb);
+        if (previous != null)
+        {
+            for (Map.Entry<String, Segment> entry : previous.segments.entrySet())
+            {
+                if (entry.getValue().sheetEpoch == storeMgr.getSheetEpoch(wb, entry.getKey()))
+                {
+                    entriesBySheet.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        for (ExcelIdentityIndex index : storeMgr.getIdentityIndexes(wb).values())
+        {
+            entriesBySheet.put(index.getSheetName(), index);
+        }
+
+        File indexFile = getIndexFile(file);
+        File tmpFile = null;
+        try
+        {
+            tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))))
+            {
+                List<byte[]> sheetBytes = new ArrayList<>();
+                for (Map.Entry<String, Object> entry : entriesBySheet.entrySet())
+                {
+                    Sheet sheet = wb.getSheet(entry.getKey());
+                    byte[] bytes = (sheet != null) ? getBytesForSheet(entry.getKey(), sheet, entry.getValue()) : null;
+                    if (bytes != null)
+                    {
+                        sheetBytes.add(bytes);
+                    }
+                }
+
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(file.lastModified());
+                out.writeLong(file.length());
+                out.writeInt(sheetBytes.size());
+                for (byte[] bytes : sheetBytes)
+                {
+                    out.write(bytes);
+                }
+            }
+            try
+            {
+                Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException amnse)
+            {
+                Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            // e.g the previous index file is still mapped and the platform doesn't allow it to be replaced
+            NucleusLogger.DATASTORE.warn(Localiser.msg("Excel.IndexFile.WriteFailed", indexFile, e.getMessage()));
+        }
+        finally
+        {
+            if (tmpFile != null)
+            {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Convenience method to return the bytes of the index file for a worksheet, from either an identity index or the entries of the
+     * previous index file.
+     * @return The bytes (or null if the keys of the index are not supported)
+     */
+    private static byte[] getBytesForSheet(String sheetName, Sheet sheet, Object entries) throws IOException
+    {
+        int[] colNumbers;
+        int[] typeCodes;
+        int lastRowNum = sheet.getLastRowNum();
+        int physicalRows = sheet.getPhysicalNumberOfRows();
+        int numEntries;
+        byte[] entryBytes;
+        Segment segment = (entries instanceof Segment) ? (Segment)entries : ((ExcelIdentityIndex)entries).getSegment();
+        if (segment != null)
+        {
+            // Unchanged since read from the previous index file (though the worksheet may not have been parsed), so copy
+            colNumbers = segment.colNumbers;
+            typeCodes = segment.typeCodes;
+            lastRowNum = segment.lastRowNum;
+            physicalRows = segment.physicalRows;
+            numEntries = segment.numEntries;
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(0);
+            entryBytes = new byte[buffer.remaining()];
+            buffer.get(entryBytes);
+        }
+        else
+        {
+            ExcelIdentityIndex index = (ExcelIdentityIndex)entries;
+            colNumbers = index.colNumbers;
+            typeCodes = index.typeCodes;
+            Map<Object, Integer> rowNumbersByKey = index.getRowNumbersByKey();
+            Object[] keys = rowNumbersByKey.keySet().toArray();
+            try
+            {
+                Arrays.sort(keys, ExcelIndexFile::compareKeys);
+            }
+            catch (ClassCastException cce)
+            {
+                return null;
+            }
+            numEntries = keys.length;
+
+            ByteArrayOutputStream keyBytes = new ByteArrayOutputStream();
+            DataOutputStream keyOut = new DataOutputStream(keyBytes);
+            ByteBuffer entryBuffer = ByteBuffer.allocate(numEntries * 8);
+            for (int i=0;i<numEntries;i++)
+            {
+                entryBuffer.putInt(keyOut.size());
+                entryBuffer.putInt(rowNumbersByKey.get(keys[i]));
+                if (!writeKey(keyOut, keys[i]))
+                {
+                    return null;
+                }
+            }
+            keyOut.flush();
+            ByteArrayOutputStream allBytes = new ByteArrayOutputStream(entryBuffer.capacity() + keyBytes.size());
+            allBytes.write(entryBuffer.array());
+            keyBytes.writeTo(allBytes);
+            entryBytes = allBytes.toByteArray();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entryBytes.length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte[] nameBytes = sheetName.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(nameBytes.length);
+        out.write(nameBytes);
+        out.writeInt(colNumbers.length);
+        for (int i=0;i<colNumbers.length;i++)
+        {
+            out.writeInt(colNumbers[i]);
+            out.writeInt(typeCodes[i]);
+        }
+        out.writeInt(lastRowNum);
+        out.writeInt(physicalRows);
+        out.writeInt(numEntries);
+        out.writeInt(entryBytes.length - numEntries * 8);
+        out.write(entryBytes);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Method to write an identity key (see {@link CellMatcher#getKey(CellMatcher[])}).
+     * @return Whether the key is of a supported type (otherwise nothing is written)
+     */
+    private static boolean writeKey(DataOutputStream out, Object key) throws IOException
+    {
+        if (key instanceof Long)
+        {
+            out.writeByte('L');
+            out.writeLong((Long)key);
+        }
+        else if (key instanceof String)
+        {
+            byte[] bytes = ((String)key).getBytes(StandardCharsets.UTF_8);
+            out.writeByte('S');
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else if (key instanceof Double)
+        {
+            out.writeByte('D');
+            out.writeDouble((Double)key);
+        }
+        else if (key instanceof Float)
+        {
+            out.writeByte('F');
+            out.writeFloat((Float)key);
+        }
+        else if (key instanceof Boolean)
+        {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean)key);
+        }
+        else if (key instanceof Character)
+        {
+            out.writeByte('C');
+            out.writeChar((Character)key);
+        }
+        else if (key instanceof List)
+        {
+            List<?> components = (List<?>)key;
+            out.writeByte('T');
+            out.writeInt(components.size());
+            for (Object component : components)
+            {
+                if (component instanceof List || !writeKey(out, component))
+                {
+                    return false;
+                }
+            }
+        }
+        else
+        {
+            return false;
+        }
+        return true;
+    }
+
+    private static Object readKey(ByteBuffer buffer)
+    {
+        byte tag = buffer.get();
+        switch (tag)
+        {
+            case 'L':
+                return Long.valueOf(buffer.getLong());
+            case 'S':
+                return readString(buffer);
+            case 'D':
+                return Double.valueOf(buffer.getDouble());
+            case 'F':
+                return Float.valueOf(buffer.getFloat());
+            case 'Z':
+                return Boolean.valueOf(buffer.get() != 0);
+            case 'C':
+                return Character.valueOf(buffer.getChar());
+            case 'T':
+                Object[] components = new Object[buffer.getInt()];
+                for (int i=0;i<components.length;i++)
+                {
+                    components[i] = readKey(buffer);
+                }
+                return Arrays.asList(components);
+            default:
+                throw new IllegalArgumentException("Invalid key tag " + tag);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Comparator for identity keys, ordering keys of different types by type, values of the same type by their natural order, and
+     * composite keys by their components.
+     * @param key1 First key
+     * @param key2 Second key
+     * @return Negative, zero or positive as the first key is less than, equal to or greater than the second
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compareKeys(Object key1, Object key2)
+    {
+        int rank1 = getKeyRank(key1);
+        int rank2 = getKeyRank(key2);
+        if (rank1 != rank2)
+        {
+            return Integer.compare(rank1, rank2);
+        }
+        if (key1 instanceof List)
+        {
+            List<?> components1 = (List<?>)key1;
+            List<?> components2 = (List<?>)key2;
+            for (int i=0;i<components1.size() && i<components2.size();i++)
+            {
+                int cmp = compareKeys(components1.get(i), components2.get(i));
+                if (cmp != 0)
+                {
+                    return cmp;
+                }
+            }
+            return Integer.compare(components1.size(), components2.size());
+        }
+        return ((Comparable)key1).compareTo(key2);
+    }
+
+    private static int getKeyRank(Object key)
+    {
+        if (key instanceof Long)
+        {
+            return 0;
+        }
+        else if (key instanceof String)
+        {
+            return 1;
+        }
+        else if (key instanceof Double)
+        {
+            return 2;
+        }
+        else if (key instanceof Float)
+        {
+            return 3;
+        }
+        else if (key instanceof Boolean)
+        {
+            return 4;
+        }
+        else if (key instanceof Character)
+        {
+            return 5;
+        }
+        else if (key instanceof List)
+        {
+            return 6;
+        }
+        throw new ClassCastException("Unsupported identity key type " + (key != null ? key.getClass().getName() : null));
+    }
+}
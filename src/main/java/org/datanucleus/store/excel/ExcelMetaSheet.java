@@ -0,0 +1,234 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.datanucleus.util.Localiser;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Reader/writer for the "very hidden" system worksheet "__dn_meta" of a workbook, persisting the {@link SheetStatistics} of its
+ * worksheets so that a process opening the workbook doesn't need to count the rows of each sheet. The sheet has a header row and then
+ * a row per worksheet, with columns
+ * <ul>
+ * <li>SHEET : name of the worksheet</li>
+ * <li>ACTIVE_ROWS : number of rows holding an object</li>
+ * <li>MAX_ID : maximum numeric value of the identity column (blank if none)</li>
+ * <li>SCHEMA_HASH : hash of the columns of the table of the worksheet</li>
+ * <li>LAST_ROW, PHYSICAL_ROWS : layout of the worksheet, checked on reading so that statistics of a worksheet changed by another tool are ignored</li>
+ * <li>EPOCH : number of the checkpoint (write of the workbook) at which the worksheet was last changed</li>
+ * <li>ID_COLUMN, CONTENT_HASH : number of the identity column of the worksheet, and hash of its values, checked when the statistics are
+ * first used so that statistics of a worksheet whose cells were changed by another tool are ignored</li>
+ * </ul>
+ * The sheet is rewritten at each checkpoint (see {@link AbstractExcelManagedConnection#writeWorkbook()}) from the statistics that are
+ * valid at that time.
+ */
+public class ExcelMetaSheet
+{
+    /** Name of the system worksheet. */
+    public static final String SHEET_NAME = "__dn_meta";
+
+    static final String[] COLUMN_NAMES = {"SHEET", "ACTIVE_ROWS", "MAX_ID", "SCHEMA_HASH", "LAST_ROW", "PHYSICAL_ROWS", "EPOCH", "ID_COLUMN",
+        "CONTENT_HASH"};
+
+    private ExcelMetaSheet()
+    {
+    }
+
+    /**
+     * Method to read the statistics of the worksheets of a workbook that has just been loaded from its file, registering those that
+     * are consistent with their worksheet with the StoreManager. Statistics that aren't consistent are ignored, so the worksheet is
+     * counted when next required.
+     * @param storeMgr StoreManager
+     * @param wb The workbook
+     */
+    public static void read(ExcelStoreManager storeMgr, Workbook wb)
+    {
+        Sheet metaSheet = storeMgr.getSheet(wb, SHEET_NAME);
+        if (metaSheet == null || metaSheet.getPhysicalNumberOfRows() == 0)
+        {
+            return;
+        }
+
+        int numLoaded = 0;
+        int numIgnored = 0;
+        for (int i=metaSheet.getFirstRowNum()+1;i<metaSheet.getLastRowNum()+1;i++)
+        {
+            Row row = metaSheet.getRow(i);
+            String sheetName = (row != null) ? getString(row.getCell(0)) : null;
+            if (sheetName == null)
+            {
+                continue;
+            }
+
+            Sheet sheet = wb.getSheet(sheetName);
+            String schemaHash = getString(row.getCell(3));
+            Cell activeRowsCell = row.getCell(1);
+            Cell lastRowCell = row.getCell(4);
+            Cell physicalRowsCell = row.getCell(5);
+            Cell epochCell = row.getCell(6);
+            Cell idColumnCell = row.getCell(7);
+            String contentHash = getString(row.getCell(8));
+            if (sheet == null || schemaHash == null || !isNumeric(activeRowsCell) || !isNumeric(lastRowCell) || !isNumeric(physicalRowsCell) ||
+                !isNumeric(epochCell) || !isNumeric(idColumnCell) || contentHash == null)
+            {
+                numIgnored++;
+                continue;
+            }
+
+            Cell maxIdCell = row.getCell(2);
+            SheetStatistics stats = new SheetStatistics(schemaHash, (int)activeRowsCell.getNumericCellValue(),
+                isNumeric(maxIdCell) ? (long)maxIdCell.getNumericCellValue() : Long.MIN_VALUE,
+                (int)lastRowCell.getNumericCellValue(), (int)physicalRowsCell.getNumericCellValue(), (long)epochCell.getNumericCellValue(),
+                (int)idColumnCell.getNumericCellValue(), contentHash);
+            if (storeMgr.isSheetLoaded(wb, sheet) && (!stats.matchesLayout(sheet) || !stats.matchesContent(sheet)))
+            {
+                // Worksheet changed since the statistics were written (e.g edited in Excel). Checked when used if not yet parsed
+                numIgnored++;
+                continue;
+            }
+            stats.sheetEpoch = storeMgr.getSheetEpoch(wb, sheetName);
+            storeMgr.putSheetStatistics(wb, sheetName, stats);
+            numLoaded++;
+        }
+
+        if (NucleusLogger.DATASTORE.isDebugEnabled())
+        {
+            NucleusLogger.DATASTORE.debug(Localiser.msg("Excel.Statistics.Read", SHEET_NAME, "" + numLoaded, "" + numIgnored));
+        }
+    }
+
+    /**
+     * Method to write the statistics of the worksheets of a workbook that are currently valid to the system worksheet, creating it
+     * if not yet present. To be called when about to write the workbook to its file, holding the lock on a shared workbook.
+     * @param storeMgr StoreManager
+     * @param wb The workbook
+     */
+    public static void write(ExcelStoreManager storeMgr, Workbook wb)
+    {
+        Map<String, SheetStatistics> statsBySheet = storeMgr.getSheetStatistics(wb);
+        Sheet metaSheet = storeMgr.getSheet(wb, SHEET_NAME);
+        if (statsBySheet.isEmpty() && metaSheet == null)
+        {
+            return;
+        }
+
+        // Checkpoint number follows on from that of the last change recorded in the sheet
+        long checkpoint = 1;
+        if (metaSheet != null && metaSheet.getPhysicalNumberOfRows() > 0)
+        {
+            for (int i=metaSheet.getFirstRowNum()+1;i<metaSheet.getLastRowNum()+1;i++)
+            {
+                Row row = metaSheet.getRow(i);
+                Cell epochCell = (row != null) ? row.getCell(6) : null;
+                if (isNumeric(epochCell))
+                {
+                    checkpoint = Math.max(checkpoint, (long)epochCell.getNumericCellValue() + 1);
+                }
+            }
+        }
+
+        if (metaSheet == null)
+        {
+            metaSheet = storeMgr.createSheet(wb, SHEET_NAME);
+        }
+        storeMgr.beforeSheetChange(wb, SHEET_NAME, true);
+
+        // Rewrite the rows of the sheet
+        List<Row> oldRows = new ArrayList<>();
+        for (Row row : metaSheet)
+        {
+            oldRows.add(row);
+        }
+        for (Row row : oldRows)
+        {
+            metaSheet.removeRow(row);
+        }
+        Row headerRow = metaSheet.createRow(0);
+        for (int i=0;i<COLUMN_NAMES.length;i++)
+        {
+            headerRow.createCell(i).setCellValue(COLUMN_NAMES[i]);
+        }
+
+        int rowNum = 1;
+        for (Map.Entry<String, SheetStatistics> entry : statsBySheet.entrySet())
+        {
+            String sheetName = entry.getKey();
+            SheetStatistics stats = entry.getValue();
+            Sheet sheet = wb.getSheet(sheetName);
+            String contentHash;
+            if (sheet == null)
+            {
+                continue;
+            }
+            else if (storeMgr.isSheetLoaded(wb, sheet))
+            {
+                if (!stats.matchesLayout(sheet) || !stats.matchesContent(sheet))
+                {
+                    // Statistics no longer valid
+                    continue;
+                }
+                contentHash = stats.checkpointContent(sheet);
+            }
+            else
+            {
+                // Worksheet not yet parsed so unchanged
+                contentHash = stats.getContentHash();
+                if (contentHash == null)
+                {
+                    continue;
+                }
+            }
+
+            Row row = metaSheet.createRow(rowNum++);
+            row.createCell(0).setCellValue(sheetName);
+            row.createCell(1).setCellValue(stats.getActiveRows());
+            long maxId = stats.getMaxId();
+            if (maxId != Long.MIN_VALUE)
+            {
+                row.createCell(2).setCellValue(maxId);
+            }
+            row.createCell(3).setCellValue(stats.getSchemaHash());
+            row.createCell(4).setCellValue(stats.getLastRowNum());
+            row.createCell(5).setCellValue(stats.getPhysicalRows());
+            row.createCell(6).setCellValue(stats.checkpoint(storeMgr.getSheetEpoch(wb, sheetName), checkpoint));
+            row.createCell(7).setCellValue(stats.getIdColumnNumber());
+            row.createCell(8).setCellValue(contentHash);
+        }
+
+        storeMgr.hideSheet(wb, metaSheet);
+    }
+
+    private static boolean isNumeric(Cell cell)
+    {
+        return cell != null && cell.getCellType() == CellType.NUMERIC;
+    }
+
+    private static String getString(Cell cell)
+    {
+        return (cell != null && cell.getCellType() == CellType.STRING) ? cell.getStringCellValue() : null;
+    }
+}
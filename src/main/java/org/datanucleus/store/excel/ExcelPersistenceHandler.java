@@ -19,14 +19,24 @@ Contributors :
 package org.datanucleus.store.excel;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
+import org.datanucleus.FetchPlan;
 import org.datanucleus.exceptions.NucleusDataStoreException;
 import org.datanucleus.exceptions.NucleusObjectNotFoundException;
 import org.datanucleus.exceptions.NucleusOptimisticException;
@@ -34,11 +44,15 @@ import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.identity.IdentityUtils;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.ClassMetaData;
 import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.metadata.InterfaceMetaData;
 import org.datanucleus.metadata.VersionMetaData;
 import org.datanucleus.metadata.VersionStrategy;
 import org.datanucleus.state.DNStateManager;
+import org.datanucleus.state.LockMode;
 import org.datanucleus.store.AbstractPersistenceHandler;
+import org.datanucleus.store.FieldValues;
 import org.datanucleus.store.StoreData;
 import org.datanucleus.store.StoreManager;
 import org.datanucleus.store.connection.ManagedConnection;
@@ -93,7 +107,10 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
 
         AbstractClassMetaData cmd = sm.getClassMetaData();
         ExecutionContext ec = sm.getExecutionContext();
+        ((ExcelStoreManager)storeMgr).checkExecutionContext(ec);
         ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        String sheetName = null;
+        boolean locked = false;
         try
         {
             long startTime = System.currentTimeMillis();
@@ -111,6 +128,18 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
             }
             Table table = sd.getTable();
 
+            sheetName = table.getName();
+            if (wb.getSheet(sheetName) == null)
+            {
+                // Sheet doesn't exist so create it
+                ((ExcelStoreManager)storeMgr).createSheet(wb, sheetName);
+                if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+                {
+                    NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.Insert.SheetCreated", sm.getObjectAsPrintable(), sheetName));
+                }
+            }
+            locked = ((ExcelStoreManager)storeMgr).lockSheet(sheetName, true);
+
             if (cmd.getIdentityType() == IdentityType.APPLICATION || cmd.getIdentityType() == IdentityType.DATASTORE)
             {
                 // Enforce uniqueness of datastore rows
@@ -126,125 +155,388 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
                 }
             }
 
-            int[] fieldNumbers = cmd.getAllMemberPositions();
-            String sheetName = table.getName();
-            Sheet sheet = wb.getSheet(sheetName);
-            int rowNum = 0;
-            if (sheet == null)
+            // Find number of active rows in the sheet to insert into
+            Sheet sheet = getSheetForInsert(sm, wb, table);
+            int rowNum = ExcelUtils.getNumberOfRowsInSheet(sm, sheet);
+
+            // Create the object in the datastore
+            insertObjectInRow(sm, wb, table, sheet, rowNum, getUndoLog(ec, mconn));
+
+            if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
             {
-                // Sheet doesn't exist so create it
-                sheet = wb.createSheet(sheetName);
-                if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
-                {
-                    NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.Insert.SheetCreated", sm.getObjectAsPrintable(), sheetName));
-                }
+                NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.ExecutionTime", (System.currentTimeMillis() - startTime)));
             }
-            else
+        }
+        finally
+        {
+            if (locked)
             {
-                // Find number of active rows in this sheet
-                rowNum += ExcelUtils.getNumberOfRowsInSheetOfWorkbook(sm, wb);
+                ((ExcelStoreManager)storeMgr).unlockSheet(sheetName, true);
             }
+            mconn.release();
+        }
+    }
 
-            // Create the object in the datastore
-            Row row = sheet.getRow(rowNum);
-            if (row == null)
+    /**
+     * Method to insert the objects into the datastore.
+     * The objects are grouped by the worksheet they are stored in. For each worksheet the uniqueness of the identities
+     * of all objects is checked with a single scan of the sheet, and the rows are then appended contiguously. The connection
+     * is only released (and so, for non-transactional use, the file only written) once for the whole set of objects.
+     * @param sms StateManagers of the objects
+     */
+    public void insertObjects(DNStateManager... sms)
+    {
+        if (sms.length == 1)
+        {
+            insertObject(sms[0]);
+            return;
+        }
+
+        ExecutionContext ec = sms[0].getExecutionContext();
+        ((ExcelStoreManager)storeMgr).checkExecutionContext(ec);
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        try
+        {
+            long startTime = System.currentTimeMillis();
+            Workbook wb = (Workbook) mconn.getConnection();
+
+            for (DNStateManager sm : sms)
             {
-                // No row present so create holder for the cells
-                row = sheet.createRow(rowNum);
+                // Check if read-only so update not permitted
+                assertReadOnlyForUpdateOfObject(sm);
             }
 
-            sm.provideFields(fieldNumbers, new StoreFieldManager(sm, row, true, table));
+            // Group the objects by the worksheet that they are stored in
+            Map<String, Table> tablesBySheet = new HashMap<>();
+            Map<String, List<DNStateManager>> smsBySheet = groupObjectsBySheet(sms, ec, wb, tablesBySheet);
+            ExcelUndoLog undoLog = getUndoLog(ec, mconn);
+            for (Map.Entry<String, List<DNStateManager>> entry : smsBySheet.entrySet())
+            {
+                insertObjectsInSheet(entry.getValue(), wb, tablesBySheet.get(entry.getKey()), undoLog);
+            }
 
             if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
             {
                 NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.ExecutionTime", (System.currentTimeMillis() - startTime)));
             }
-            if (ec.getStatistics() != null)
+        }
+        finally
+        {
+            mconn.release();
+        }
+    }
+
+    /**
+     * Method to insert the specified objects, all stored in the worksheet of the specified table.
+     * @param sms StateManagers of the objects
+     * @param wb Workbook
+     * @param table The table representing the worksheet
+     * @param undoLog Undo log to record the inserts in (or null if not required)
+     */
+    protected void insertObjectsInSheet(List<DNStateManager> sms, Workbook wb, Table table, ExcelUndoLog undoLog)
+    {
+        DNStateManager firstSM = sms.get(0);
+        AbstractClassMetaData cmd = firstSM.getClassMetaData();
+        String sheetName = table.getName();
+        if (wb.getSheet(sheetName) == null)
+        {
+            // Sheet doesn't exist so create it
+            ((ExcelStoreManager)storeMgr).createSheet(wb, sheetName);
+            if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
             {
-                ec.getStatistics().incrementNumWrites();
-                ec.getStatistics().incrementInsertCount();
+                NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.Insert.SheetCreated", firstSM.getObjectAsPrintable(), sheetName));
             }
+        }
 
-            if (cmd.getIdentityType() == IdentityType.DATASTORE)
+        boolean locked = ((ExcelStoreManager)storeMgr).lockSheet(sheetName, true);
+        try
+        {
+            insertObjectsInTable(sms, wb, table, undoLog);
+        }
+        finally
+        {
+            if (locked)
             {
-                // Set the datastore identity column value
-                int idCellNum = table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getPosition();
-                Object key = IdentityUtils.getTargetKeyForDatastoreIdentity(sm.getInternalObjectId());
-                Cell idCell = row.getCell(idCellNum);
-                if (idCell == null)
-                {
-                    idCell = row.createCell(idCellNum);
-                }
-                if (key instanceof String)
+                ((ExcelStoreManager)storeMgr).unlockSheet(sheetName, true);
+            }
+        }
+    }
+
+    private void insertObjectsInTable(List<DNStateManager> sms, Workbook wb, Table table, ExcelUndoLog undoLog)
+    {
+        DNStateManager firstSM = sms.get(0);
+        AbstractClassMetaData cmd = firstSM.getClassMetaData();
+        if (cmd.getIdentityType() == IdentityType.APPLICATION || cmd.getIdentityType() == IdentityType.DATASTORE)
+        {
+            // Enforce uniqueness of datastore rows, for the whole set of objects
+            CellMatcher[][] matchers = new CellMatcher[sms.size()][];
+            boolean keyable = true;
+            for (int i=0;i<matchers.length;i++)
+            {
+                matchers[i] = ExcelUtils.getIdentityMatchersForObject(sms.get(i), false, table);
+                keyable = keyable && CellMatcher.isKeyable(matchers[i]);
+            }
+
+            if (keyable)
+            {
+                // Check against the identities present in the sheets of the table (via their indexes), and within this set of objects
+                List<ExcelIdentityIndex> indexes = new ArrayList<>();
+                for (Sheet sheet : ((ExcelStoreManager)storeMgr).getSheetsForTable(wb, table.getName()))
                 {
-                    idCell.setCellValue(wb.getCreationHelper().createRichTextString((String)key));
+                    indexes.add(((ExcelStoreManager)storeMgr).getIdentityIndex(wb, sheet, matchers[0]));
                 }
-                else
+                Set<Object> keys = new HashSet<>();
+                for (int i=0;i<matchers.length;i++)
                 {
-                    idCell.setCellValue(((Long)key).longValue());
+                    Object key = CellMatcher.getKey(matchers[i]);
+                    boolean exists = !keys.add(key);
+                    for (int j=0;j<indexes.size() && !exists;j++)
+                    {
+                        exists = indexes.get(j).containsKey(key);
+                    }
+                    if (exists)
+                    {
+                        throw new NucleusUserException(Localiser.msg("Excel.Insert.ObjectWithIdAlreadyExists",
+                            sms.get(i).getObjectAsPrintable(), sms.get(i).getInternalObjectId()));
+                    }
                 }
             }
-
-            VersionMetaData vermd = cmd.getVersionMetaDataForClass();
-            if (vermd != null)
+            else
             {
-                // versioned object so set its version
-                Cell verCell = null;
-                if (vermd.getMemberName() != null)
+                // Identity can't be used as a lookup key, so locate each object individually
+                for (DNStateManager sm : sms)
                 {
-                    AbstractMemberMetaData verMmd = cmd.getMetaDataForMember(vermd.getMemberName());
-                    MemberColumnMapping mapping = table.getMemberColumnMappingForMember(verMmd);
-                    verCell = row.getCell(mapping.getColumn(0).getPosition());
-                    if (verCell == null)
+                    try
                     {
-                        verCell = row.createCell(mapping.getColumn(0).getPosition());
+                        locateObject(sm);
+                        throw new NucleusUserException(Localiser.msg("Excel.Insert.ObjectWithIdAlreadyExists",
+                            sm.getObjectAsPrintable(), sm.getInternalObjectId()));
                     }
-                }
-                else
-                {
-                    int verCellNum = table.getSurrogateColumn(SurrogateColumnType.VERSION).getPosition();
-                    verCell = row.getCell(verCellNum);
-                    if (verCell == null)
+                    catch (NucleusObjectNotFoundException onfe)
                     {
-                        verCell = row.createCell(verCellNum);
+                        // Do nothing since object with this id doesn't exist
                     }
                 }
+            }
+        }
 
-                Object nextVersion = ec.getLockManager().getNextVersion(vermd, null);
-                sm.setTransactionalVersion(nextVersion);
-                if (nextVersion instanceof Long)
+        // Find number of active rows in the sheet to insert into
+        Sheet sheet = getSheetForInsert(firstSM, wb, table);
+        int rowNum = ExcelUtils.getNumberOfRowsInSheet(firstSM, sheet);
+        int maxRows = ((ExcelStoreManager)storeMgr).getMaxRowsPerSheet(wb);
+
+        int idColNumber = ExcelUtils.getIdentityColumnNumber(cmd, table);
+        for (DNStateManager sm : sms)
+        {
+            if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.Insert.Start", sm.getObjectAsPrintable(), sm.getInternalObjectId()));
+            }
+
+            // Skip any row taken by an object inserted as a side-effect of an earlier insert (e.g a related object of this class)
+            Row row = sheet.getRow(rowNum);
+            while (row != null && row.getCell(idColNumber) != null)
+            {
+                rowNum++;
+                row = sheet.getRow(rowNum);
+            }
+            if (rowNum >= maxRows)
+            {
+                // Sheet is full, so continue in the next sheet of the table
+                sheet = getSheetForInsert(sm, wb, table);
+                rowNum = ExcelUtils.getNumberOfRowsInSheet(sm, sheet);
+            }
+
+            insertObjectInRow(sm, wb, table, sheet, rowNum, undoLog);
+            rowNum++;
+        }
+    }
+
+    /**
+     * Method to return the worksheet of the table to insert a new object into, being the first worksheet of the table with a free row.
+     * Where all worksheets of the table are full (see {@link ExcelStoreManager#getMaxRowsPerSheet(Workbook)}) a further worksheet is created
+     * (see {@link ExcelStoreManager#createOverflowSheet(Workbook, String, int)}), with a header row if the first worksheet has one.
+     * Must be called holding the write lock of the table.
+     * @param sm StateManager of the object being inserted
+     * @param wb Workbook
+     * @param table The table
+     * @return The worksheet
+     */
+    protected Sheet getSheetForInsert(DNStateManager sm, Workbook wb, Table table)
+    {
+        return getSheetForInsert(wb, table, sm.getObjectAsPrintable());
+    }
+
+    /**
+     * Method to return the worksheet of the table to insert a row into (see {@link #getSheetForInsert(DNStateManager, Workbook, Table)}),
+     * for example when restoring a deleted row on rollback. Must be called holding the write lock of the table.
+     * @param wb Workbook
+     * @param table The table
+     * @param obj The object being inserted (for logging)
+     * @return The worksheet
+     */
+    protected Sheet getSheetForInsert(Workbook wb, Table table, Object obj)
+    {
+        ExcelStoreManager excelStoreMgr = (ExcelStoreManager)storeMgr;
+        int maxRows = excelStoreMgr.getMaxRowsPerSheet(wb);
+        List<Sheet> sheets = excelStoreMgr.getSheetsForTable(wb, table.getName());
+        for (Sheet sheet : sheets)
+        {
+            if (sheet.getPhysicalNumberOfRows() == 0 || sheet.getLastRowNum() + 1 < maxRows)
+            {
+                return sheet;
+            }
+        }
+
+        // All sheets of the table are full so overflow onto a new sheet
+        Sheet sheet = excelStoreMgr.createOverflowSheet(wb, table.getName(), sheets.size() + 1);
+        String sheetName = sheet.getSheetName();
+        if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+        {
+            NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.Insert.SheetOverflow", obj, table.getName(), sheetName, "" + maxRows));
+        }
+        if (excelStoreMgr.hasHeaderRow(wb, table.getName()))
+        {
+            ((ExcelSchemaHandler)storeMgr.getSchemaHandler()).createHeaderRow(wb, sheet, table);
+        }
+        return sheet;
+    }
+
+    /**
+     * Method to write the specified object into the specified row of its worksheet, including any datastore id and version.
+     * @param sm StateManager of the object
+     * @param wb Workbook
+     * @param table The table representing the worksheet
+     * @param sheet The worksheet
+     * @param rowNum Number of the row to write the object into
+     * @param undoLog Undo log to record the insert in (or null if not required)
+     */
+    protected void insertObjectInRow(DNStateManager sm, Workbook wb, Table table, Sheet sheet, int rowNum, ExcelUndoLog undoLog)
+    {
+        AbstractClassMetaData cmd = sm.getClassMetaData();
+        ExecutionContext ec = sm.getExecutionContext();
+
+        // Rows are only added, so any snapshot of this sheet is unaffected
+        ((ExcelStoreManager)storeMgr).beforeSheetChange(wb, sheet.getSheetName(), false);
+        SheetStatistics stats = ((ExcelStoreManager)storeMgr).getSheetStatistics(wb, sheet, table);
+
+        Row row = (rowNum <= sheet.getLastRowNum()) ? sheet.getRow(rowNum) : null;
+        if (row == null)
+        {
+            // No row present (or only one past the last row, left by POI when shifting rows up in an XLS sheet) so create holder for the cells
+            row = sheet.createRow(rowNum);
+        }
+
+        sm.provideFields(cmd.getAllMemberPositions(), new StoreFieldManager(sm, row, true, table));
+
+        if (ec.getStatistics() != null)
+        {
+            ec.getStatistics().incrementNumWrites();
+            ec.getStatistics().incrementInsertCount();
+        }
+
+        if (cmd.getIdentityType() == IdentityType.DATASTORE)
+        {
+            // Set the datastore identity column value
+            int idCellNum = table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getPosition();
+            Object key = IdentityUtils.getTargetKeyForDatastoreIdentity(sm.getInternalObjectId());
+            Cell idCell = row.getCell(idCellNum);
+            if (idCell == null)
+            {
+                idCell = row.createCell(idCellNum);
+            }
+            if (key instanceof String)
+            {
+                ExcelUtils.setStringCellValue(idCell, (String)key);
+            }
+            else
+            {
+                idCell.setCellValue(((Long)key).longValue());
+            }
+        }
+
+        VersionMetaData vermd = cmd.getVersionMetaDataForClass();
+        if (vermd != null)
+        {
+            // versioned object so set its version
+            Cell verCell = null;
+            if (vermd.getMemberName() != null)
+            {
+                AbstractMemberMetaData verMmd = cmd.getMetaDataForMember(vermd.getMemberName());
+                MemberColumnMapping mapping = table.getMemberColumnMappingForMember(verMmd);
+                verCell = row.getCell(mapping.getColumn(0).getPosition());
+                if (verCell == null)
                 {
-                    if (NucleusLogger.DATASTORE.isDebugEnabled())
-                    {
-                        NucleusLogger.DATASTORE.debug(Localiser.msg("Excel.Insert.ObjectPersistedWithVersion",
-                            sm.getObjectAsPrintable(), sm.getInternalObjectId(), "" + nextVersion));
-                    }
-                    verCell.setCellValue((Long)nextVersion);
+                    verCell = row.createCell(mapping.getColumn(0).getPosition());
                 }
-                else if (nextVersion instanceof Timestamp)
+            }
+            else
+            {
+                int verCellNum = table.getSurrogateColumn(SurrogateColumnType.VERSION).getPosition();
+                verCell = row.getCell(verCellNum);
+                if (verCell == null)
                 {
-                    if (NucleusLogger.DATASTORE.isDebugEnabled())
-                    {
-                        NucleusLogger.DATASTORE.debug(Localiser.msg("Excel.Insert.ObjectPersistedWithVersion",
-                            sm.getObjectAsPrintable(), sm.getInternalObjectId(), "" + nextVersion));
-                    }
-                    Date date = new Date();
-                    date.setTime(((Timestamp)nextVersion).getTime());
-                    verCell.setCellValue(date);
+                    verCell = row.createCell(verCellNum);
                 }
             }
-            else
+
+            Object nextVersion = ec.getLockManager().getNextVersion(vermd, null);
+            sm.setTransactionalVersion(nextVersion);
+            if (nextVersion instanceof Long)
             {
                 if (NucleusLogger.DATASTORE.isDebugEnabled())
                 {
-                    NucleusLogger.DATASTORE.debug(Localiser.msg("Excel.Insert.ObjectPersisted",
-                        sm.getObjectAsPrintable(), sm.getInternalObjectId()));
+                    NucleusLogger.DATASTORE.debug(Localiser.msg("Excel.Insert.ObjectPersistedWithVersion",
+                        sm.getObjectAsPrintable(), sm.getInternalObjectId(), "" + nextVersion));
+                }
+                verCell.setCellValue((Long)nextVersion);
+            }
+            else if (nextVersion instanceof Timestamp)
+            {
+                if (NucleusLogger.DATASTORE.isDebugEnabled())
+                {
+                    NucleusLogger.DATASTORE.debug(Localiser.msg("Excel.Insert.ObjectPersistedWithVersion",
+                        sm.getObjectAsPrintable(), sm.getInternalObjectId(), "" + nextVersion));
                 }
+                Date date = new Date();
+                date.setTime(((Timestamp)nextVersion).getTime());
+                verCell.setCellValue(date);
             }
         }
-        finally
+        else
         {
-            mconn.release();
+            if (NucleusLogger.DATASTORE.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE.debug(Localiser.msg("Excel.Insert.ObjectPersisted",
+                    sm.getObjectAsPrintable(), sm.getInternalObjectId()));
+            }
+        }
+
+        ExcelIdentityIndex index = ((ExcelStoreManager)storeMgr).getIdentityIndexIfPresent(wb, sheet.getSheetName());
+        CellMatcher[] matchers = (index != null || undoLog != null) ? ExcelUtils.getIdentityMatchersForObject(sm, false, table) : null;
+        if (undoLog != null)
+        {
+            undoLog.rowInserted(table, sheet.getSheetName(), matchers);
+        }
+        if (index != null)
+        {
+            // Register the row of this object in the identity index
+            if (CellMatcher.isKeyable(matchers))
+            {
+                index.put(CellMatcher.getKey(matchers), rowNum);
+                if (vermd != null)
+                {
+                    index.putVersion(CellMatcher.getKey(matchers), sm.getTransactionalVersion());
+                }
+            }
+            else
+            {
+                ((ExcelStoreManager)storeMgr).invalidateIdentityIndex(wb, sheet.getSheetName());
+            }
+        }
+        if (stats != null)
+        {
+            stats.rowAdded(sheet, row.getCell(ExcelUtils.getIdentityColumnNumber(cmd, table)));
         }
     }
 
@@ -259,7 +551,11 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
         assertReadOnlyForUpdateOfObject(sm);
 
         ExecutionContext ec = sm.getExecutionContext();
+        ((ExcelStoreManager)storeMgr).checkExecutionContext(ec);
         ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        String sheetName = null;
+        boolean rowClaimed = false;
+        boolean locked = false;
         try
         {
             AbstractClassMetaData cmd = sm.getClassMetaData();
@@ -272,7 +568,11 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
             }
             Table table = sd.getTable();
 
-            final Sheet sheet = ExcelUtils.getSheetForClass(sm, wb, table);
+            sheetName = table.getName();
+            rowClaimed = claimRow(sm, mconn, sheetName);
+            locked = ((ExcelStoreManager)storeMgr).lockSheet(sheetName, true);
+            final Sheet sheet = getSheetForObject(sm, wb, true, table);
+            ((ExcelStoreManager)storeMgr).beforeSheetChange(wb, sheet.getSheetName(), true);
 
             int[] updatedFieldNums = fieldNumbers;
             Object nextVersion = null;
@@ -286,11 +586,6 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
                     currentVersion = Long.valueOf(((Integer)currentVersion).longValue());
                 }
 
-                if (cmd.isVersioned())
-                {
-                    NucleusLogger.PERSISTENCE.warn("This datastore doesn't support optimistic version checks since the datastore file is for a single-connection");
-                }
-
                 // Version object so calculate version to store with
                 nextVersion = ec.getLockManager().getNextVersion(vermd, currentVersion);
                 if (vermd.getMemberName() != null)
@@ -339,13 +634,30 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
             }
 
             // Update the row in the worksheet
-            final Row row = sheet.getRow(ExcelUtils.getRowNumberForObjectInWorkbook(sm, wb, true, table));
+            int rowNumber = getRowNumberForObject(sm, sheet, true, table);
+            final Row row = (rowNumber >= 0) ? sheet.getRow(rowNumber) : null;
             if (row == null)
             {
                 throw new NucleusDataStoreException(Localiser.msg("Excel.RowNotFoundForSheetForWorkbook",
                     table.getName(), StringUtils.toJVMIDString(sm.getInternalObjectId())));
             }
+            performOptimisticCheck(sm, wb, sheet, table, rowNumber);
+            ExcelUndoLog undoLog = getUndoLog(ec, mconn);
+            RowImage rowImage = (undoLog != null) ? new RowImage(row) : null;
             sm.provideFields(updatedFieldNums, new StoreFieldManager(sm, row, false, table));
+            if (cmd.getIdentityType() == IdentityType.APPLICATION)
+            {
+                for (int i=0;i<updatedFieldNums.length;i++)
+                {
+                    if (cmd.getMetaDataForManagedMemberAtAbsolutePosition(updatedFieldNums[i]).isPrimaryKey())
+                    {
+                        // PK field updated so the identity index (and maximum identity) for this sheet is no longer valid
+                        ((ExcelStoreManager)storeMgr).invalidateIdentityIndex(wb, sheet.getSheetName());
+                        ((ExcelStoreManager)storeMgr).invalidateSheetStatistics(wb, sheet.getSheetName());
+                        break;
+                    }
+                }
+            }
 
             if (vermd != null)
             {
@@ -378,6 +690,21 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
                     date.setTime(((Timestamp)nextVersion).getTime());
                     verCell.setCellValue(date);
                 }
+
+                ExcelIdentityIndex index = ((ExcelStoreManager)storeMgr).getIdentityIndexIfPresent(wb, sheet.getSheetName());
+                if (index != null)
+                {
+                    // Register the new version in the identity index
+                    CellMatcher[] matchers = ExcelUtils.getIdentityMatchersForObject(sm, false, table);
+                    if (CellMatcher.isKeyable(matchers))
+                    {
+                        index.putVersion(CellMatcher.getKey(matchers), nextVersion);
+                    }
+                }
+            }
+            if (undoLog != null)
+            {
+                undoLog.rowUpdated(table, sheet.getSheetName(), ExcelUtils.getIdentityMatchersForObject(sm, false, table), rowImage);
             }
 
             if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
@@ -392,6 +719,14 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
         }
         finally
         {
+            if (locked)
+            {
+                ((ExcelStoreManager)storeMgr).unlockSheet(sheetName, true);
+            }
+            if (rowClaimed)
+            {
+                releaseRow(sm, mconn, sheetName);
+            }
             mconn.release();
         }
     }
@@ -408,15 +743,14 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
         assertReadOnlyForUpdateOfObject(sm);
 
         ExecutionContext ec = sm.getExecutionContext();
+        ((ExcelStoreManager)storeMgr).checkExecutionContext(ec);
         ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        String sheetName = null;
+        boolean rowClaimed = false;
+        boolean locked = false;
         try
         {
             AbstractClassMetaData cmd = sm.getClassMetaData();
-            if (cmd.isVersioned())
-            {
-                NucleusLogger.PERSISTENCE.warn("This datastore doesn't support optimistic version checks since the datastore file is for a single-connection");
-            }
-
             Workbook wb = (Workbook) mconn.getConnection();
             StoreData sd = storeMgr.getStoreDataForClass(cmd.getFullClassName());
             if (sd == null)
@@ -425,11 +759,18 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
                 sd = storeMgr.getStoreDataForClass(cmd.getFullClassName());
             }
             Table table = sd.getTable();
-            final Sheet sheet = ExcelUtils.getSheetForClass(sm, wb, table);
+
+            // Check that the worksheet exists before any cascade deletion
+            ExcelUtils.getSheetForClass(sm, wb, table);
 
             // Invoke any cascade deletion
             sm.loadUnloadedFields();
             sm.provideFields(cmd.getAllMemberPositions(), new DeleteFieldManager(sm));
+            sheetName = table.getName();
+            rowClaimed = claimRow(sm, mconn, sheetName);
+            locked = ((ExcelStoreManager)storeMgr).lockSheet(sheetName, true);
+            final Sheet sheet = getSheetForObject(sm, wb, false, table);
+            ((ExcelStoreManager)storeMgr).beforeSheetChange(wb, sheet.getSheetName(), true);
 
             // Delete this object
             long startTime = System.currentTimeMillis();
@@ -438,11 +779,15 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
                 NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.Delete.Start", sm.getObjectAsPrintable(), sm.getInternalObjectId()));
             }
 
-            int rowId = ExcelUtils.getRowNumberForObjectInWorkbook(sm, wb, false, table);
+            int rowId = getRowNumberForObject(sm, sheet, false, table);
             if (rowId < 0)
             {
                 throw new NucleusObjectNotFoundException("Object not found for id " + IdentityUtils.getPersistableIdentityForId(sm.getInternalObjectId()), sm.getObject());
             }
+            performOptimisticCheck(sm, wb, sheet, table, rowId);
+            ExcelUndoLog undoLog = getUndoLog(ec, mconn);
+            RowImage rowImage = (undoLog != null) ? new RowImage(sheet.getRow(rowId)) : null;
+            SheetStatistics stats = ((ExcelStoreManager)storeMgr).getSheetStatistics(wb, sheet, table);
 
             if (storeMgr instanceof XLSStoreManager && sheet.getLastRowNum() == rowId)
             {
@@ -457,14 +802,31 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
             }
             else
             {
-                // Deleting top row so remove it
-                sheet.removeRow(sheet.getRow(rowId));
-                if (sheet.getLastRowNum()>rowId)
+                // Deleting top row so remove it. Shifting rows updates workbook-wide references, so hold the workbook monitor
+                synchronized (wb)
                 {
-                    sheet.shiftRows(rowId+1, sheet.getLastRowNum(),-1);
+                    sheet.removeRow(sheet.getRow(rowId));
+                    if (sheet.getLastRowNum()>rowId)
+                    {
+                        sheet.shiftRows(rowId+1, sheet.getLastRowNum(),-1);
+                    }
                 }
             }
 
+            ExcelIdentityIndex index = ((ExcelStoreManager)storeMgr).getIdentityIndexIfPresent(wb, sheet.getSheetName());
+            if (index != null)
+            {
+                index.rowsRemoved(new int[] {rowId});
+            }
+            if (stats != null)
+            {
+                stats.rowsRemoved(sheet, 1);
+            }
+            if (undoLog != null)
+            {
+                undoLog.rowDeleted(table, sheet.getSheetName(), ExcelUtils.getIdentityMatchersForObject(sm, false, table), rowImage);
+            }
+
             if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
             {
                 NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.ExecutionTime", (System.currentTimeMillis() - startTime)));
@@ -477,39 +839,236 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
         }
         finally
         {
+            if (locked)
+            {
+                ((ExcelStoreManager)storeMgr).unlockSheet(sheetName, true);
+            }
+            if (rowClaimed)
+            {
+                releaseRow(sm, mconn, sheetName);
+            }
             mconn.release();
         }
     }
 
     /**
-     * Fetches fields of a persistent object from the database.
-     * @param sm StateManager of the object to be fetched.
-     * @param fieldNumbers The numbers of the fields to be fetched.
+     * Deletes a set of persistent objects from the database.
+     * Any cascade deletion is processed for all objects first. The objects are then grouped by the worksheet they are stored in,
+     * the rows of all objects of a worksheet are found with a single scan, and the rows are removed and the sheet compacted in one pass.
+     * @param sms StateManagers of the objects to be deleted.
      * @throws NucleusDataStoreException when an error occurs in the datastore communication
+     * @throws NucleusObjectNotFoundException if an object doesn't exist in the datastore
      */
-    public void fetchObject(final DNStateManager sm, int[] fieldNumbers)
+    public void deleteObjects(DNStateManager... sms)
     {
-        AbstractClassMetaData cmd = sm.getClassMetaData();
-        if (NucleusLogger.PERSISTENCE.isDebugEnabled())
+        if (sms.length == 1)
         {
-            // Debug information about what we are retrieving
-            StringBuilder str = new StringBuilder("Fetching object \"");
-            str.append(sm.getObjectAsPrintable()).append("\" (id=");
-            str.append(sm.getInternalObjectId()).append(")").append(" fields [");
-            for (int i=0;i<fieldNumbers.length;i++)
-            {
-                if (i > 0)
-                {
-                    str.append(",");
-                }
-                str.append(cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumbers[i]).getName());
-            }
-            str.append("]");
-            NucleusLogger.PERSISTENCE.debug(str.toString());
+            deleteObject(sms[0]);
+            return;
+        }
+
+        ExecutionContext ec = sms[0].getExecutionContext();
+        ((ExcelStoreManager)storeMgr).checkExecutionContext(ec);
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        try
+        {
+            Workbook wb = (Workbook) mconn.getConnection();
+            for (DNStateManager sm : sms)
+            {
+                // Check if read-only so update not permitted
+                assertReadOnlyForUpdateOfObject(sm);
+
+                AbstractClassMetaData cmd = sm.getClassMetaData();
+
+                // Invoke any cascade deletion
+                sm.loadUnloadedFields();
+                sm.provideFields(cmd.getAllMemberPositions(), new DeleteFieldManager(sm));
+            }
+
+            // Delete the objects
+            long startTime = System.currentTimeMillis();
+            ExcelUndoLog undoLog = getUndoLog(ec, mconn);
+            Map<String, Table> tablesBySheet = new HashMap<>();
+            Map<String, List<DNStateManager>> smsBySheet = groupObjectsByPartition(sms, ec, wb, tablesBySheet);
+            for (Map.Entry<String, List<DNStateManager>> entry : smsBySheet.entrySet())
+            {
+                Table table = tablesBySheet.get(entry.getKey());
+                String tableName = table.getName();
+                List<DNStateManager> sheetSMs = entry.getValue();
+                final Sheet sheet = ExcelUtils.getSheetForClass(sheetSMs.get(0), wb, entry.getKey());
+                List<DNStateManager> claimedSMs = new ArrayList<>();
+                boolean locked = false;
+                try
+                {
+                    for (DNStateManager sm : sheetSMs)
+                    {
+                        if (claimRow(sm, mconn, tableName))
+                        {
+                            claimedSMs.add(sm);
+                        }
+                    }
+                    locked = ((ExcelStoreManager)storeMgr).lockSheet(tableName, true);
+                    ((ExcelStoreManager)storeMgr).beforeSheetChange(wb, entry.getKey(), true);
+                    int[] rowNumbers = getRowNumbersForObjects(sheetSMs, sheet, table);
+                    for (int i=0;i<rowNumbers.length;i++)
+                    {
+                        DNStateManager sm = sheetSMs.get(i);
+                        if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+                        {
+                            NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.Delete.Start", sm.getObjectAsPrintable(), sm.getInternalObjectId()));
+                        }
+                        if (rowNumbers[i] < 0)
+                        {
+                            throw new NucleusObjectNotFoundException("Object not found for id " + IdentityUtils.getPersistableIdentityForId(sm.getInternalObjectId()), sm.getObject());
+                        }
+                        performOptimisticCheck(sm, wb, sheet, table, rowNumbers[i]);
+                    }
+
+                    RowImage[] rowImages = null;
+                    if (undoLog != null)
+                    {
+                        rowImages = new RowImage[rowNumbers.length];
+                        for (int i=0;i<rowNumbers.length;i++)
+                        {
+                            rowImages[i] = new RowImage(sheet.getRow(rowNumbers[i]));
+                        }
+                    }
+
+                    SheetStatistics stats = ((ExcelStoreManager)storeMgr).getSheetStatistics(wb, sheet, table);
+                    deleteRowsFromSheet(sheet, rowNumbers);
+                    if (stats != null)
+                    {
+                        stats.rowsRemoved(sheet, rowNumbers.length);
+                    }
+                    if (undoLog != null)
+                    {
+                        for (int i=0;i<rowNumbers.length;i++)
+                        {
+                            undoLog.rowDeleted(table, entry.getKey(), ExcelUtils.getIdentityMatchersForObject(sheetSMs.get(i), false, table), rowImages[i]);
+                        }
+                    }
+
+                    if (ec.getStatistics() != null)
+                    {
+                        for (int i=0;i<rowNumbers.length;i++)
+                        {
+                            ec.getStatistics().incrementNumWrites();
+                            ec.getStatistics().incrementDeleteCount();
+                        }
+                    }
+                }
+                finally
+                {
+                    if (locked)
+                    {
+                        ((ExcelStoreManager)storeMgr).unlockSheet(tableName, true);
+                    }
+                    for (DNStateManager sm : claimedSMs)
+                    {
+                        releaseRow(sm, mconn, tableName);
+                    }
+                }
+            }
+
+            if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.ExecutionTime", (System.currentTimeMillis() - startTime)));
+            }
+        }
+        finally
+        {
+            mconn.release();
+        }
+    }
+
+    /**
+     * Method to remove the specified rows from the worksheet, moving the following rows up so the sheet has no gaps.
+     * All rows are removed first, and then each block of remaining rows is shifted up by the number of rows removed above it,
+     * so each row of the sheet is moved at most once.
+     * @param sheet The worksheet
+     * @param rowNumbers Numbers of the rows to remove (in any order)
+     */
+    protected void deleteRowsFromSheet(Sheet sheet, int[] rowNumbers)
+    {
+        int[] rows = Arrays.stream(rowNumbers).sorted().distinct().toArray();
+        int numRows = rows.length;
+        if (numRows == 0)
+        {
+            return;
+        }
+
+        if (storeMgr instanceof XLSStoreManager && sheet.getLastRowNum() == rows[numRows-1])
+        {
+            // Deleting last row so just remove all cells and leave row
+            // otherwise Apache POI throws an ArrayIndexOutOfBoundsException
+            Row row = sheet.getRow(rows[numRows-1]);
+            Iterator<Cell> it = row.cellIterator();
+            while (it.hasNext())
+            {
+                row.removeCell(it.next());
+            }
+            numRows--;
+        }
+
+        // Shifting rows updates workbook-wide references (formulas, names), so hold the workbook monitor
+        synchronized (sheet.getWorkbook())
+        {
+            for (int i=0;i<numRows;i++)
+            {
+                sheet.removeRow(sheet.getRow(rows[i]));
+            }
+
+            int lastRowNum = sheet.getLastRowNum();
+            for (int i=0;i<numRows;i++)
+            {
+                int blockStart = rows[i] + 1;
+                int blockEnd = (i+1 < numRows) ? rows[i+1] - 1 : lastRowNum;
+                if (blockStart <= blockEnd)
+                {
+                    sheet.shiftRows(blockStart, blockEnd, -(i+1));
+                }
+            }
+        }
+
+        ExcelIdentityIndex index = ((ExcelStoreManager)storeMgr).getIdentityIndexIfPresent(sheet.getWorkbook(), sheet.getSheetName());
+        if (index != null)
+        {
+            index.rowsRemoved(rows);
+        }
+    }
+
+    /**
+     * Fetches fields of a persistent object from the database.
+     * @param sm StateManager of the object to be fetched.
+     * @param fieldNumbers The numbers of the fields to be fetched.
+     * @throws NucleusDataStoreException when an error occurs in the datastore communication
+     */
+    public void fetchObject(final DNStateManager sm, int[] fieldNumbers)
+    {
+        AbstractClassMetaData cmd = sm.getClassMetaData();
+        if (NucleusLogger.PERSISTENCE.isDebugEnabled())
+        {
+            // Debug information about what we are retrieving
+            StringBuilder str = new StringBuilder("Fetching object \"");
+            str.append(sm.getObjectAsPrintable()).append("\" (id=");
+            str.append(sm.getInternalObjectId()).append(")").append(" fields [");
+            for (int i=0;i<fieldNumbers.length;i++)
+            {
+                if (i > 0)
+                {
+                    str.append(",");
+                }
+                str.append(cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumbers[i]).getName());
+            }
+            str.append("]");
+            NucleusLogger.PERSISTENCE.debug(str.toString());
         }
 
         ExecutionContext ec = sm.getExecutionContext();
+        ((ExcelStoreManager)storeMgr).checkExecutionContext(ec);
         ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        String sheetName = null;
+        boolean locked = false;
         try
         {
             Workbook wb = (Workbook) mconn.getConnection();
@@ -520,7 +1079,10 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
                 sd = storeMgr.getStoreDataForClass(cmd.getFullClassName());
             }
             Table table = sd.getTable();
-            final Sheet sheet = ExcelUtils.getSheetForClass(sm, wb, table);
+            sheetName = table.getName();
+            lockRowIfRequired(sm, mconn, sheetName);
+            locked = ((ExcelStoreManager)storeMgr).lockSheet(sheetName, false);
+            final Sheet sheet = getSheetForObject(sm, wb, false, table);
 
             long startTime = System.currentTimeMillis();
             if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
@@ -528,50 +1090,96 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
                 NucleusLogger.DATASTORE_RETRIEVE.debug(Localiser.msg("Excel.Fetch.Start", sm.getObjectAsPrintable(), sm.getInternalObjectId()));
             }
 
-            int rowNumber = ExcelUtils.getRowNumberForObjectInWorkbook(sm, wb, false, table);
+            int rowNumber = getRowNumberForObject(sm, sheet, false, table);
             if (rowNumber < 0)
             {
                 throw new NucleusObjectNotFoundException("Object not found for id " + IdentityUtils.getPersistableIdentityForId(sm.getInternalObjectId()), sm.getObject());
             }
-            sm.replaceFields(fieldNumbers, new FetchFieldManager(sm, sheet, rowNumber, table));
+            fetchObjectFromRow(sm, fieldNumbers, sheet, rowNumber, table);
 
             if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
             {
                 NucleusLogger.DATASTORE_RETRIEVE.debug(Localiser.msg("Excel.ExecutionTime", (System.currentTimeMillis() - startTime)));
             }
-            if (ec.getStatistics() != null)
+        }
+        finally
+        {
+            if (locked)
             {
-                ec.getStatistics().incrementNumReads();
-                ec.getStatistics().incrementFetchCount();
+                ((ExcelStoreManager)storeMgr).unlockSheet(sheetName, false);
             }
+            mconn.release();
+        }
+    }
 
-            VersionMetaData vermd = cmd.getVersionMetaDataForClass();
-            if (vermd != null && sm.getTransactionalVersion() == null)
+    /**
+     * Fetches fields of a set of persistent objects from the database.
+     * The objects are grouped by the worksheet they are stored in, and the rows for all objects of a worksheet
+     * are found with a single scan of that sheet.
+     * @param fieldNumbers The numbers of the fields to be fetched.
+     * @param sms StateManagers of the objects to be fetched.
+     * @throws NucleusObjectNotFoundException if an object doesn't exist in the datastore
+     */
+    public void fetchObjects(int[] fieldNumbers, DNStateManager... sms)
+    {
+        if (sms.length == 1)
+        {
+            fetchObject(sms[0], fieldNumbers);
+            return;
+        }
+
+        ExecutionContext ec = sms[0].getExecutionContext();
+        ((ExcelStoreManager)storeMgr).checkExecutionContext(ec);
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        try
+        {
+            long startTime = System.currentTimeMillis();
+            Workbook wb = (Workbook) mconn.getConnection();
+
+            Map<String, Table> tablesBySheet = new HashMap<>();
+            Map<String, List<DNStateManager>> smsBySheet = groupObjectsByPartition(sms, ec, wb, tablesBySheet);
+            for (Map.Entry<String, List<DNStateManager>> entry : smsBySheet.entrySet())
             {
-                // Object has no version set so update it from this fetch
-                long verColNo = -1;
-                if (vermd.getMemberName() == null)
+                Table table = tablesBySheet.get(entry.getKey());
+                String tableName = table.getName();
+                List<DNStateManager> sheetSMs = entry.getValue();
+                final Sheet sheet = ExcelUtils.getSheetForClass(sheetSMs.get(0), wb, entry.getKey());
+                for (DNStateManager sm : sheetSMs)
                 {
-                    // Surrogate version
-                    verColNo = table.getSurrogateColumn(SurrogateColumnType.VERSION).getPosition();
-                }
-                else
-                {
-                    // Field-based version
-                    verColNo = table.getMemberColumnMappingForMember(cmd.getMetaDataForMember(vermd.getMemberName())).getColumn(0).getPosition();
+                    lockRowIfRequired(sm, mconn, tableName);
                 }
 
-                Row row = sheet.getRow(rowNumber);
-                Cell cell = row.getCell((int)verColNo);
-                if (vermd.getStrategy() == VersionStrategy.VERSION_NUMBER)
+                boolean locked = ((ExcelStoreManager)storeMgr).lockSheet(tableName, false);
+                try
                 {
-                    sm.setVersion(Long.valueOf((long)cell.getNumericCellValue()));
+                    int[] rowNumbers = getRowNumbersForObjects(sheetSMs, sheet, table);
+                    for (int i=0;i<rowNumbers.length;i++)
+                    {
+                        DNStateManager sm = sheetSMs.get(i);
+                        if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
+                        {
+                            NucleusLogger.DATASTORE_RETRIEVE.debug(Localiser.msg("Excel.Fetch.Start", sm.getObjectAsPrintable(), sm.getInternalObjectId()));
+                        }
+                        if (rowNumbers[i] < 0)
+                        {
+                            throw new NucleusObjectNotFoundException("Object not found for id " + IdentityUtils.getPersistableIdentityForId(sm.getInternalObjectId()), sm.getObject());
+                        }
+                        fetchObjectFromRow(sm, fieldNumbers, sheet, rowNumbers[i], table);
+                    }
                 }
-                else if (vermd.getStrategy() == VersionStrategy.DATE_TIME)
+                finally
                 {
-                    sm.setVersion(cell.getDateCellValue());
+                    if (locked)
+                    {
+                        ((ExcelStoreManager)storeMgr).unlockSheet(tableName, false);
+                    }
                 }
             }
+
+            if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE_RETRIEVE.debug(Localiser.msg("Excel.ExecutionTime", (System.currentTimeMillis() - startTime)));
+            }
         }
         finally
         {
@@ -579,16 +1187,387 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
         }
     }
 
+    /**
+     * Method to populate the specified fields of the object from the specified row of its worksheet, and set its version if not yet set.
+     * @param sm StateManager of the object
+     * @param fieldNumbers The numbers of the fields to be fetched.
+     * @param sheet The worksheet
+     * @param rowNumber Number of the row holding the object
+     * @param table The table representing the worksheet
+     */
+    protected void fetchObjectFromRow(DNStateManager sm, int[] fieldNumbers, Sheet sheet, int rowNumber, Table table)
+    {
+        AbstractClassMetaData cmd = sm.getClassMetaData();
+        ExecutionContext ec = sm.getExecutionContext();
+
+        sm.replaceFields(fieldNumbers, new FetchFieldManager(sm, sheet, rowNumber, table));
+
+        if (ec.getStatistics() != null)
+        {
+            ec.getStatistics().incrementNumReads();
+            ec.getStatistics().incrementFetchCount();
+        }
+
+        VersionMetaData vermd = cmd.getVersionMetaDataForClass();
+        if (vermd != null && sm.getTransactionalVersion() == null)
+        {
+            // Object has no version set so update it from this fetch
+            long verColNo = -1;
+            if (vermd.getMemberName() == null)
+            {
+                // Surrogate version
+                verColNo = table.getSurrogateColumn(SurrogateColumnType.VERSION).getPosition();
+            }
+            else
+            {
+                // Field-based version
+                verColNo = table.getMemberColumnMappingForMember(cmd.getMetaDataForMember(vermd.getMemberName())).getColumn(0).getPosition();
+            }
+
+            Row row = sheet.getRow(rowNumber);
+            Cell cell = row.getCell((int)verColNo);
+            if (vermd.getStrategy() == VersionStrategy.VERSION_NUMBER)
+            {
+                sm.setVersion(Long.valueOf((long)cell.getNumericCellValue()));
+            }
+            else if (vermd.getStrategy() == VersionStrategy.DATE_TIME)
+            {
+                sm.setVersion(cell.getDateCellValue());
+            }
+        }
+    }
+
     /**
      * Accessor for the object with the specified identity (if present).
-     * Since we don't manage the memory instantiation of objects this just returns null.
+     * For a datastore identity or single-field identity of a class without persistable subclasses this looks up the row
+     * in the identity index of the worksheet and instantiates the object directly from that row, loading the default fetch group.
+     * For other identities this returns null, leaving the caller to use the generic locate and fetch process.
      * @param ec execution context
      * @param id Identity of the object
-     * @return The object
+     * @return The object (or null if not found this way)
      */
     public Object findObject(ExecutionContext ec, Object id)
     {
-        return null;
+        if (!IdentityUtils.isDatastoreIdentity(id) && !IdentityUtils.isSingleFieldIdentity(id))
+        {
+            return null;
+        }
+
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        String className = storeMgr.getClassNameForObjectID(id, clr, ec);
+        if (className == null)
+        {
+            return null;
+        }
+        final AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(className, clr);
+        if (cmd == null || cmd instanceof InterfaceMetaData || (cmd instanceof ClassMetaData && ((ClassMetaData)cmd).isAbstract()) ||
+            cmd.getIdentityType() == IdentityType.NONDURABLE)
+        {
+            return null;
+        }
+        String[] subclassNames = ec.getMetaDataManager().getSubclassesForClass(className, false);
+        if (subclassNames != null && subclassNames.length > 0)
+        {
+            // Object could be stored in the worksheet of a subclass
+            return null;
+        }
+
+        ((ExcelStoreManager)storeMgr).checkExecutionContext(ec);
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        String sheetName = null;
+        boolean locked = false;
+        try
+        {
+            Workbook wb = (Workbook) mconn.getConnection();
+            final Table table = getTableForClass(cmd, ec, wb);
+            sheetName = table.getName();
+            if (wb.getSheet(sheetName) == null)
+            {
+                return null;
+            }
+            locked = ((ExcelStoreManager)storeMgr).lockSheet(sheetName, false);
+
+            CellMatcher matcher = null;
+            if (cmd.getIdentityType() == IdentityType.DATASTORE)
+            {
+                Object key = IdentityUtils.getTargetKeyForDatastoreIdentity(id);
+                matcher = new CellMatcher(table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getPosition(), key.getClass(), key);
+            }
+            else
+            {
+                AbstractMemberMetaData pkMmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(cmd.getPKMemberPositions()[0]);
+                MemberColumnMapping mapping = table.getMemberColumnMappingForMember(pkMmd);
+                Object key = IdentityUtils.getTargetKeyForSingleFieldIdentity(id);
+                if (mapping.getTypeConverter() != null)
+                {
+                    matcher = new CellMatcher(mapping.getColumn(0).getPosition(), ec.getTypeManager().getDatastoreTypeForTypeConverter(mapping.getTypeConverter(), pkMmd.getType()),
+                        mapping.getTypeConverter().toDatastoreType(key));
+                }
+                else
+                {
+                    matcher = new CellMatcher(mapping.getColumn(0).getPosition(), pkMmd.getType(), key);
+                }
+            }
+            if (!matcher.isKeyable())
+            {
+                return null;
+            }
+
+            CellMatcher[] matchers = new CellMatcher[] {matcher};
+            Sheet objectSheet = null;
+            int objectRowNumber = -1;
+            for (Sheet partition : ((ExcelStoreManager)storeMgr).getSheetsForTable(wb, sheetName))
+            {
+                objectRowNumber = ((ExcelStoreManager)storeMgr).getIdentityIndex(wb, partition, matchers).getRowNumber(CellMatcher.getKey(matchers));
+                if (objectRowNumber >= 0)
+                {
+                    objectSheet = partition;
+                    break;
+                }
+            }
+            if (ec.getStatistics() != null)
+            {
+                ec.getStatistics().incrementNumReads();
+            }
+            if (objectSheet == null)
+            {
+                return null;
+            }
+            final Sheet sheet = objectSheet;
+            final int rowNumber = objectRowNumber;
+
+            final int[] fieldNumbers = cmd.getDFGMemberPositions();
+            return ec.findObject(id, new FieldValues()
+            {
+                // StateManager calls the fetchFields method
+                public void fetchFields(DNStateManager sm)
+                {
+                    fetchObjectFromRow(sm, fieldNumbers, sheet, rowNumber, table);
+                }
+                public void fetchNonLoadedFields(DNStateManager sm)
+                {
+                    sm.replaceNonLoadedFields(fieldNumbers, new FetchFieldManager(sm, sheet, rowNumber, table));
+                }
+                public FetchPlan getFetchPlanForLoading()
+                {
+                    return null;
+                }
+            }, clr.classForName(className), false, false);
+        }
+        finally
+        {
+            if (locked)
+            {
+                ((ExcelStoreManager)storeMgr).unlockSheet(sheetName, false);
+            }
+            mconn.release();
+        }
+    }
+
+    /**
+     * Method to perform an optimistic version check of the specified object against the version stored in its row.
+     * Only applies to a versioned object being changed in an optimistic transaction. The stored version is taken from the identity
+     * index of the worksheet where possible (so no read of the row is needed), otherwise from the version cell of the row.
+     * @param sm StateManager of the object
+     * @param wb Workbook
+     * @param sheet The worksheet
+     * @param table The table representing the worksheet
+     * @param rowNumber Number of the row of the object
+     * @throws NucleusOptimisticException if the stored version differs from the version of the object
+     */
+    protected void performOptimisticCheck(DNStateManager sm, Workbook wb, Sheet sheet, Table table, int rowNumber)
+    {
+        AbstractClassMetaData cmd = sm.getClassMetaData();
+        VersionMetaData vermd = cmd.getVersionMetaDataForClass();
+        if (vermd == null || !sm.getExecutionContext().getTransaction().getOptimistic())
+        {
+            return;
+        }
+        Object currentVersion = ExcelIdentityIndex.getVersionKey(sm.getTransactionalVersion());
+        if (currentVersion == null)
+        {
+            return;
+        }
+
+        int verColNumber = -1;
+        if (vermd.getMemberName() != null)
+        {
+            AbstractMemberMetaData verMmd = cmd.getMetaDataForMember(vermd.getMemberName());
+            verColNumber = table.getMemberColumnMappingForMember(verMmd).getColumn(0).getPosition();
+        }
+        else
+        {
+            verColNumber = table.getSurrogateColumn(SurrogateColumnType.VERSION).getPosition();
+        }
+        boolean dateVersion = (vermd.getStrategy() == VersionStrategy.DATE_TIME);
+
+        Object datastoreVersion = null;
+        CellMatcher[] matchers = (cmd.getIdentityType() != IdentityType.NONDURABLE) ? ExcelUtils.getIdentityMatchersForObject(sm, false, table) : null;
+        if (matchers != null && CellMatcher.isKeyable(matchers))
+        {
+            ExcelIdentityIndex index = ((ExcelStoreManager)storeMgr).getIdentityIndex(wb, sheet, matchers);
+            datastoreVersion = index.getVersion(CellMatcher.getKey(matchers), sheet, verColNumber, dateVersion);
+        }
+        else
+        {
+            datastoreVersion = ExcelIdentityIndex.getVersionKeyForCell(sheet.getRow(rowNumber).getCell(verColNumber), dateVersion);
+        }
+
+        if (datastoreVersion != null && !datastoreVersion.equals(currentVersion))
+        {
+            throw new NucleusOptimisticException(Localiser.msg("Excel.OptimisticCheckFailed", sm.getObjectAsPrintable(), sm.getInternalObjectId(),
+                "" + sm.getTransactionalVersion(), "" + datastoreVersion), sm.getObject());
+        }
+    }
+
+    /**
+     * Method to lock the row of the specified object pessimistically where required, i.e when using a shared workbook in a transaction
+     * and the object is being read with lock mode PESSIMISTIC_READ/WRITE (or serializeRead is set for its class).
+     * The lock is held by the connection until the end of the transaction (see {@link RowLockTable}).
+     * This must be called before locking the worksheet, so that we don't hold the sheet while waiting for the row.
+     * @param sm StateManager of the object
+     * @param mconn The connection (owner of the lock)
+     * @param sheetName Name of the worksheet of the object
+     */
+    protected void lockRowIfRequired(DNStateManager sm, ManagedConnection mconn, String sheetName)
+    {
+        SharedWorkbook sharedWorkbook = ((ExcelStoreManager)storeMgr).getSharedWorkbook();
+        ExecutionContext ec = sm.getExecutionContext();
+        if (sharedWorkbook == null || !ec.getTransaction().isActive())
+        {
+            return;
+        }
+
+        LockMode lockMode = ec.getLockManager().getLockMode(sm);
+        if (lockMode == LockMode.LOCK_PESSIMISTIC_READ || lockMode == LockMode.LOCK_PESSIMISTIC_WRITE ||
+            Boolean.TRUE.equals(ec.getSerializeReadForClass(sm.getClassMetaData().getFullClassName())))
+        {
+            sharedWorkbook.getRowLockTable().lockRow(sheetName, sm.getInternalObjectId(), mconn);
+        }
+    }
+
+    /**
+     * Accessor for the undo log of the transaction using the specified connection, to record changes to rows in.
+     * Only required when the workbook is shared and a transaction is active, since without a shared workbook a rollback simply discards
+     * the workbook of the connection, and outside of a transaction each change is written to the file directly.
+     * @param ec ExecutionContext
+     * @param mconn The connection
+     * @return The undo log (or null if not required)
+     */
+    protected ExcelUndoLog getUndoLog(ExecutionContext ec, ManagedConnection mconn)
+    {
+        if (((ExcelStoreManager)storeMgr).getSharedWorkbook() == null || !ec.getTransaction().isActive())
+        {
+            return null;
+        }
+        return ((AbstractExcelManagedConnection)mconn).getUndoLog();
+    }
+
+    /**
+     * Method to claim the row of the specified object for a change, waiting until it isn't locked pessimistically by another connection.
+     * The claim stops another connection locking the row until the change is complete, so must be released by
+     * {@link #releaseRow(DNStateManager, ManagedConnection, String)} where this returns true.
+     * This must be called before locking the worksheet, so that we don't hold the sheet while waiting for the row.
+     * @param sm StateManager of the object
+     * @param mconn The connection
+     * @param sheetName Name of the worksheet of the object
+     * @return Whether the row was claimed
+     */
+    protected boolean claimRow(DNStateManager sm, ManagedConnection mconn, String sheetName)
+    {
+        SharedWorkbook sharedWorkbook = ((ExcelStoreManager)storeMgr).getSharedWorkbook();
+        if (sharedWorkbook != null)
+        {
+            return sharedWorkbook.getRowLockTable().claimRow(sheetName, sm.getInternalObjectId(), mconn);
+        }
+        return false;
+    }
+
+    /**
+     * Method to release the claim on the row of the specified object, taken by {@link #claimRow(DNStateManager, ManagedConnection, String)}.
+     * @param sm StateManager of the object
+     * @param mconn The connection
+     * @param sheetName Name of the worksheet of the object
+     */
+    protected void releaseRow(DNStateManager sm, ManagedConnection mconn, String sheetName)
+    {
+        SharedWorkbook sharedWorkbook = ((ExcelStoreManager)storeMgr).getSharedWorkbook();
+        if (sharedWorkbook != null)
+        {
+            sharedWorkbook.getRowLockTable().releaseRow(sheetName, sm.getInternalObjectId(), mconn);
+        }
+    }
+
+    /**
+     * Convenience method to find the row number of an object in the specified worksheet of its table.
+     * For application and datastore identity this uses the identity index of the sheet, otherwise it scans the sheet.
+     * @param sm StateManager for the object
+     * @param sheet The worksheet (can be null)
+     * @param originalValue Use the original value of the identifying fields if available (for nondurable identity)
+     * @param table The table representing the worksheet
+     * @return The row number (or -1 if not found)
+     */
+    protected int getRowNumberForObject(DNStateManager sm, Sheet sheet, boolean originalValue, Table table)
+    {
+        if (sheet == null)
+        {
+            return -1;
+        }
+        if (sm.getClassMetaData().getIdentityType() != IdentityType.NONDURABLE)
+        {
+            CellMatcher[] matchers = ExcelUtils.getIdentityMatchersForObject(sm, originalValue, table);
+            if (CellMatcher.isKeyable(matchers))
+            {
+                return ((ExcelStoreManager)storeMgr).getIdentityIndex(sheet.getWorkbook(), sheet, matchers).getRowNumber(CellMatcher.getKey(matchers));
+            }
+        }
+        return ExcelUtils.getRowNumberForObjectInSheet(sm, sheet, originalValue, table);
+    }
+
+    /**
+     * Convenience method to return the worksheet holding the specified object. Where the objects of the class overflow onto further worksheets
+     * (see {@link ExcelStoreManager#getSheetsForTable(Workbook, String)}) this is the worksheet that the object is found in, otherwise
+     * (or if not found) it is the first worksheet of the table. Must be called holding the lock of the table.
+     * @param sm StateManager for the object
+     * @param wb Workbook
+     * @param originalValue Use the original value of the identifying fields if available (for nondurable identity)
+     * @param table The table for the class
+     * @return The worksheet
+     * @throws NucleusDataStoreException if the table has no worksheet in this workbook
+     */
+    protected Sheet getSheetForObject(DNStateManager sm, Workbook wb, boolean originalValue, Table table)
+    {
+        Sheet sheet = ExcelUtils.getSheetForClass(sm, wb, table);
+        List<Sheet> sheets = ((ExcelStoreManager)storeMgr).getSheetsForTable(wb, table.getName());
+        if (sheets.size() > 1)
+        {
+            for (Sheet partition : sheets)
+            {
+                if (getRowNumberForObject(sm, partition, originalValue, table) >= 0)
+                {
+                    return partition;
+                }
+            }
+        }
+        return sheet;
+    }
+
+    /**
+     * Convenience accessor for the table for the specified class, managing the class if not yet managed.
+     * @param cmd Metadata for the class
+     * @param ec ExecutionContext
+     * @param wb Workbook
+     * @return The table
+     */
+    protected Table getTableForClass(AbstractClassMetaData cmd, ExecutionContext ec, Workbook wb)
+    {
+        StoreData sd = storeMgr.getStoreDataForClass(cmd.getFullClassName());
+        if (sd == null)
+        {
+            ((ExcelStoreManager)storeMgr).manageClasses(new String[] {cmd.getFullClassName()}, ec.getClassLoaderResolver(), wb);
+            sd = storeMgr.getStoreDataForClass(cmd.getFullClassName());
+        }
+        return sd.getTable();
     }
 
     /**
@@ -599,7 +1578,10 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
     public void locateObject(DNStateManager sm)
     {
         ExecutionContext ec = sm.getExecutionContext();
+        ((ExcelStoreManager)storeMgr).checkExecutionContext(ec);
         ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        String sheetName = null;
+        boolean locked = false;
         try
         {
             Workbook wb = (Workbook) mconn.getConnection();
@@ -611,7 +1593,18 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
                 sd = storeMgr.getStoreDataForClass(cmd.getFullClassName());
             }
             Table table = sd.getTable();
-            int rownum = ExcelUtils.getRowNumberForObjectInWorkbook(sm, wb, false, table);
+            sheetName = table.getName();
+            lockRowIfRequired(sm, mconn, sheetName);
+            locked = ((ExcelStoreManager)storeMgr).lockSheet(sheetName, false);
+            int rownum = -1;
+            for (Sheet sheet : ((ExcelStoreManager)storeMgr).getSheetsForTable(wb, sheetName))
+            {
+                rownum = getRowNumberForObject(sm, sheet, false, table);
+                if (rownum >= 0)
+                {
+                    break;
+                }
+            }
             if (ec.getStatistics() != null)
             {
                 ec.getStatistics().incrementNumReads();
@@ -624,9 +1617,223 @@ public class ExcelPersistenceHandler extends AbstractPersistenceHandler
         }
         finally
         {
+            if (locked)
+            {
+                ((ExcelStoreManager)storeMgr).unlockSheet(sheetName, false);
+            }
             mconn.release();
         }
 
         throw new NucleusObjectNotFoundException("Object not found",sm.getInternalObjectId());
     }
+
+    /**
+     * Method to locate if a set of objects exist in the datastore.
+     * The objects are grouped by the worksheet they are stored in, and each worksheet is scanned once for all of its objects.
+     * @param sms StateManagers of the objects to locate
+     * @throws NucleusObjectNotFoundException if any object is not found, with a nested exception for each missing object
+     */
+    public void locateObjects(DNStateManager[] sms)
+    {
+        if (sms == null || sms.length == 0)
+        {
+            return;
+        }
+        if (sms.length == 1)
+        {
+            locateObject(sms[0]);
+            return;
+        }
+
+        ExecutionContext ec = sms[0].getExecutionContext();
+        List<NucleusObjectNotFoundException> failures = null;
+        ((ExcelStoreManager)storeMgr).checkExecutionContext(ec);
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        try
+        {
+            Workbook wb = (Workbook) mconn.getConnection();
+
+            Map<String, Table> tablesBySheet = new HashMap<>();
+            Map<String, List<DNStateManager>> smsBySheet = groupObjectsByPartition(sms, ec, wb, tablesBySheet);
+            for (Map.Entry<String, List<DNStateManager>> entry : smsBySheet.entrySet())
+            {
+                Table table = tablesBySheet.get(entry.getKey());
+                String tableName = table.getName();
+                List<DNStateManager> sheetSMs = entry.getValue();
+                for (DNStateManager sm : sheetSMs)
+                {
+                    lockRowIfRequired(sm, mconn, tableName);
+                }
+                int[] rowNumbers = null;
+                boolean locked = ((ExcelStoreManager)storeMgr).lockSheet(tableName, false);
+                try
+                {
+                    rowNumbers = getRowNumbersForObjects(sheetSMs, ((ExcelStoreManager)storeMgr).getSheet(wb, entry.getKey()), table);
+                }
+                finally
+                {
+                    if (locked)
+                    {
+                        ((ExcelStoreManager)storeMgr).unlockSheet(tableName, false);
+                    }
+                }
+                if (ec.getStatistics() != null)
+                {
+                    ec.getStatistics().incrementNumReads();
+                }
+                for (int i=0;i<rowNumbers.length;i++)
+                {
+                    if (rowNumbers[i] < 0)
+                    {
+                        if (failures == null)
+                        {
+                            failures = new ArrayList<>();
+                        }
+                        failures.add(new NucleusObjectNotFoundException("Object not found", sheetSMs.get(i).getInternalObjectId()));
+                    }
+                }
+            }
+        }
+        finally
+        {
+            mconn.release();
+        }
+
+        if (failures != null)
+        {
+            if (failures.size() == 1)
+            {
+                throw failures.get(0);
+            }
+            throw new NucleusObjectNotFoundException("Some objects were not found. Look at nested exceptions for details",
+                failures.toArray(new Throwable[failures.size()]));
+        }
+    }
+
+    /**
+     * Convenience method to group the specified objects by the worksheet that they are stored in, retaining the order of the objects.
+     * @param sms StateManagers of the objects
+     * @param ec ExecutionContext
+     * @param wb Workbook
+     * @param tablesBySheet Map that will be populated with the table for each worksheet name
+     * @return The objects, keyed by the worksheet name
+     */
+    protected Map<String, List<DNStateManager>> groupObjectsBySheet(DNStateManager[] sms, ExecutionContext ec, Workbook wb, Map<String, Table> tablesBySheet)
+    {
+        Map<String, List<DNStateManager>> smsBySheet = new LinkedHashMap<>();
+        for (DNStateManager sm : sms)
+        {
+            Table table = getTableForClass(sm.getClassMetaData(), ec, wb);
+            smsBySheet.computeIfAbsent(table.getName(), k -> new ArrayList<>()).add(sm);
+            tablesBySheet.putIfAbsent(table.getName(), table);
+        }
+        return smsBySheet;
+    }
+
+    /**
+     * Convenience method to group the specified objects by the worksheet that they are stored in, as {@link #groupObjectsBySheet} but
+     * where the objects of a class overflow onto further worksheets (see {@link ExcelStoreManager#getSheetsForTable(Workbook, String)})
+     * grouping them by the worksheet that each is found in. Objects not found in any worksheet are grouped with the first worksheet of their table.
+     * @param sms StateManagers of the objects
+     * @param ec ExecutionContext
+     * @param wb Workbook
+     * @param tablesBySheet Map that will be populated with the table for each worksheet name
+     * @return The objects, keyed by the worksheet name
+     */
+    protected Map<String, List<DNStateManager>> groupObjectsByPartition(DNStateManager[] sms, ExecutionContext ec, Workbook wb, Map<String, Table> tablesBySheet)
+    {
+        Map<String, List<DNStateManager>> smsBySheet = groupObjectsBySheet(sms, ec, wb, tablesBySheet);
+        ExcelStoreManager excelStoreMgr = (ExcelStoreManager)storeMgr;
+        Map<String, List<DNStateManager>> smsByPartition = new LinkedHashMap<>();
+        for (Map.Entry<String, List<DNStateManager>> entry : smsBySheet.entrySet())
+        {
+            Table table = tablesBySheet.get(entry.getKey());
+            List<Sheet> sheets = excelStoreMgr.getSheetsForTable(wb, table.getName());
+            if (sheets.size() <= 1)
+            {
+                smsByPartition.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+
+            List<DNStateManager> notFound = entry.getValue();
+            boolean locked = excelStoreMgr.lockSheet(table.getName(), false);
+            try
+            {
+                for (int i=0;i<sheets.size() && !notFound.isEmpty();i++)
+                {
+                    Sheet sheet = sheets.get(i);
+                    int[] rowNumbers = getRowNumbersForObjects(notFound, sheet, table);
+                    List<DNStateManager> stillNotFound = new ArrayList<>();
+                    for (int j=0;j<rowNumbers.length;j++)
+                    {
+                        if (rowNumbers[j] >= 0)
+                        {
+                            smsByPartition.computeIfAbsent(sheet.getSheetName(), k -> new ArrayList<>()).add(notFound.get(j));
+                            tablesBySheet.putIfAbsent(sheet.getSheetName(), table);
+                        }
+                        else
+                        {
+                            stillNotFound.add(notFound.get(j));
+                        }
+                    }
+                    notFound = stillNotFound;
+                }
+            }
+            finally
+            {
+                if (locked)
+                {
+                    excelStoreMgr.unlockSheet(table.getName(), false);
+                }
+            }
+            if (!notFound.isEmpty())
+            {
+                smsByPartition.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(notFound);
+            }
+        }
+        return smsByPartition;
+    }
+
+    /**
+     * Convenience method to find the row numbers of the specified objects, all stored in the specified worksheet.
+     * Where the identities can be used as lookup keys this uses the identity index of the sheet, otherwise each object is searched for separately.
+     * @param sms StateManagers of the objects
+     * @param sheet The worksheet (can be null)
+     * @param table The table representing the worksheet
+     * @return The row numbers, in the same order as the objects (-1 where not present)
+     */
+    protected int[] getRowNumbersForObjects(List<DNStateManager> sms, Sheet sheet, Table table)
+    {
+        int[] rowNumbers = new int[sms.size()];
+        if (sheet == null)
+        {
+            Arrays.fill(rowNumbers, -1);
+            return rowNumbers;
+        }
+
+        CellMatcher[][] matchers = new CellMatcher[sms.size()][];
+        boolean keyable = sms.get(0).getClassMetaData().getIdentityType() != IdentityType.NONDURABLE;
+        for (int i=0;i<matchers.length && keyable;i++)
+        {
+            matchers[i] = ExcelUtils.getIdentityMatchersForObject(sms.get(i), false, table);
+            keyable = CellMatcher.isKeyable(matchers[i]);
+        }
+
+        if (keyable)
+        {
+            ExcelIdentityIndex index = ((ExcelStoreManager)storeMgr).getIdentityIndex(sheet.getWorkbook(), sheet, matchers[0]);
+            for (int i=0;i<rowNumbers.length;i++)
+            {
+                rowNumbers[i] = index.getRowNumber(CellMatcher.getKey(matchers[i]));
+            }
+        }
+        else
+        {
+            for (int i=0;i<rowNumbers.length;i++)
+            {
+                rowNumbers[i] = ExcelUtils.getRowNumberForObjectInSheet(sms.get(i), sheet, false, table);
+            }
+        }
+        return rowNumbers;
+    }
 }
\ No newline at end of file
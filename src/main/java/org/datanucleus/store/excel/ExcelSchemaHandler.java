@@ -17,27 +17,53 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.store.excel;
 
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.metadata.RelationType;
 import org.datanucleus.store.StoreData;
 import org.datanucleus.store.StoreManager;
 import org.datanucleus.store.connection.ManagedConnection;
 import org.datanucleus.store.schema.AbstractStoreSchemaHandler;
+import org.datanucleus.store.schema.table.Column;
 import org.datanucleus.store.schema.table.CompleteClassTable;
+import org.datanucleus.store.schema.table.MemberColumnMapping;
+import org.datanucleus.store.schema.table.SurrogateColumnType;
 import org.datanucleus.store.schema.table.Table;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
 
 /**
  * Handler for schema operations with Excel documents.
+ * A worksheet can have a header row as its first row, naming the columns (by their identifiers). When the persistence property
+ * "datanucleus.excel.headerRow" is set, the worksheets created are given a header row. When a class is managed and its (existing)
+ * worksheet has a header row, the position of each column is taken from the header, so the columns can be reordered in the file
+ * (e.g by hand in Excel) without breaking the mapping. The header row is skipped when reading the objects of the worksheet.
  */
 public class ExcelSchemaHandler extends AbstractStoreSchemaHandler
 {
+    /** Number of rows of each worksheet whose cells are checked when validating. */
+    protected static final int VALIDATE_SAMPLE_ROWS = 100;
+
     public ExcelSchemaHandler(StoreManager storeMgr)
     {
         super(storeMgr);
@@ -77,21 +103,37 @@ public class ExcelSchemaHandler extends AbstractStoreSchemaHandler
                     }
 
                     String sheetName = table.getName();
-                    Sheet sheet = wb.getSheet(sheetName);
+                    Sheet sheet = ((ExcelStoreManager)storeMgr).getSheet(wb, sheetName);
                     if (sheet == null)
                     {
                         // Sheet doesn't exist so create it
-                        sheet = wb.createSheet(sheetName);
+                        sheet = ((ExcelStoreManager)storeMgr).createSheet(wb, sheetName);
                         if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
                         {
                             NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.SchemaCreate.Class",
                                 cmd.getFullClassName(), sheetName));
                         }
+                    }
 
-                        // Create columns of sheet
-                        for (int i=0;i<table.getNumberOfColumns();i++)
+                    if (sheet.getPhysicalNumberOfRows() == 0)
+                    {
+                        if (storeMgr.getBooleanProperty(ExcelStoreManager.PROPERTY_HEADER_ROW))
                         {
-                            // TODO Create header row
+                            createHeaderRow(wb, sheet, table);
+                        }
+                    }
+                    else if (storeData != null)
+                    {
+                        // Existing sheet, so take the column positions from any header row
+                        resolveHeaderRow(wb, sheet, cmd, table);
+                        if (((ExcelStoreManager)storeMgr).hasHeaderRow(wb, sheetName))
+                        {
+                            // Any overflow sheets of the table have the same header row
+                            List<Sheet> sheets = ((ExcelStoreManager)storeMgr).getSheetsForTable(wb, sheetName);
+                            for (int i=1;i<sheets.size();i++)
+                            {
+                                ((ExcelStoreManager)storeMgr).setSheetHasHeaderRow(wb, sheets.get(i).getSheetName(), true);
+                            }
                         }
                     }
                 }
@@ -106,6 +148,183 @@ public class ExcelSchemaHandler extends AbstractStoreSchemaHandler
         }
     }
 
+    /**
+     * Method to create the header row of the specified (empty) worksheet, with a cell naming each column of the table.
+     * @param wb Workbook
+     * @param sheet The worksheet
+     * @param table The table for the worksheet
+     */
+    protected void createHeaderRow(Workbook wb, Sheet sheet, Table table)
+    {
+        ExcelStoreManager excelStoreMgr = (ExcelStoreManager)storeMgr;
+        String sheetName = sheet.getSheetName();
+        boolean locked = excelStoreMgr.lockSheet(sheetName, true);
+        try
+        {
+            if (sheet.getPhysicalNumberOfRows() > 0)
+            {
+                // Rows added since creation of the sheet (by another thread) so don't add a header
+                return;
+            }
+
+            excelStoreMgr.beforeSheetChange(wb, sheetName, false);
+            Row row = sheet.createRow(0);
+            for (Column col : table.getColumns())
+            {
+                ExcelUtils.setStringCellValue(row.createCell(col.getPosition()), col.getName());
+            }
+            excelStoreMgr.setSheetHasHeaderRow(wb, sheetName, true);
+        }
+        finally
+        {
+            if (locked)
+            {
+                excelStoreMgr.unlockSheet(sheetName, true);
+            }
+        }
+    }
+
+    /**
+     * Method to check whether the first row of the specified worksheet is a header row, and if so to set the position of each column
+     * of the table to that of its name in the header. This is done once, when the class is first managed, so that the position of a column
+     * is then available directly from the table. A header row is a row with only string cells, that includes the names of the identity
+     * columns (or of any column when there is no identity). Any column of the table not present in the header is added to the end of it.
+     * Names are matched ignoring case.
+     * @param wb Workbook
+     * @param sheet The worksheet
+     * @param cmd Metadata for the class
+     * @param table The table for the worksheet
+     */
+    protected void resolveHeaderRow(Workbook wb, Sheet sheet, AbstractClassMetaData cmd, Table table)
+    {
+        ExcelStoreManager excelStoreMgr = (ExcelStoreManager)storeMgr;
+        String sheetName = sheet.getSheetName();
+        boolean locked = excelStoreMgr.lockSheet(sheetName, true);
+        try
+        {
+            Map<String, Integer> positionsByName = getHeaderPositions(sheet.getRow(0));
+            if (!isHeaderForTable(positionsByName, cmd, table))
+            {
+                return;
+            }
+
+            Row row = sheet.getRow(0);
+            int nextPosition = Math.max(row.getLastCellNum(), 0);
+            for (Column col : table.getColumns())
+            {
+                Integer position = positionsByName.get(col.getName().toUpperCase(Locale.ENGLISH));
+                if (position == null)
+                {
+                    // Column not in the header, so add it
+                    position = nextPosition++;
+                    if (NucleusLogger.DATASTORE_SCHEMA.isDebugEnabled())
+                    {
+                        NucleusLogger.DATASTORE_SCHEMA.debug(Localiser.msg("Excel.SchemaCreate.Class.Column", col.getName(), sheetName));
+                    }
+                    excelStoreMgr.beforeSheetChange(wb, sheetName, false);
+                    ExcelUtils.setStringCellValue(row.createCell(position), col.getName());
+                }
+                if (col.getPosition() != position)
+                {
+                    if (NucleusLogger.DATASTORE_SCHEMA.isDebugEnabled())
+                    {
+                        NucleusLogger.DATASTORE_SCHEMA.debug(Localiser.msg("Excel.Schema.ColumnPosition", sheetName, col.getName(), "" + position));
+                    }
+                    col.setPosition(position);
+                }
+            }
+            excelStoreMgr.setSheetHasHeaderRow(wb, sheetName, true);
+        }
+        finally
+        {
+            if (locked)
+            {
+                excelStoreMgr.unlockSheet(sheetName, true);
+            }
+        }
+    }
+
+    /**
+     * Convenience method to return the position of each name in the specified (header) row, keyed by the upper-case name.
+     * @param row The row (or null)
+     * @return The positions, or null if the row has any cell that isn't a string (so isn't a header)
+     */
+    protected static Map<String, Integer> getHeaderPositions(Row row)
+    {
+        if (row == null || row.getRowNum() != 0)
+        {
+            return null;
+        }
+
+        Map<String, Integer> positionsByName = new HashMap<>();
+        for (Cell cell : row)
+        {
+            if (cell.getCellType() == CellType.BLANK)
+            {
+                continue;
+            }
+            else if (cell.getCellType() != CellType.STRING)
+            {
+                return null;
+            }
+            positionsByName.putIfAbsent(cell.getStringCellValue().trim().toUpperCase(Locale.ENGLISH), cell.getColumnIndex());
+        }
+        return positionsByName;
+    }
+
+    /**
+     * Convenience method to return whether the specified header positions (see {@link #getHeaderPositions(Row)}) are those of a header
+     * row for the specified table, i.e they include the names of the identity columns (or of any column when there is no identity).
+     * @param positionsByName The header positions (or null if not a header)
+     * @param cmd Metadata for the class
+     * @param table The table for the class
+     * @return Whether it is a header row for the table
+     */
+    protected static boolean isHeaderForTable(Map<String, Integer> positionsByName, AbstractClassMetaData cmd, Table table)
+    {
+        if (positionsByName == null || positionsByName.isEmpty())
+        {
+            return false;
+        }
+
+        List<Column> identityCols = getIdentityColumns(cmd, table);
+        if (identityCols.isEmpty())
+        {
+            return table.getColumns().stream().anyMatch(col -> positionsByName.containsKey(col.getName().toUpperCase(Locale.ENGLISH)));
+        }
+        return identityCols.stream().allMatch(col -> positionsByName.containsKey(col.getName().toUpperCase(Locale.ENGLISH)));
+    }
+
+    /**
+     * Convenience method to return the columns holding the identity of the objects of the specified class.
+     * @param cmd Metadata for the class
+     * @param table The table for the class
+     * @return The identity columns (empty for nondurable identity)
+     */
+    protected static List<Column> getIdentityColumns(AbstractClassMetaData cmd, Table table)
+    {
+        List<Column> cols = new ArrayList<>();
+        if (cmd.getIdentityType() == IdentityType.DATASTORE)
+        {
+            cols.add(table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID));
+        }
+        else if (cmd.getIdentityType() == IdentityType.APPLICATION)
+        {
+            for (int pkFieldNumber : cmd.getPKMemberPositions())
+            {
+                MemberColumnMapping mapping = table.getMemberColumnMappingForMember(cmd.getMetaDataForManagedMemberAtAbsolutePosition(pkFieldNumber));
+                if (mapping != null)
+                {
+                    for (Column col : mapping.getColumns())
+                    {
+                        cols.add(col);
+                    }
+                }
+            }
+        }
+        return cols;
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.store.schema.AbstractStoreSchemaHandler#deleteSchemaForClasses(java.util.Set, java.util.Properties, java.lang.Object)
      */
@@ -139,14 +358,16 @@ public class ExcelSchemaHandler extends AbstractStoreSchemaHandler
                         table = new CompleteClassTable(storeMgr, cmd, null);
                     }
 
-                    String sheetName = table.getName();
-                    Sheet sheet = wb.getSheet(sheetName);
-                    if (sheet != null)
+                    // Remove the sheet of the table, and any overflow sheets
+                    for (Sheet sheet : ((ExcelStoreManager)storeMgr).getSheetsForTable(wb, table.getName()))
                     {
-                        wb.removeSheetAt(wb.getSheetIndex(sheetName));
-                        if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+                        String sheetName = sheet.getSheetName();
+                        if (((ExcelStoreManager)storeMgr).removeSheet(wb, sheetName))
                         {
-                            NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.SchemaDelete.Class", cmd.getFullClassName(), sheetName));
+                            if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+                            {
+                                NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.SchemaDelete.Class", cmd.getFullClassName(), sheetName));
+                            }
                         }
                     }
                 }
@@ -161,13 +382,183 @@ public class ExcelSchemaHandler extends AbstractStoreSchemaHandler
         }
     }
 
-    /* (non-Javadoc)
-     * @see org.datanucleus.store.schema.AbstractStoreSchemaHandler#validateSchema(java.util.Set, java.util.Properties, java.lang.Object)
+    /**
+     * Method to validate the worksheets of the specified classes. For each class this checks that
+     * <ul>
+     * <li>the worksheet exists</li>
+     * <li>any header row names all columns of the table, at the positions that they are mapped to</li>
+     * <li>the cells of each column of a basic type (number, boolean, date, String) in a sample of rows have the cell type for that type</li>
+     * </ul>
+     * The worksheets are validated in parallel. Any errors are logged, and a NucleusException is then thrown.
+     * @param classNames Names of the classes
+     * @param props Any properties controlling validation
+     * @param connection The workbook (or null to use a connection of the StoreManager)
+     * @throws NucleusException if any errors are found
      */
     @Override
     public void validateSchema(Set<String> classNames, Properties props, Object connection)
     {
-        // TODO Implement validation of Excel spreadsheet
-        super.validateSchema(classNames, props, connection);
+        Workbook wb = (Workbook)connection;
+        ManagedConnection mconn = null;
+        try
+        {
+            if (wb == null)
+            {
+                mconn = storeMgr.getConnectionManager().getConnection(-1);
+                wb = (Workbook)mconn.getConnection();
+            }
+
+            ClassLoaderResolver clr = storeMgr.getNucleusContext().getClassLoaderResolver(null);
+            List<AbstractClassMetaData> cmds = new ArrayList<>();
+            List<Table> tables = new ArrayList<>();
+            for (String className : classNames)
+            {
+                AbstractClassMetaData cmd = storeMgr.getMetaDataManager().getMetaDataForClass(className, clr);
+                if (cmd != null)
+                {
+                    StoreData storeData = storeMgr.getStoreDataForClass(cmd.getFullClassName());
+                    cmds.add(cmd);
+                    tables.add(storeData != null ? storeData.getTable() : new CompleteClassTable(storeMgr, cmd, null));
+                }
+            }
+
+            // Validate the sheets in parallel, reporting the errors in the order of the classes
+            final Workbook workbook = wb;
+            List<List<String>> errors = IntStream.range(0, cmds.size()).parallel()
+                    .mapToObj(i -> validateSheetForClass(workbook, cmds.get(i), tables.get(i), clr))
+                    .collect(Collectors.toList());
+
+            int numErrors = 0;
+            for (List<String> classErrors : errors)
+            {
+                for (String error : classErrors)
+                {
+                    NucleusLogger.DATASTORE_SCHEMA.error(error);
+                    numErrors++;
+                }
+            }
+            if (numErrors > 0)
+            {
+                throw new NucleusException(Localiser.msg("Excel.SchemaValidate.Failed", "" + numErrors));
+            }
+        }
+        finally
+        {
+            if (mconn != null)
+            {
+                mconn.release();
+            }
+        }
+    }
+
+    /**
+     * Method to validate the worksheet of the specified class, returning the errors found.
+     * @param wb Workbook
+     * @param cmd Metadata for the class
+     * @param table The table for the class
+     * @param clr ClassLoader resolver
+     * @return The errors (empty if valid)
+     */
+    protected List<String> validateSheetForClass(Workbook wb, AbstractClassMetaData cmd, Table table, ClassLoaderResolver clr)
+    {
+        List<String> errors = new ArrayList<>();
+        ExcelStoreManager excelStoreMgr = (ExcelStoreManager)storeMgr;
+        String sheetName = table.getName();
+        Sheet sheet = excelStoreMgr.getSheet(wb, sheetName);
+        if (sheet == null)
+        {
+            errors.add(Localiser.msg("Excel.SchemaValidate.Class", cmd.getFullClassName(), sheetName));
+            return errors;
+        }
+
+        boolean locked = excelStoreMgr.lockSheet(sheetName, false);
+        try
+        {
+            // Check the header row (if present) against the columns
+            Map<String, Integer> positionsByName = getHeaderPositions(sheet.getRow(0));
+            if (excelStoreMgr.hasHeaderRow(wb, sheetName) || isHeaderForTable(positionsByName, cmd, table))
+            {
+                for (Column col : table.getColumns())
+                {
+                    Integer position = (positionsByName != null) ? positionsByName.get(col.getName().toUpperCase(Locale.ENGLISH)) : null;
+                    if (position == null)
+                    {
+                        errors.add(Localiser.msg("Excel.SchemaValidate.Class.Column", sheetName, col.getName()));
+                    }
+                    else if (position != col.getPosition())
+                    {
+                        errors.add(Localiser.msg("Excel.SchemaValidate.Class.ColumnPosition", sheetName, col.getName(), "" + position, "" + col.getPosition()));
+                    }
+                }
+            }
+
+            // Check the cell types of a sample of the rows
+            int firstRowNum = excelStoreMgr.getFirstDataRowNumber(sheet);
+            int lastRowNum = sheet.getLastRowNum();
+            if (sheet.getPhysicalNumberOfRows() == 0 || firstRowNum > lastRowNum)
+            {
+                return errors;
+            }
+            int step = Math.max(1, (lastRowNum - firstRowNum + 1) / VALIDATE_SAMPLE_ROWS);
+            for (int fieldNumber : cmd.getAllMemberPositions())
+            {
+                AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
+                MemberColumnMapping mapping = table.getMemberColumnMappingForMember(mmd);
+                CellType cellType = (mapping != null && mapping.getNumberOfColumns() == 1 && mapping.getTypeConverter() == null &&
+                        mmd.getRelationType(clr) == RelationType.NONE) ? getCellTypeForType(mmd.getType()) : null;
+                if (cellType == null)
+                {
+                    continue;
+                }
+
+                int colNumber = mapping.getColumn(0).getPosition();
+                for (int i=firstRowNum;i<=lastRowNum;i+=step)
+                {
+                    Row row = sheet.getRow(i);
+                    Cell cell = (row != null) ? row.getCell(colNumber) : null;
+                    if (cell != null)
+                    {
+                        CellType actualType = (cell.getCellType() == CellType.FORMULA) ? cell.getCachedFormulaResultType() : cell.getCellType();
+                        if (actualType != cellType && actualType != CellType.BLANK)
+                        {
+                            // Only report the first invalid cell of each column
+                            errors.add(Localiser.msg("Excel.SchemaValidate.Class.CellType", sheetName, "" + i, mapping.getColumn(0).getName(), actualType, cellType));
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            if (locked)
+            {
+                excelStoreMgr.unlockSheet(sheetName, false);
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Convenience method to return the cell type that values of the specified (basic) type are stored as.
+     * @param type The type
+     * @return The cell type (or null if not a basic type, or stored in different ways)
+     */
+    protected static CellType getCellTypeForType(Class type)
+    {
+        if (type == boolean.class || type == Boolean.class)
+        {
+            return CellType.BOOLEAN;
+        }
+        else if ((type.isPrimitive() && type != char.class) || Number.class.isAssignableFrom(type) ||
+            Date.class.isAssignableFrom(type) || Calendar.class.isAssignableFrom(type))
+        {
+            return CellType.NUMERIC;
+        }
+        else if (type == String.class)
+        {
+            return CellType.STRING;
+        }
+        return null;
     }
 }
\ No newline at end of file
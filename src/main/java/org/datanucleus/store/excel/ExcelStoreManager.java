@@ -17,18 +17,32 @@ Contributors :
 ***********************************************************************/
 package org.datanucleus.store.excel;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.poi.ss.formula.SheetNameFormatter;
+import org.apache.poi.ss.usermodel.Name;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.SheetVisibility;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.AreaReference;
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.PersistenceNucleusContext;
 import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.metadata.ClassMetaData;
 import org.datanucleus.metadata.ClassPersistenceModifier;
 import org.datanucleus.metadata.QueryLanguage;
@@ -41,6 +55,7 @@ import org.datanucleus.store.excel.query.JPQLQuery;
 import org.datanucleus.store.query.Query;
 import org.datanucleus.store.schema.SchemaAwareStoreManager;
 import org.datanucleus.store.schema.table.CompleteClassTable;
+import org.datanucleus.store.schema.table.Table;
 import org.datanucleus.util.ClassUtils;
 import org.datanucleus.util.Localiser;
 
@@ -56,6 +71,71 @@ public abstract class ExcelStoreManager extends AbstractStoreManager implements
         Localiser.registerBundle("org.datanucleus.store.excel.Localisation", ExcelStoreManager.class.getClassLoader());
     }
 
+    /**
+     * Persistence property to share a single workbook between all connections, with concurrent access controlled per worksheet.
+     * All transactions change the same workbook, so the changes of a transaction are seen by others before it commits (i.e the isolation level
+     * is read-uncommitted), though only committed changes are written to the file (see {@link SharedWorkbook}).
+     */
+    public static final String PROPERTY_SHARED_WORKBOOK = "datanucleus.excel.sharedworkbook";
+
+    /** Persistence property for the timeout (millisecs) when acquiring a lock on a shared workbook. */
+    public static final String PROPERTY_LOCK_TIMEOUT = "datanucleus.excel.locktimeout";
+
+    /** Persistence property for whether worksheets created for classes are given a header row naming their columns. */
+    public static final String PROPERTY_HEADER_ROW = "datanucleus.excel.headerrow";
+
+    /** Persistence property for the id (0-1023) of this node, used by the "snowflake" value generator. */
+    public static final String PROPERTY_NODE_ID = "datanucleus.excel.nodeid";
+
+    /** Persistence property for the maximum number of rows of a worksheet, below the limit of the format, before a class overflows onto a further worksheet. */
+    public static final String PROPERTY_MAX_ROWS_PER_SHEET = "datanucleus.excel.maxrowspersheet";
+
+    /** Persistence property for whether the statistics of the worksheets are persisted in a "very hidden" system worksheet of the workbook. */
+    public static final String PROPERTY_STATISTICS_SHEET = "datanucleus.excel.statisticssheet";
+
+    /** Persistence property for whether the identity indexes of the worksheets are persisted in an index file alongside the Excel file. */
+    public static final String PROPERTY_INDEX_FILE = "datanucleus.excel.indexfile";
+
+    /**
+     * Persistence property for whether the worksheets of an OOXML workbook are only parsed when first used (see {@link OOXMLSheetLoader}).
+     * This relies on a method internal to Apache POI so is only used with POI v5, and worksheets with formulas or pivot tables are
+     * always parsed when the workbook is read.
+     */
+    public static final String PROPERTY_LAZY_SHEETS = "datanucleus.excel.lazysheets";
+
+    /** Maximum length of the name of a worksheet in Excel. */
+    public static final int MAX_SHEET_NAME_LENGTH = 31;
+
+    /** Defined name (scoped to the worksheet) marking an overflow worksheet of a table, referring to the first worksheet of the table. */
+    public static final String OVERFLOW_SHEET_MARKER = "DN_OVERFLOW_OF";
+
+    /** Identity indexes for the worksheets of each workbook in use, keyed by the workbook and then by the worksheet name. */
+    protected final Map<Workbook, Map<String, ExcelIdentityIndex>> identityIndexes = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Index file read for each workbook in use (when enabled), holding the entries not yet used by an identity index. */
+    protected final Map<Workbook, ExcelIndexFile> indexFiles = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Loader of the worksheets of each workbook whose worksheets are parsed when first used. */
+    protected final Map<Workbook, OOXMLSheetLoader> sheetLoaders = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Modification epoch of the worksheets of each workbook in use, keyed by the workbook and then by the worksheet name. */
+    protected final Map<Workbook, Map<String, AtomicLong>> sheetEpochs = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Statistics of the worksheets of each workbook in use, keyed by the workbook and then by the worksheet name. */
+    protected final Map<Workbook, Map<String, SheetStatistics>> sheetStatistics = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Snapshots in use for the worksheets of each workbook, keyed by the workbook and then by the worksheet name. Held weakly. */
+    protected final Map<Workbook, Map<String, Set<SheetSnapshot>>> sheetSnapshots = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Whether the first row of each worksheet is a header row (rather than an object), keyed by the workbook and then by the worksheet name. */
+    protected final Map<Workbook, Map<String, Boolean>> headerRows = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Workbook shared by all connections (when enabled), otherwise null. */
+    protected SharedWorkbook sharedWorkbook = null;
+
+    /** Executor for asynchronous operations, created when first required. */
+    protected volatile ExcelAsyncExecutor asyncExecutor = null;
+
     public ExcelStoreManager(String storeMgrKey, ClassLoaderResolver clr, PersistenceNucleusContext ctx, Map<String, Object> props)
     {
         super(storeMgrKey, clr, ctx, props);
@@ -66,9 +146,59 @@ public abstract class ExcelStoreManager extends AbstractStoreManager implements
         schemaHandler = new ExcelSchemaHandler(this);
         persistenceHandler = new ExcelPersistenceHandler(this);
 
+        if (getBooleanProperty(PROPERTY_SHARED_WORKBOOK))
+        {
+            int lockTimeout = getIntProperty(PROPERTY_LOCK_TIMEOUT);
+            sharedWorkbook = new SharedWorkbook(lockTimeout > 0 ? lockTimeout : 30000);
+        }
+
         logConfiguration();
     }
 
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.AbstractStoreManager#close()
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (asyncExecutor != null)
+        {
+            asyncExecutor.close();
+            asyncExecutor = null;
+        }
+        super.close();
+    }
+
+    /**
+     * Accessor for the executor for asynchronous operations on this datastore, creating it if not yet existing.
+     * @return The async executor
+     */
+    public synchronized ExcelAsyncExecutor getAsyncExecutor()
+    {
+        if (asyncExecutor == null)
+        {
+            // Writes to different sheets can only be queued independently when they are made to the same (shared) workbook
+            int numberOfThreads = Runtime.getRuntime().availableProcessors();
+            asyncExecutor = new ExcelAsyncExecutor(this, numberOfThreads, (sharedWorkbook != null) ? numberOfThreads : 1);
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Method to check that the specified ExecutionContext isn't in use by an asynchronous operation (see {@link ExcelAsyncExecutor})
+     * running on another thread, since an ExecutionContext is not thread-safe.
+     * @param ec ExecutionContext
+     * @throws org.datanucleus.exceptions.NucleusUserException if the ExecutionContext is in use by an asynchronous operation not yet complete
+     */
+    public void checkExecutionContext(ExecutionContext ec)
+    {
+        ExcelAsyncExecutor executor = asyncExecutor;
+        if (executor != null)
+        {
+            executor.checkExecutionContext(ec);
+        }
+    }
+
     /**
      * Accessor for the supported options in string form
      */
@@ -81,7 +211,15 @@ public abstract class ExcelStoreManager extends AbstractStoreManager implements
         set.add(StoreManager.OPTION_NONDURABLE_ID);
         set.add(StoreManager.OPTION_ORM);
         set.add(StoreManager.OPTION_ORM_EMBEDDED_PC);
-        set.add(StoreManager.OPTION_TXN_ISOLATION_READ_COMMITTED);
+        if (sharedWorkbook != null)
+        {
+            // Transactions change the same workbook, so see the uncommitted changes of other transactions
+            set.add(StoreManager.OPTION_TXN_ISOLATION_READ_UNCOMMITTED);
+        }
+        else
+        {
+            set.add(StoreManager.OPTION_TXN_ISOLATION_READ_COMMITTED);
+        }
         set.add(StoreManager.OPTION_QUERY_JDOQL_BULK_DELETE);
         set.add(StoreManager.OPTION_QUERY_JPQL_BULK_DELETE);
         set.add(StoreManager.OPTION_ORM_INHERITANCE_COMPLETE_TABLE);
@@ -196,6 +334,715 @@ public abstract class ExcelStoreManager extends AbstractStoreManager implements
         schemaHandler.createSchemaForClasses(clsNameSet, null, wb);
     }
 
+    /**
+     * Accessor for the workbook shared by all connections.
+     * @return The shared workbook, or null if each connection uses its own workbook
+     */
+    public SharedWorkbook getSharedWorkbook()
+    {
+        return sharedWorkbook;
+    }
+
+    /**
+     * Method to create the specified worksheet in the workbook (if not already present).
+     * When using a shared workbook this is done holding the workbook lock.
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     * @return The worksheet
+     */
+    public Sheet createSheet(Workbook wb, String sheetName)
+    {
+        if (sharedWorkbook != null && sharedWorkbook.getWorkbook() == wb)
+        {
+            return loadSheet(wb, sharedWorkbook.createSheet(sheetName));
+        }
+        Sheet sheet = getSheet(wb, sheetName);
+        return (sheet != null) ? sheet : wb.createSheet(sheetName);
+    }
+
+    /**
+     * Accessor for the specified worksheet of the workbook, parsing it if not yet done (see {@link OOXMLSheetLoader}).
+     * All access to the content of a worksheet should use this rather than {@link Workbook#getSheet(String)}.
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     * @return The worksheet (or null if not present)
+     */
+    public Sheet getSheet(Workbook wb, String sheetName)
+    {
+        Sheet sheet = wb.getSheet(sheetName);
+        return (sheet != null) ? loadSheet(wb, sheet) : null;
+    }
+
+    /**
+     * Accessor for whether the content of the specified worksheet of the workbook has been parsed (see {@link OOXMLSheetLoader}).
+     * @param wb Workbook
+     * @param sheet The worksheet
+     * @return Whether parsed
+     */
+    public boolean isSheetLoaded(Workbook wb, Sheet sheet)
+    {
+        OOXMLSheetLoader loader = sheetLoaders.get(wb);
+        return loader == null || loader.isLoaded(sheet);
+    }
+
+    /**
+     * Method to register the loader of the worksheets of a workbook whose worksheets are parsed when first used.
+     * @param wb Workbook
+     * @param loader The loader
+     */
+    public void setSheetLoader(Workbook wb, OOXMLSheetLoader loader)
+    {
+        sheetLoaders.put(wb, loader);
+    }
+
+    /**
+     * Accessor for the loader of the worksheets of the workbook.
+     * @param wb Workbook
+     * @return The loader (or null if the worksheets of the workbook were parsed when it was read)
+     */
+    public OOXMLSheetLoader getSheetLoader(Workbook wb)
+    {
+        return sheetLoaders.get(wb);
+    }
+
+    private Sheet loadSheet(Workbook wb, Sheet sheet)
+    {
+        OOXMLSheetLoader loader = sheetLoaders.get(wb);
+        if (loader != null)
+        {
+            loader.loadSheet(sheet);
+        }
+        return sheet;
+    }
+
+    /**
+     * Accessor for the name of the specified worksheet of a table. The objects of a class are stored in the worksheet named after its table,
+     * overflowing when that is full (see {@link #getMaxRowsPerSheet(Workbook)}) onto further worksheets "{table}_2", "{table}_3" etc.
+     * The name of the table is truncated where needed so that the name of the worksheet is valid in Excel. The name alone doesn't make
+     * a worksheet an overflow worksheet of the table (see {@link #getSheetsForTable(Workbook, String)}).
+     * @param tableName Name of the table
+     * @param sheetNumber Number of the worksheet of the table (from 1)
+     * @return Name of the worksheet
+     */
+    public static String getSheetNameForTable(String tableName, int sheetNumber)
+    {
+        if (sheetNumber <= 1)
+        {
+            return tableName;
+        }
+        String suffix = "_" + sheetNumber;
+        if (tableName.length() + suffix.length() > MAX_SHEET_NAME_LENGTH)
+        {
+            return tableName.substring(0, MAX_SHEET_NAME_LENGTH - suffix.length()) + suffix;
+        }
+        return tableName + suffix;
+    }
+
+    /**
+     * Accessor for the worksheets of the specified table present in the workbook, being the worksheet named after the table followed by
+     * any overflow worksheets (in workbook order). An overflow worksheet is one marked as such when created (see {@link #createOverflowSheet}),
+     * so a worksheet that just has a name of the form of an overflow worksheet (e.g one added by a user, or of another table whose name has
+     * the same truncated prefix) isn't taken as one. All worksheets of a table are locked using the name of the table.
+     * @param wb Workbook
+     * @param tableName Name of the table
+     * @return The worksheets (empty if the table has no worksheet)
+     */
+    public List<Sheet> getSheetsForTable(Workbook wb, String tableName)
+    {
+        List<Sheet> sheets = new ArrayList<>();
+        Sheet sheet = getSheet(wb, tableName);
+        if (sheet == null)
+        {
+            return sheets;
+        }
+        sheets.add(sheet);
+
+        List<String> overflowSheetNames = new ArrayList<>();
+        synchronized (wb)
+        {
+            TreeMap<Integer, String> sheetNamesByIndex = new TreeMap<>();
+            for (Name name : wb.getNames(OVERFLOW_SHEET_MARKER))
+            {
+                int sheetIndex = name.getSheetIndex();
+                if (sheetIndex >= 0 && tableName.equals(getSheetNameForMarker(wb, name)))
+                {
+                    sheetNamesByIndex.put(sheetIndex, wb.getSheetName(sheetIndex));
+                }
+            }
+            overflowSheetNames.addAll(sheetNamesByIndex.values());
+        }
+        for (String overflowSheetName : overflowSheetNames)
+        {
+            sheets.add(getSheet(wb, overflowSheetName));
+        }
+        return sheets;
+    }
+
+    /**
+     * Method to create a further worksheet for the specified table, marked as an overflow worksheet of the table by a defined name
+     * scoped to the worksheet, referring to the first column of the first worksheet of the table. The whole column is referred to
+     * since a reference to a cell is made invalid when its row is deleted and the rows below shifted up. The worksheet takes the first name of the form of an
+     * overflow worksheet (see {@link #getSheetNameForTable(String, int)}) from the specified number that isn't already taken.
+     * Must be called holding the write lock of the table.
+     * @param wb Workbook
+     * @param tableName Name of the table
+     * @param sheetNumber Number of the worksheet of the table (from 2)
+     * @return The worksheet
+     */
+    public Sheet createOverflowSheet(Workbook wb, String tableName, int sheetNumber)
+    {
+        String sheetName = getSheetNameForTable(tableName, sheetNumber);
+        while (wb.getSheet(sheetName) != null)
+        {
+            sheetName = getSheetNameForTable(tableName, ++sheetNumber);
+        }
+        Sheet sheet = createSheet(wb, sheetName);
+        synchronized (wb)
+        {
+            Name name = wb.createName();
+            name.setNameName(OVERFLOW_SHEET_MARKER);
+            name.setSheetIndex(wb.getSheetIndex(sheet));
+            name.setRefersToFormula(SheetNameFormatter.format(tableName) + "!$A:$A");
+        }
+        return sheet;
+    }
+
+    /**
+     * Convenience method to return the name of the (first) worksheet of the table that an overflow marker refers to.
+     * @param wb Workbook
+     * @param name The defined name
+     * @return Name of the worksheet (or null if the reference is no longer valid, e.g the worksheet was removed)
+     */
+    private static String getSheetNameForMarker(Workbook wb, Name name)
+    {
+        try
+        {
+            return new AreaReference(name.getRefersToFormula(), wb.getSpreadsheetVersion()).getFirstCell().getSheetName();
+        }
+        catch (RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Accessor for the maximum number of rows (including any header row) of a worksheet of the specified workbook. This is the row limit
+     * of the format (65536 for XLS, 1048576 for OOXML), or any lower limit set by the persistence property "datanucleus.excel.maxRowsPerSheet".
+     * @param wb Workbook
+     * @return Maximum number of rows of a worksheet
+     */
+    public int getMaxRowsPerSheet(Workbook wb)
+    {
+        int maxRows = wb.getSpreadsheetVersion().getMaxRows();
+        int configuredMaxRows = getIntProperty(PROPERTY_MAX_ROWS_PER_SHEET);
+        if (configuredMaxRows > 0 && configuredMaxRows < maxRows)
+        {
+            // Allow for a header row and at least one object on each worksheet
+            return Math.max(configuredMaxRows, 2);
+        }
+        return maxRows;
+    }
+
+    /**
+     * Method to make the specified worksheet "very hidden", for sheets used internally by DataNucleus, so they aren't shown
+     * (and can't be unhidden) in Excel. Excel requires a visible sheet, so the sheet is left visible while it is the only visible sheet
+     * of the workbook (and hidden by a later call once there are others).
+     * @param wb Workbook
+     * @param sheet The worksheet
+     */
+    public void hideSheet(Workbook wb, Sheet sheet)
+    {
+        synchronized (wb)
+        {
+            int sheetIndex = wb.getSheetIndex(sheet);
+            if (sheetIndex < 0 || wb.getSheetVisibility(sheetIndex) == SheetVisibility.VERY_HIDDEN)
+            {
+                return;
+            }
+
+            int visibleIndex = -1;
+            for (int i=0;i<wb.getNumberOfSheets() && visibleIndex < 0;i++)
+            {
+                if (i != sheetIndex && wb.getSheetVisibility(i) == SheetVisibility.VISIBLE)
+                {
+                    visibleIndex = i;
+                }
+            }
+            if (visibleIndex < 0)
+            {
+                return;
+            }
+
+            beforeSheetChange(wb, sheet.getSheetName(), false);
+            if (wb.getActiveSheetIndex() == sheetIndex)
+            {
+                wb.setActiveSheet(visibleIndex);
+            }
+            if (wb.getFirstVisibleTab() == sheetIndex)
+            {
+                wb.setFirstVisibleTab(visibleIndex);
+            }
+            sheet.setSelected(false);
+            wb.setSheetVisibility(sheetIndex, SheetVisibility.VERY_HIDDEN);
+        }
+    }
+
+    /**
+     * Method to remove the specified worksheet from the workbook (if present).
+     * When using a shared workbook this is done holding the workbook lock.
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     * @return Whether the worksheet was present
+     */
+    public boolean removeSheet(Workbook wb, String sheetName)
+    {
+        beforeSheetChange(wb, sheetName, true);
+
+        synchronized (wb)
+        {
+            // Remove any overflow marker of the sheet, since POI may leave it with the scope of the workbook
+            int sheetIndex = wb.getSheetIndex(sheetName);
+            if (sheetIndex >= 0)
+            {
+                for (Name name : new ArrayList<>(wb.getNames(OVERFLOW_SHEET_MARKER)))
+                {
+                    if (name.getSheetIndex() == sheetIndex)
+                    {
+                        wb.removeName(name);
+                    }
+                }
+            }
+        }
+
+        boolean removed = false;
+        if (sharedWorkbook != null && sharedWorkbook.getWorkbook() == wb)
+        {
+            removed = sharedWorkbook.removeSheet(sheetName);
+        }
+        else
+        {
+            int sheetIndex = wb.getSheetIndex(sheetName);
+            if (sheetIndex >= 0)
+            {
+                wb.removeSheetAt(sheetIndex);
+                removed = true;
+            }
+        }
+        if (removed)
+        {
+            invalidateIdentityIndex(wb, sheetName);
+            invalidateSheetStatistics(wb, sheetName);
+            Map<String, Boolean> headerRowsBySheet = headerRows.get(wb);
+            if (headerRowsBySheet != null)
+            {
+                headerRowsBySheet.remove(sheetName);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Method to register whether the specified worksheet of the workbook has a header row (see {@link ExcelSchemaHandler}).
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     * @param headerRow Whether the first row of the sheet is a header row
+     */
+    public void setSheetHasHeaderRow(Workbook wb, String sheetName, boolean headerRow)
+    {
+        headerRows.computeIfAbsent(wb, k -> new ConcurrentHashMap<>()).put(sheetName, headerRow);
+    }
+
+    /**
+     * Accessor for whether the specified worksheet of the workbook has a header row.
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     * @return Whether the first row of the sheet is a header row
+     */
+    public boolean hasHeaderRow(Workbook wb, String sheetName)
+    {
+        Map<String, Boolean> headerRowsBySheet = headerRows.get(wb);
+        Boolean headerRow = (headerRowsBySheet != null) ? headerRowsBySheet.get(sheetName) : null;
+        if (headerRow != null)
+        {
+            return headerRow;
+        }
+        Sheet sheet = getSheet(wb, sheetName);
+        return (sheet != null) ? hasHeaderRow(wb, sheet) : false;
+    }
+
+    /**
+     * Accessor for the number of the first row of the specified worksheet that can hold an object, so skipping any header row.
+     * @param sheet The worksheet
+     * @return Number of the first data row
+     */
+    public int getFirstDataRowNumber(Sheet sheet)
+    {
+        int firstRowNum = sheet.getFirstRowNum();
+        return (firstRowNum == 0 && hasHeaderRow(sheet.getWorkbook(), sheet)) ? 1 : firstRowNum;
+    }
+
+    /**
+     * Accessor for whether the specified worksheet of the workbook has a header row. Where this isn't yet known for the workbook
+     * (e.g the workbook was read by a connection after the class was first managed) the first row of the sheet is checked against the
+     * table of the sheet (see {@link ExcelSchemaHandler#isHeaderForTable}).
+     * @param wb Workbook
+     * @param sheet The worksheet
+     * @return Whether the first row of the sheet is a header row
+     */
+    protected boolean hasHeaderRow(Workbook wb, Sheet sheet)
+    {
+        Map<String, Boolean> headerRowsBySheet = headerRows.computeIfAbsent(wb, k -> new ConcurrentHashMap<>());
+        Boolean headerRow = headerRowsBySheet.get(sheet.getSheetName());
+        if (headerRow != null)
+        {
+            return headerRow;
+        }
+        if (sheet.getPhysicalNumberOfRows() == 0)
+        {
+            // Not known until something is added to the sheet
+            return false;
+        }
+
+        String tableName = getTableNameForSheet(wb, sheet);
+        headerRow = false;
+        for (StoreData sd : storeDataMgr.getManagedStoreData())
+        {
+            Table table = sd.getTable();
+            if (table != null && table.getName().equals(tableName) && sd.getMetaData() instanceof AbstractClassMetaData)
+            {
+                headerRow = ExcelSchemaHandler.isHeaderForTable(ExcelSchemaHandler.getHeaderPositions(sheet.getRow(0)),
+                    (AbstractClassMetaData)sd.getMetaData(), table);
+                break;
+            }
+        }
+        Boolean existing = headerRowsBySheet.putIfAbsent(sheet.getSheetName(), headerRow);
+        return (existing != null) ? existing : headerRow;
+    }
+
+    /**
+     * Accessor for the name of the table stored in the specified worksheet, i.e the name of its first worksheet where this is an
+     * overflow worksheet (see {@link #getSheetsForTable(Workbook, String)}), otherwise the name of the worksheet.
+     * @param wb Workbook
+     * @param sheet The worksheet
+     * @return Name of the table
+     */
+    protected String getTableNameForSheet(Workbook wb, Sheet sheet)
+    {
+        synchronized (wb)
+        {
+            int sheetIndex = wb.getSheetIndex(sheet);
+            for (Name name : wb.getNames(OVERFLOW_SHEET_MARKER))
+            {
+                if (sheetIndex >= 0 && name.getSheetIndex() == sheetIndex)
+                {
+                    String tableName = getSheetNameForMarker(wb, name);
+                    if (tableName != null)
+                    {
+                        return tableName;
+                    }
+                }
+            }
+        }
+        return sheet.getSheetName();
+    }
+
+    /**
+     * Method to lock the specified worksheet for reading or writing, when using a shared workbook.
+     * Any overflow worksheets of a table (see {@link #getSheetsForTable(Workbook, String)}) are locked with the lock of its first worksheet.
+     * @param sheetName Name of the worksheet
+     * @param write Whether the worksheet will be changed
+     * @return Whether a lock was taken (so {@link #unlockSheet(String, boolean)} must be called)
+     */
+    public boolean lockSheet(String sheetName, boolean write)
+    {
+        if (sharedWorkbook == null)
+        {
+            return false;
+        }
+        sharedWorkbook.lockSheet(sheetName, write);
+        return true;
+    }
+
+    /**
+     * Method to release the lock on the specified worksheet, taken by {@link #lockSheet(String, boolean)}.
+     * @param sheetName Name of the worksheet
+     * @param write Whether the worksheet was locked for writing
+     */
+    public void unlockSheet(String sheetName, boolean write)
+    {
+        if (sharedWorkbook != null)
+        {
+            sharedWorkbook.unlockSheet(sheetName, write);
+        }
+    }
+
+    /**
+     * Accessor for the identity index for the specified worksheet of the workbook, building it if not yet present.
+     * The index is taken from the index file of the workbook where this is usable (see {@link ExcelIndexFile}), otherwise built by
+     * scanning the sheet.
+     * @param wb Workbook
+     * @param sheet The worksheet
+     * @param matchers Matchers for the identity of (any) object stored in this sheet, used when building the index
+     * @return The identity index
+     */
+    public ExcelIdentityIndex getIdentityIndex(Workbook wb, Sheet sheet, CellMatcher[] matchers)
+    {
+        Map<String, ExcelIdentityIndex> indexes = identityIndexes.computeIfAbsent(wb, k -> new ConcurrentHashMap<>());
+        String sheetName = sheet.getSheetName();
+        ExcelIdentityIndex index = indexes.get(sheetName);
+        if (index != null)
+        {
+            return index;
+        }
+
+        // Build the index outside of the map, since it may scan the sheet (and so would block other sheets, or fail on any nested lookup)
+        ExcelIndexFile indexFile = indexFiles.get(wb);
+        ExcelIndexFile.Segment segment = (indexFile != null) ? indexFile.takeSegment(sheet, matchers, getSheetEpoch(wb, sheetName)) : null;
+        index = (segment != null) ? new ExcelIdentityIndex(sheet, getFirstDataRowNumber(sheet), matchers, segment) :
+            new ExcelIdentityIndex(sheet, getFirstDataRowNumber(sheet), matchers);
+        ExcelIdentityIndex existing = indexes.putIfAbsent(sheetName, index);
+        return (existing != null) ? existing : index;
+    }
+
+    /**
+     * Accessor for the identity indexes of the worksheets of the workbook that have been built.
+     * @param wb Workbook
+     * @return The identity indexes, keyed by worksheet name
+     */
+    public Map<String, ExcelIdentityIndex> getIdentityIndexes(Workbook wb)
+    {
+        Map<String, ExcelIdentityIndex> indexes = identityIndexes.get(wb);
+        return (indexes != null) ? Collections.unmodifiableMap(indexes) : Collections.emptyMap();
+    }
+
+    /**
+     * Accessor for the index file read for the workbook.
+     * @param wb Workbook
+     * @return The index file (or null if none)
+     */
+    public ExcelIndexFile getIndexFile(Workbook wb)
+    {
+        return indexFiles.get(wb);
+    }
+
+    /**
+     * Method to register the index file read for the workbook, when it is loaded.
+     * @param wb Workbook
+     * @param indexFile The index file (or null if none)
+     */
+    public void setIndexFile(Workbook wb, ExcelIndexFile indexFile)
+    {
+        if (indexFile != null)
+        {
+            indexFiles.put(wb, indexFile);
+        }
+        else
+        {
+            indexFiles.remove(wb);
+        }
+    }
+
+    /**
+     * Accessor for the identity index for the specified worksheet of the workbook, if it has been built.
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     * @return The identity index (or null if not built)
+     */
+    public ExcelIdentityIndex getIdentityIndexIfPresent(Workbook wb, String sheetName)
+    {
+        Map<String, ExcelIdentityIndex> indexes = identityIndexes.get(wb);
+        return (indexes != null) ? indexes.get(sheetName) : null;
+    }
+
+    /**
+     * Method to discard the identity index for the specified worksheet of the workbook, so it is rebuilt when next required.
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     */
+    public void invalidateIdentityIndex(Workbook wb, String sheetName)
+    {
+        Map<String, ExcelIdentityIndex> indexes = identityIndexes.get(wb);
+        if (indexes != null)
+        {
+            indexes.remove(sheetName);
+        }
+    }
+
+    /**
+     * Accessor for the statistics of the specified worksheet of the workbook, if present and valid for the sheet. Any statistics that are
+     * no longer valid are discarded. The caller should hold (at least) a read lock on the sheet.
+     * @param wb Workbook
+     * @param sheet The worksheet
+     * @param table The table stored in the worksheet, to check statistics read from the file against (or null to not check)
+     * @return The statistics (or null if not present or not valid)
+     */
+    public SheetStatistics getSheetStatistics(Workbook wb, Sheet sheet, Table table)
+    {
+        Map<String, SheetStatistics> statsBySheet = sheetStatistics.get(wb);
+        SheetStatistics stats = (statsBySheet != null) ? statsBySheet.get(sheet.getSheetName()) : null;
+        if (stats != null && !stats.isValidFor(sheet, table))
+        {
+            statsBySheet.remove(sheet.getSheetName(), stats);
+            return null;
+        }
+        return stats;
+    }
+
+    /**
+     * Accessor for the statistics of the worksheets of the workbook, keyed by worksheet name. These may include statistics that are no
+     * longer valid.
+     * @param wb Workbook
+     * @return The statistics (the live map)
+     */
+    public Map<String, SheetStatistics> getSheetStatistics(Workbook wb)
+    {
+        return sheetStatistics.computeIfAbsent(wb, k -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Method to register the statistics of the specified worksheet of the workbook.
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     * @param stats The statistics
+     */
+    public void putSheetStatistics(Workbook wb, String sheetName, SheetStatistics stats)
+    {
+        getSheetStatistics(wb).put(sheetName, stats);
+    }
+
+    /**
+     * Method to discard the statistics of the specified worksheet of the workbook, so they are recalculated when next required.
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     */
+    public void invalidateSheetStatistics(Workbook wb, String sheetName)
+    {
+        Map<String, SheetStatistics> statsBySheet = sheetStatistics.get(wb);
+        if (statsBySheet != null)
+        {
+            statsBySheet.remove(sheetName);
+        }
+    }
+
+    /**
+     * Accessor for the modification epoch of the specified worksheet of the workbook.
+     * This is incremented each time the sheet is changed (see {@link #beforeSheetChange(Workbook, String, boolean)}).
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     * @return The epoch
+     */
+    public long getSheetEpoch(Workbook wb, String sheetName)
+    {
+        return getSheetEpochCounter(wb, sheetName).get();
+    }
+
+    protected AtomicLong getSheetEpochCounter(Workbook wb, String sheetName)
+    {
+        return sheetEpochs.computeIfAbsent(wb, k -> new ConcurrentHashMap<>()).computeIfAbsent(sheetName, k -> new AtomicLong());
+    }
+
+    /**
+     * Method to take a snapshot of the active rows of the specified worksheet, for use by a query.
+     * The caller should hold (at least) a read lock on the sheet.
+     * @param wb Workbook
+     * @param sheet The worksheet
+     * @param idColIndex Number of the column that is populated for all active rows
+     * @return The snapshot
+     */
+    public SheetSnapshot createSheetSnapshot(Workbook wb, Sheet sheet, int idColIndex)
+    {
+        return createSheetSnapshot(wb, sheet, idColIndex, null);
+    }
+
+    /**
+     * Method to take a snapshot of the active rows of the specified worksheet that may match a filter, for use by a query.
+     * The rows are found using a scan of the sheet (in parallel for a large sheet, see {@link SheetScan}), omitting any header row.
+     * The caller should hold (at least) a read lock on the sheet.
+     * @param wb Workbook
+     * @param sheet The worksheet
+     * @param idColIndex Number of the column that is populated for all active rows
+     * @param filter Matchers that rows must (possibly) match, see {@link CellMatcher#mayMatch(Row)}. Null if all active rows
+     * @return The snapshot
+     */
+    public SheetSnapshot createSheetSnapshot(Workbook wb, Sheet sheet, int idColIndex, CellMatcher[] filter)
+    {
+        return createSheetSnapshot(wb, sheet, idColIndex, filter, null);
+    }
+
+    /**
+     * Method to take a snapshot of the active rows of the specified worksheet that may match a filter, for use by a query.
+     * Where there is no filter and the statistics of the sheet show that all rows after any header row are active, the rows are taken
+     * without testing each of them, otherwise they are found using a scan of the sheet (see {@link SheetScan}).
+     * The caller should hold (at least) a read lock on the sheet.
+     * @param wb Workbook
+     * @param sheet The worksheet
+     * @param idColIndex Number of the column that is populated for all active rows
+     * @param filter Matchers that rows must (possibly) match, see {@link CellMatcher#mayMatch(Row)}. Null if all active rows
+     * @param stats Valid statistics of the sheet (or null if not known)
+     * @return The snapshot
+     */
+    public SheetSnapshot createSheetSnapshot(Workbook wb, Sheet sheet, int idColIndex, CellMatcher[] filter, SheetStatistics stats)
+    {
+        List<Row> rows = null;
+        int firstRowNum = getFirstDataRowNumber(sheet);
+        if (filter == null && stats != null && sheet.getPhysicalNumberOfRows() > 0 && sheet.getLastRowNum() - firstRowNum + 1 == stats.getActiveRows())
+        {
+            // All rows are active, so take them all
+            rows = new ArrayList<>(stats.getActiveRows());
+            for (int i=firstRowNum;i<sheet.getLastRowNum()+1;i++)
+            {
+                rows.add(sheet.getRow(i));
+            }
+        }
+        else
+        {
+            rows = SheetScan.scan(sheet, firstRowNum,
+                row -> row.getCell(idColIndex) != null && CellMatcher.mayMatchAll(row, filter)); // Omit inactive rows
+        }
+
+        String sheetName = sheet.getSheetName();
+        SheetSnapshot snapshot = new SheetSnapshot(sheet, rows.toArray(new Row[rows.size()]), getSheetEpoch(wb, sheetName));
+        if (!rows.isEmpty())
+        {
+            Set<SheetSnapshot> snapshots = sheetSnapshots.computeIfAbsent(wb, k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(sheetName, k -> Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>())));
+            snapshots.add(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Method to be called before changing the specified worksheet of the workbook (holding the write lock on the sheet, if shared).
+     * Increments the modification epoch of the sheet (and the change count of a shared workbook) and, if existing rows are to be updated or removed, gives any snapshot
+     * of the sheet that is still in use its own copy of its rows.
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     * @param existingRows Whether existing rows will be updated/removed (rather than only rows being added)
+     */
+    public void beforeSheetChange(Workbook wb, String sheetName, boolean existingRows)
+    {
+        getSheetEpochCounter(wb, sheetName).incrementAndGet();
+        if (sharedWorkbook != null && sharedWorkbook.getWorkbook() == wb)
+        {
+            sharedWorkbook.workbookChanged();
+        }
+        if (existingRows)
+        {
+            Map<String, Set<SheetSnapshot>> snapshotsBySheet = sheetSnapshots.get(wb);
+            Set<SheetSnapshot> snapshots = (snapshotsBySheet != null) ? snapshotsBySheet.remove(sheetName) : null;
+            if (snapshots != null)
+            {
+                synchronized (snapshots)
+                {
+                    for (SheetSnapshot snapshot : snapshots)
+                    {
+                        snapshot.copyRows();
+                    }
+                }
+            }
+        }
+    }
+
     public void createDatabase(String catalogName, String schemaName, Properties props)
     {
         schemaHandler.createDatabase(catalogName, schemaName, props, null);
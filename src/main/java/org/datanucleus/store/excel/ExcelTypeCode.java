@@ -0,0 +1,174 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Type codes for the Java types that we store in Excel cells.
+ * The Java type of a column is resolved to one of these codes once (and cached per class), so that
+ * code decoding or comparing cells can do a single switch per cell rather than a chain of
+ * <i>isAssignableFrom</i> checks.
+ */
+public final class ExcelTypeCode
+{
+    public static final int OTHER = 0;
+    public static final int STRING = 1;
+    public static final int CHARACTER = 2;
+    public static final int BOOLEAN = 3;
+    public static final int BYTE = 4;
+    public static final int SHORT = 5;
+    public static final int INTEGER = 6;
+    public static final int LONG = 7;
+    public static final int FLOAT = 8;
+    public static final int DOUBLE = 9;
+    public static final int BIGDECIMAL = 10;
+    public static final int BIGINTEGER = 11;
+    public static final int DATE = 12;
+    public static final int SQL_DATE = 13;
+    public static final int SQL_TIME = 14;
+    public static final int SQL_TIMESTAMP = 15;
+    public static final int CALENDAR = 16;
+    public static final int ENUM = 17;
+    public static final int BYTE_ARRAY = 18;
+
+    private static final ClassValue<Integer> TYPE_CODES = new ClassValue<Integer>()
+    {
+        @Override
+        protected Integer computeValue(Class<?> type)
+        {
+            return Integer.valueOf(resolveTypeCode(type));
+        }
+    };
+
+    private ExcelTypeCode() {}
+
+    /**
+     * Accessor for the type code for the specified Java type.
+     * @param type The Java type
+     * @return The type code (OTHER if not one of the types with specific handling)
+     */
+    public static int forType(Class type)
+    {
+        if (type == null)
+        {
+            return OTHER;
+        }
+        return TYPE_CODES.get(type).intValue();
+    }
+
+    /**
+     * Convenience accessor for whether the type code represents a numeric type stored as a whole number.
+     * @param typeCode The type code
+     * @return Whether it is byte, short, int or long
+     */
+    public static boolean isIntegral(int typeCode)
+    {
+        return typeCode == BYTE || typeCode == SHORT || typeCode == INTEGER || typeCode == LONG;
+    }
+
+    /**
+     * Convenience accessor for whether the type code represents a date/time type.
+     * @param typeCode The type code
+     * @return Whether it is a java.util.Date (or java.sql subclass)
+     */
+    public static boolean isDate(int typeCode)
+    {
+        return typeCode == DATE || typeCode == SQL_DATE || typeCode == SQL_TIME || typeCode == SQL_TIMESTAMP;
+    }
+
+    private static int resolveTypeCode(Class type)
+    {
+        if (type == String.class)
+        {
+            return STRING;
+        }
+        else if (type == char.class || type == Character.class)
+        {
+            return CHARACTER;
+        }
+        else if (type == boolean.class || type == Boolean.class)
+        {
+            return BOOLEAN;
+        }
+        else if (type == byte.class || type == Byte.class)
+        {
+            return BYTE;
+        }
+        else if (type == short.class || type == Short.class)
+        {
+            return SHORT;
+        }
+        else if (type == int.class || type == Integer.class)
+        {
+            return INTEGER;
+        }
+        else if (type == long.class || type == Long.class)
+        {
+            return LONG;
+        }
+        else if (type == float.class || type == Float.class)
+        {
+            return FLOAT;
+        }
+        else if (type == double.class || type == Double.class)
+        {
+            return DOUBLE;
+        }
+        else if (BigDecimal.class.isAssignableFrom(type))
+        {
+            return BIGDECIMAL;
+        }
+        else if (BigInteger.class.isAssignableFrom(type))
+        {
+            return BIGINTEGER;
+        }
+        else if (java.sql.Date.class.isAssignableFrom(type))
+        {
+            return SQL_DATE;
+        }
+        else if (java.sql.Time.class.isAssignableFrom(type))
+        {
+            return SQL_TIME;
+        }
+        else if (java.sql.Timestamp.class.isAssignableFrom(type))
+        {
+            return SQL_TIMESTAMP;
+        }
+        else if (Date.class.isAssignableFrom(type))
+        {
+            return DATE;
+        }
+        else if (Calendar.class.isAssignableFrom(type))
+        {
+            return CALENDAR;
+        }
+        else if (Enum.class.isAssignableFrom(type))
+        {
+            return ENUM;
+        }
+        else if (type == byte[].class)
+        {
+            return BYTE_ARRAY;
+        }
+        return OTHER;
+    }
+}
@@ -0,0 +1,241 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.datanucleus.store.schema.table.Table;
+import org.datanucleus.util.Localiser;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Log of the changes made to the rows of a workbook by a transaction, so that the transaction can be rolled back by undoing
+ * the changes in the workbook held in memory, rather than reloading the workbook from the file. While the log has changes the
+ * (shared) workbook isn't written to the file, so the changes of the transaction only reach the file if it commits.
+ * The rows are identified by the identity of their object rather than by row number, since other transactions using the same
+ * (shared) workbook can insert or delete rows, moving the rows of this transaction. A deleted row is restored at the end of the worksheets
+ * of its table, in the same way as an insert (so overflowing onto a further worksheet where its worksheet is now full).
+ */
+public class ExcelUndoLog
+{
+    enum ChangeType
+    {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    static class Change
+    {
+        final ChangeType type;
+        final Table table;
+        final String sheetName;
+        final CellMatcher[] matchers;
+        final RowImage image;
+
+        Change(ChangeType type, Table table, String sheetName, CellMatcher[] matchers, RowImage image)
+        {
+            this.type = type;
+            this.table = table;
+            this.sheetName = sheetName;
+            this.matchers = matchers;
+            this.image = image;
+        }
+    }
+
+    final ExcelStoreManager storeMgr;
+
+    final List<Change> changes = new ArrayList<>();
+
+    public ExcelUndoLog(ExcelStoreManager storeMgr)
+    {
+        this.storeMgr = storeMgr;
+    }
+
+    public boolean isEmpty()
+    {
+        return changes.isEmpty();
+    }
+
+    public void clear()
+    {
+        changes.clear();
+    }
+
+    /**
+     * Method to record the insert of a row.
+     * @param table The table (whose lock is used for all of its worksheets)
+     * @param sheetName Name of the worksheet
+     * @param matchers Matchers for the identity of the object inserted
+     */
+    public void rowInserted(Table table, String sheetName, CellMatcher[] matchers)
+    {
+        changes.add(new Change(ChangeType.INSERT, table, sheetName, matchers, null));
+    }
+
+    /**
+     * Method to record the update of a row.
+     * @param table The table (whose lock is used for all of its worksheets)
+     * @param sheetName Name of the worksheet
+     * @param matchers Matchers for the identity of the object (after the update)
+     * @param image Image of the row before the update
+     */
+    public void rowUpdated(Table table, String sheetName, CellMatcher[] matchers, RowImage image)
+    {
+        changes.add(new Change(ChangeType.UPDATE, table, sheetName, matchers, image));
+    }
+
+    /**
+     * Method to record the delete of a row.
+     * @param table The table (whose lock is used for all of its worksheets)
+     * @param sheetName Name of the worksheet
+     * @param matchers Matchers for the identity of the object deleted
+     * @param image Image of the row before the delete
+     */
+    public void rowDeleted(Table table, String sheetName, CellMatcher[] matchers, RowImage image)
+    {
+        changes.add(new Change(ChangeType.DELETE, table, sheetName, matchers, image));
+    }
+
+    /**
+     * Method to undo the recorded changes in the specified workbook, in the reverse order to which they were made, and clear the log.
+     * @param wb The workbook
+     */
+    public void rollback(Workbook wb)
+    {
+        if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+        {
+            NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("Excel.Rollback.Start", "" + changes.size()));
+        }
+
+        ExcelPersistenceHandler handler = (ExcelPersistenceHandler)storeMgr.getPersistenceHandler();
+        Set<String> sheetNames = new HashSet<>();
+        for (int i=changes.size()-1;i>=0;i--)
+        {
+            Change change = changes.get(i);
+            Sheet sheet = storeMgr.getSheet(wb, change.sheetName);
+            if (sheet == null)
+            {
+                continue;
+            }
+            sheetNames.add(change.sheetName);
+
+            boolean locked = storeMgr.lockSheet(change.table.getName(), true);
+            try
+            {
+                storeMgr.beforeSheetChange(wb, change.sheetName, true);
+                if (change.type == ChangeType.DELETE)
+                {
+                    // Restore the deleted row at the end of the worksheets of the table, as for an insert
+                    Sheet insertSheet = handler.getSheetForInsert(wb, change.table, CellMatcher.getKey(change.matchers));
+                    String insertSheetName = insertSheet.getSheetName();
+                    if (!insertSheetName.equals(change.sheetName))
+                    {
+                        sheetNames.add(insertSheetName);
+                        storeMgr.beforeSheetChange(wb, insertSheetName, true);
+                    }
+                    int rowNum = getRowNumberForAppend(insertSheet);
+                    Row row = (rowNum <= insertSheet.getLastRowNum()) ? insertSheet.getRow(rowNum) : null;
+                    if (row == null)
+                    {
+                        // Create the row even if POI holds one past the last row (left when shifting rows up in an XLS sheet)
+                        row = insertSheet.createRow(rowNum);
+                    }
+                    change.image.restore(row);
+
+                    ExcelIdentityIndex index = storeMgr.getIdentityIndexIfPresent(wb, insertSheetName);
+                    if (index != null && CellMatcher.isKeyable(change.matchers))
+                    {
+                        index.put(CellMatcher.getKey(change.matchers), rowNum);
+                    }
+                }
+                else
+                {
+                    int rowNum = getRowNumber(wb, sheet, change.matchers);
+                    if (rowNum < 0)
+                    {
+                        NucleusLogger.DATASTORE_PERSIST.warn(Localiser.msg("Excel.Rollback.RowNotFound", change.sheetName, change.type));
+                    }
+                    else if (change.type == ChangeType.INSERT)
+                    {
+                        handler.deleteRowsFromSheet(sheet, new int[] {rowNum});
+                    }
+                    else
+                    {
+                        change.image.restore(sheet.getRow(rowNum));
+                    }
+                }
+            }
+            finally
+            {
+                if (locked)
+                {
+                    storeMgr.unlockSheet(change.table.getName(), true);
+                }
+            }
+        }
+
+        for (String sheetName : sheetNames)
+        {
+            // Versions (and any changed identities) held in the identity index, and the statistics, are no longer valid
+            storeMgr.invalidateIdentityIndex(wb, sheetName);
+            storeMgr.invalidateSheetStatistics(wb, sheetName);
+        }
+        changes.clear();
+    }
+
+    private int getRowNumber(Workbook wb, Sheet sheet, CellMatcher[] matchers)
+    {
+        if (CellMatcher.isKeyable(matchers))
+        {
+            return storeMgr.getIdentityIndex(wb, sheet, matchers).getRowNumber(CellMatcher.getKey(matchers));
+        }
+
+        if (sheet.getPhysicalNumberOfRows() > 0)
+        {
+            for (int i=storeMgr.getFirstDataRowNumber(sheet);i<sheet.getLastRowNum()+1;i++)
+            {
+                Row row = sheet.getRow(i);
+                if (row != null && CellMatcher.matchesAll(row, matchers))
+                {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int getRowNumberForAppend(Sheet sheet)
+    {
+        if (sheet.getPhysicalNumberOfRows() == 0)
+        {
+            return 0;
+        }
+
+        // Reuse a trailing row that has had its cells removed (see deletion of the last row of an XLS sheet)
+        int lastRowNum = sheet.getLastRowNum();
+        Row lastRow = sheet.getRow(lastRowNum);
+        return (lastRow == null || lastRow.getPhysicalNumberOfCells() == 0) ? lastRowNum : lastRowNum + 1;
+    }
+}
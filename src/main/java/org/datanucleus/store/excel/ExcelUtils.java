@@ -18,10 +18,12 @@ Contributors:
 package org.datanucleus.store.excel;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
@@ -58,8 +60,20 @@ public class ExcelUtils
      */
     public static Sheet getSheetForClass(DNStateManager sm, Workbook wb, Table table)
     {
-        String sheetName = table.getName();
-        final Sheet sheet = wb.getSheet(sheetName);
+        return getSheetForClass(sm, wb, table.getName());
+    }
+
+    /**
+     * Convenience method to return the specified worksheet of the class of the specified object (e.g an overflow worksheet of its table).
+     * @param sm StateManager for the object
+     * @param wb Workbook
+     * @param sheetName Name of the worksheet
+     * @return The Work Sheet
+     * @throws NucleusDataStoreException if the work sheet doesn't exist in this workbook
+     */
+    public static Sheet getSheetForClass(DNStateManager sm, Workbook wb, String sheetName)
+    {
+        final Sheet sheet = ((ExcelStoreManager)sm.getExecutionContext().getStoreManager()).getSheet(wb, sheetName);
         if (sheet == null)
         {
             throw new NucleusDataStoreException(Localiser.msg("Excel.SheetNotFoundForWorkbook", sheetName, sm.getObjectAsPrintable()));
@@ -78,17 +92,96 @@ public class ExcelUtils
      * @return The row number (or -1 if not found)
      */
     public static int getRowNumberForObjectInWorkbook(DNStateManager sm, Workbook wb, boolean originalValue, Table table)
+    {
+        ExcelStoreManager storeMgr = (ExcelStoreManager)sm.getExecutionContext().getStoreManager();
+        return getRowNumberForObjectInSheet(sm, storeMgr.getSheet(wb, table.getName()), originalValue, table);
+    }
+
+    /**
+     * Convenience method to find the row number of an object in the provided worksheet of its table (see {@link #getRowNumberForObjectInWorkbook}).
+     * @param sm StateManager for the object
+     * @param sheet The worksheet (can be null)
+     * @param originalValue Use the original value of the identifiying fields if available (for when we are updating and using nondurable identity).
+     * @param table The table representing this worksheet
+     * @return The row number (or -1 if not found)
+     */
+    public static int getRowNumberForObjectInSheet(DNStateManager sm, Sheet sheet, boolean originalValue, Table table)
+    {
+        if (sheet == null || sheet.getPhysicalNumberOfRows() == 0)
+        {
+            return -1;
+        }
+
+        // Resolve the column types and values once, so the scan is just a switch per cell
+        CellMatcher[] matchers = getIdentityMatchersForObject(sm, originalValue, table);
+        int firstRowNum = ((ExcelStoreManager)sm.getExecutionContext().getStoreManager()).getFirstDataRowNumber(sheet);
+        for (int i=firstRowNum; i<sheet.getLastRowNum()+1; i++)
+        {
+            Row row = sheet.getRow(i);
+            if (row != null && CellMatcher.matchesAll(row, matchers))
+            {
+                // Found the object with the correct identity values so return
+                return row.getRowNum();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Convenience method to scan the specified sheet once and return the row number for each identity present.
+     * The identity columns (and their types) are those of the provided matchers, which must all be keyable.
+     * Where an identity appears in more than one row, the first row is returned (as for {@link #getRowNumberForObjectInWorkbook}).
+     * @param sheet The worksheet (can be null)
+     * @param firstRowNum Number of the first row of the sheet holding objects (i.e after any header row)
+     * @param matchers Matchers for the identity of (any) object stored in this sheet
+     * @return Map of row number, keyed by the identity key (see {@link CellMatcher#getKey(CellMatcher[])})
+     */
+    public static Map<Object, Integer> getRowNumbersByKey(Sheet sheet, int firstRowNum, CellMatcher[] matchers)
+    {
+        Map<Object, Integer> rowNumbersByKey = new HashMap<>();
+        if (sheet != null && sheet.getPhysicalNumberOfRows() > 0)
+        {
+            for (int i=firstRowNum; i<sheet.getLastRowNum()+1; i++)
+            {
+                Row row = sheet.getRow(i);
+                if (row != null)
+                {
+                    Object key = CellMatcher.getKeyForRow(row, matchers);
+                    if (key != null)
+                    {
+                        rowNumbersByKey.putIfAbsent(key, row.getRowNum());
+                    }
+                }
+            }
+        }
+        return rowNumbersByKey;
+    }
+
+    /**
+     * Convenience method to return matchers for the cells that identify the specified object in its worksheet.
+     * For application-identity this is the PK column(s), for datastore-identity the datastore id column,
+     * and for nondurable identity all non-relation columns.
+     * @param sm StateManager for the object
+     * @param originalValue Use the original value of the identifiying fields if available (for when we are updating and using nondurable identity).
+     * @param table The table representing this worksheet
+     * @return The matchers
+     */
+    public static CellMatcher[] getIdentityMatchersForObject(DNStateManager sm, boolean originalValue, Table table)
     {
         final AbstractClassMetaData cmd = sm.getClassMetaData();
+        ExecutionContext ec = sm.getExecutionContext();
+        if (cmd.getIdentityType() == IdentityType.DATASTORE)
+        {
+            int datastoreIdColNo = table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getPosition();
+            Object key = IdentityUtils.getTargetKeyForDatastoreIdentity(sm.getInternalObjectId());
+            return new CellMatcher[] {new CellMatcher(datastoreIdColNo, key.getClass(), key)};
+        }
+
+        List<CellMatcher> matchers = new ArrayList<>();
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
         if (cmd.getIdentityType() == IdentityType.APPLICATION)
         {
-            ExecutionContext ec = sm.getExecutionContext();
-            ClassLoaderResolver clr = ec.getClassLoaderResolver();
             int[] pkFieldNumbers = cmd.getPKMemberPositions();
-
-            List<Integer> pkFieldColList = new ArrayList(pkFieldNumbers.length);
-            List pkFieldValList = new ArrayList(pkFieldNumbers.length);
-            List<Class> pkFieldTypeList = new ArrayList(pkFieldNumbers.length);
             for (int i=0;i<pkFieldNumbers.length;i++)
             {
                 Object fieldValue = sm.provideField(pkFieldNumbers[i]);
@@ -111,86 +204,30 @@ public class ExcelUtils
                         embMmds.add(mmd);
                         embMmds.add(embMmd);
                         MemberColumnMapping mapping = table.getMemberColumnMappingForEmbeddedMember(embMmds);
-                        pkFieldColList.add(mapping.getColumn(0).getPosition());
+                        int colNumber = mapping.getColumn(0).getPosition();
                         if (mapping.getTypeConverter() != null)
                         {
-                            pkFieldValList.add(mapping.getTypeConverter().toDatastoreType(embSM.provideField(j)));
-                            pkFieldTypeList.add(ec.getTypeManager().getDatastoreTypeForTypeConverter(mapping.getTypeConverter(), embMmd.getType()));
+                            matchers.add(new CellMatcher(colNumber, ec.getTypeManager().getDatastoreTypeForTypeConverter(mapping.getTypeConverter(), embMmd.getType()),
+                                mapping.getTypeConverter().toDatastoreType(embSM.provideField(j))));
                         }
                         else
                         {
-                            pkFieldValList.add(embSM.provideField(j));
-                            pkFieldTypeList.add(embMmd.getType());
+                            matchers.add(new CellMatcher(colNumber, embMmd.getType(), embSM.provideField(j)));
                         }
                     }
                 }
                 else
                 {
                     MemberColumnMapping mapping = table.getMemberColumnMappingForMember(mmd);
-                    pkFieldColList.add(mapping.getColumn(0).getPosition());
+                    int colNumber = mapping.getColumn(0).getPosition();
                     if (mapping.getTypeConverter() != null)
                     {
-                        pkFieldValList.add(mapping.getTypeConverter().toDatastoreType(fieldValue));
-                        pkFieldTypeList.add(ec.getTypeManager().getDatastoreTypeForTypeConverter(mapping.getTypeConverter(), mmd.getType()));
+                        matchers.add(new CellMatcher(colNumber, ec.getTypeManager().getDatastoreTypeForTypeConverter(mapping.getTypeConverter(), mmd.getType()),
+                            mapping.getTypeConverter().toDatastoreType(fieldValue)));
                     }
                     else
                     {
-                        pkFieldValList.add(fieldValue);
-                        pkFieldTypeList.add(mmd.getType());
-                    }
-                }
-            }
-
-            String sheetName = table.getName();
-            final Sheet sheet = wb.getSheet(sheetName);
-            if (sheet != null && sheet.getPhysicalNumberOfRows() > 0)
-            {
-                for (int i=sheet.getFirstRowNum(); i<sheet.getLastRowNum()+1; i++)
-                {
-                    Row row = sheet.getRow(i);
-                    if (row != null)
-                    {
-                        boolean matches = true;
-
-                        for (int j=0;j<pkFieldColList.size();j++)
-                        {
-                            int colNumber = pkFieldColList.get(j);
-                            Object fieldValue = pkFieldValList.get(j);
-                            Class fieldType = pkFieldTypeList.get(j);
-                            Cell cell = row.getCell(colNumber);
-                            if (!cellMatches(cell, fieldType, fieldValue))
-                            {
-                                matches = false;
-                                break;
-                            }
-                        }
-                        if (matches)
-                        {
-                            // Found the object with the correct PK values so return
-                            return row.getRowNum();
-                        }
-                    }
-                }
-            }
-        }
-        else if (cmd.getIdentityType() == IdentityType.DATASTORE)
-        {
-            String sheetName = table.getName();
-            final Sheet sheet = wb.getSheet(sheetName);
-            int datastoreIdColNo = table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getPosition();
-            Object key = IdentityUtils.getTargetKeyForDatastoreIdentity(sm.getInternalObjectId());
-            if (sheet != null)
-            {
-                for (int i=0; i<sheet.getLastRowNum()+1; i++)
-                {
-                    Row row = sheet.getRow(i);
-                    if (row != null)
-                    {
-                        Cell cell = row.getCell(datastoreIdColNo);
-                        if (cell != null && cellMatches(cell, key.getClass(), key))
-                        {
-                            return row.getRowNum();
-                        }
+                        matchers.add(new CellMatcher(colNumber, mmd.getType(), fieldValue));
                     }
                 }
             }
@@ -198,13 +235,7 @@ public class ExcelUtils
         else
         {
             // Nondurable, so compare all applicable fields
-            ExecutionContext ec = sm.getExecutionContext();
-            ClassLoaderResolver clr = ec.getClassLoaderResolver();
             int[] fieldNumbers = cmd.getAllMemberPositions();
-
-            List<Integer> fieldColList = new ArrayList(fieldNumbers.length);
-            List<Class> fieldTypeList = new ArrayList(fieldNumbers.length);
-            List fieldValList = new ArrayList(fieldNumbers.length);
             for (int i=0;i<fieldNumbers.length;i++)
             {
                 AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumbers[i]);
@@ -234,7 +265,7 @@ public class ExcelUtils
                     {
                         embSM = ec.getNucleusContext().getStateManagerFactory().newForEmbedded(ec, fieldValue, false, sm, fieldNumbers[i], PersistableObjectType.EMBEDDED_PC);
                     }
-                    AbstractClassMetaData embCmd = sm.getExecutionContext().getMetaDataManager().getMetaDataForClass(mmd.getType(), clr);
+                    AbstractClassMetaData embCmd = ec.getMetaDataManager().getMetaDataForClass(mmd.getType(), clr);
                     for (int j=0;j<embCmd.getNoOfManagedMembers();j++)
                     {
                         // TODO Support nested embedded
@@ -242,53 +273,40 @@ public class ExcelUtils
                         List<AbstractMemberMetaData> embMmds = new ArrayList();
                         embMmds.add(mmd);
                         embMmds.add(embMmd);
-                        fieldColList.add(table.getMemberColumnMappingForEmbeddedMember(embMmds).getColumn(0).getPosition());
-                        fieldTypeList.add(embMmd.getType());
-                        fieldValList.add(embSM.provideField(j));
+                        matchers.add(new CellMatcher(table.getMemberColumnMappingForEmbeddedMember(embMmds).getColumn(0).getPosition(),
+                            embMmd.getType(), embSM.provideField(j)));
                     }
                 }
                 else if (relationType == RelationType.NONE)
                 {
-                    fieldColList.add(table.getMemberColumnMappingForMember(mmd).getColumn(0).getPosition());
-                    fieldTypeList.add(mmd.getType());
-                    fieldValList.add(fieldValue);
+                    matchers.add(new CellMatcher(table.getMemberColumnMappingForMember(mmd).getColumn(0).getPosition(), mmd.getType(), fieldValue));
                 }
             }
+        }
+        return matchers.toArray(new CellMatcher[matchers.size()]);
+    }
 
-            String sheetName = table.getName();
-            final Sheet sheet = wb.getSheet(sheetName);
-            if (sheet != null && sheet.getPhysicalNumberOfRows() > 0)
-            {
-                for (int i=sheet.getFirstRowNum(); i<sheet.getLastRowNum()+1; i++)
-                {
-                    Row row = sheet.getRow(i);
-                    if (row != null)
-                    {
-                        boolean matches = true;
-
-                        for (int j=0;j<fieldColList.size();j++)
-                        {
-                            int colNumber = fieldColList.get(j);
-                            Class fieldType = fieldTypeList.get(j);
-                            Object fieldValue = fieldValList.get(j);
-
-                            Cell cell = row.getCell(colNumber);
-                            if (!cellMatches(cell, fieldType, fieldValue))
-                            {
-                                matches = false;
-                                break;
-                            }
-                        }
-                        if (matches)
-                        {
-                            // Found the object with the correct PK values so return
-                            return row.getRowNum();
-                        }
-                    }
-                }
-            }
+    /**
+     * Convenience method to return the column number that is populated for every active row of the specified class.
+     * This is the (first) PK column for application-identity, the datastore id column for datastore-identity, and the first
+     * column for nondurable identity.
+     * @param cmd Metadata for the class
+     * @param table The table representing the worksheet
+     * @return The column number
+     */
+    public static int getIdentityColumnNumber(AbstractClassMetaData cmd, Table table)
+    {
+        if (cmd.getIdentityType() == IdentityType.APPLICATION)
+        {
+            int[] pkFieldNums = cmd.getPKMemberPositions();
+            AbstractMemberMetaData pkMmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(pkFieldNums[0]);
+            return table.getMemberColumnMappingForMember(pkMmd).getColumn(0).getPosition();
         }
-        return -1;
+        else if (cmd.getIdentityType() == IdentityType.DATASTORE)
+        {
+            return table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getPosition();
+        }
+        return 0;
     }
 
     /**
@@ -304,48 +322,23 @@ public class ExcelUtils
         {
             return false;
         }
+        return new CellMatcher(cell.getColumnIndex(), fieldType, fieldValue).matches(cell);
+    }
 
-        if (String.class.isAssignableFrom(fieldType) && cell.getRichStringCellValue().getString().equals(fieldValue))
-        {
-            return true;
-        }
-        else if ((fieldType == int.class || fieldType == Integer.class) && ((Integer)fieldValue).intValue() == (int)cell.getNumericCellValue())
-        {
-            return true;
-        }
-        else if ((fieldType == long.class || fieldType == Long.class) && ((Long)fieldValue).longValue() == (long)cell.getNumericCellValue())
-        {
-            return true;
-        }
-        else if ((fieldType == short.class || fieldType == Short.class) && ((Short)fieldValue).shortValue() == (short)cell.getNumericCellValue())
-        {
-            return true;
-        }
-        else if ((fieldType == float.class || fieldType == Float.class) && ((Float)fieldValue).floatValue() == (float)cell.getNumericCellValue())
-        {
-            return true;
-        }
-        else if ((fieldType == double.class || fieldType == Double.class) && ((Double)fieldValue).doubleValue() == cell.getNumericCellValue())
-        {
-            return true;
-        }
-        else if ((fieldType == boolean.class || fieldType == Boolean.class) && ((Boolean)fieldValue).booleanValue() == cell.getBooleanCellValue())
-        {
-            return true;
-        }
-        else if ((fieldType == byte.class || fieldType == Byte.class) && ((Byte)fieldValue).byteValue() == (byte)cell.getNumericCellValue())
-        {
-            return true;
-        }
-        else if ((fieldType == char.class || fieldType == Character.class) && ((Character)fieldValue).charValue() == cell.getRichStringCellValue().getString().charAt(0))
-        {
-            return true;
-        }
-        else if ((Date.class.isAssignableFrom(fieldType) && ((Date)fieldValue).getTime() == cell.getDateCellValue().getTime()))
+    /**
+     * Convenience method to set a String value in a cell.
+     * The string is added to the shared string table of the workbook, which is common to all of its worksheets, so this is done holding
+     * the monitor of the workbook, for the case of a shared workbook changed by a thread already reading another sheet (see {@link SharedWorkbook}).
+     * @param cell The cell
+     * @param value The value
+     */
+    public static void setStringCellValue(Cell cell, String value)
+    {
+        Workbook wb = cell.getSheet().getWorkbook();
+        synchronized (wb)
         {
-            return true;
+            cell.setCellValue(wb.getCreationHelper().createRichTextString(value));
         }
-        return false;
     }
 
     /**
@@ -353,88 +346,104 @@ public class ExcelUtils
      * This takes into account the fact that it seems to be impossible (with Apache POI 3.0.2)
      * to delete rows from a sheet. Consequently what we do is leave the row but delete
      * all cells. When returning the number of rows this ignores rows that have no cells.
+     * Any header row is included (so the result is the number of the row after the last object).
      * @param sm StateManager for the object
      * @param wb Workbook
      * @return Number of (active) rows (or 0 if no active rows)
      */
     public static int getNumberOfRowsInSheetOfWorkbook(DNStateManager sm, Workbook wb)
     {
-        int numRows = 0;
+        ExcelStoreManager storeMgr = (ExcelStoreManager)sm.getExecutionContext().getStoreManager();
+        Table table = storeMgr.getStoreDataForClass(sm.getClassMetaData().getFullClassName()).getTable();
+        return getNumberOfRowsInSheet(sm, storeMgr.getSheet(wb, table.getName()));
+    }
+
+    /**
+     * Convenience method to find the number of (active) rows in the provided worksheet of the table of the specified object
+     * (see {@link #getNumberOfRowsInSheetOfWorkbook}).
+     * @param sm StateManager for the object
+     * @param sheet The worksheet (can be null)
+     * @return Number of (active) rows (or 0 if no active rows)
+     */
+    public static int getNumberOfRowsInSheet(DNStateManager sm, Sheet sheet)
+    {
+        if (sheet == null || sheet.getPhysicalNumberOfRows() == 0)
+        {
+            return 0;
+        }
 
-        final AbstractClassMetaData cmd = sm.getClassMetaData();
-        Table table = sm.getExecutionContext().getStoreManager().getStoreDataForClass(sm.getClassMetaData().getFullClassName()).getTable();
-        String sheetName = table.getName();
-        final Sheet sheet = wb.getSheet(sheetName);
+        ExcelStoreManager storeMgr = (ExcelStoreManager)sm.getExecutionContext().getStoreManager();
+        Table table = storeMgr.getStoreDataForClass(sm.getClassMetaData().getFullClassName()).getTable();
+        SheetStatistics stats = getSheetStatistics(storeMgr, sm.getClassMetaData(), sheet, table);
+        int firstDataRowNum = storeMgr.getFirstDataRowNumber(sheet);
+        return stats.getActiveRows() + (firstDataRowNum > sheet.getFirstRowNum() ? 1 : 0);
+    }
+
+    /**
+     * Accessor for the statistics of the provided worksheet of the table of a class, counting the active rows of the sheet (and finding the
+     * maximum identity) if they aren't known or are no longer valid. Apache POI returns a cell as null if not active, so an active row
+     * is one with the identity cell(s) present.
+     * The caller should hold (at least) a read lock on the sheet.
+     * @param storeMgr StoreManager
+     * @param cmd Metadata for the class
+     * @param sheet The worksheet
+     * @param table The table
+     * @return The statistics
+     */
+    public static SheetStatistics getSheetStatistics(ExcelStoreManager storeMgr, AbstractClassMetaData cmd, Sheet sheet, Table table)
+    {
+        Workbook wb = sheet.getWorkbook();
+        SheetStatistics stats = storeMgr.getSheetStatistics(wb, sheet, table);
+        if (stats != null)
+        {
+            return stats;
+        }
+
+        int[] colNumbers;
         if (cmd.getIdentityType() == IdentityType.APPLICATION)
         {
             int[] pkFieldNumbers = cmd.getPKMemberPositions();
-            Object[] pkFieldValues = new Object[pkFieldNumbers.length];
+            colNumbers = new int[pkFieldNumbers.length];
             for (int i=0;i<pkFieldNumbers.length;i++)
             {
-                pkFieldValues[i] = sm.provideField(pkFieldNumbers[i]);
-            }
-
-            if (sheet != null && sheet.getPhysicalNumberOfRows() > 0)
-            {
-                for (int i=sheet.getFirstRowNum(); i<sheet.getLastRowNum()+1; i++)
-                {
-                    Row row = sheet.getRow(i);
-                    if (row != null)
-                    {
-                        boolean validRow = true;
-                        for (int j=0;j<pkFieldNumbers.length;j++)
-                        {
-                            AbstractMemberMetaData pkMmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(pkFieldNumbers[j]);
-                            int colNumber = table.getMemberColumnMappingForMember(pkMmd).getColumn(0).getPosition();
-                            Cell cell = row.getCell(colNumber);
-                            if (cell == null)
-                            {
-                                // Valid row. Apache POI would return cell as null if not active
-                                validRow = false;
-                            }
-                        }
-                        if (validRow)
-                        {
-                            numRows++;
-                        }
-                    }
-                }
+                AbstractMemberMetaData pkMmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(pkFieldNumbers[i]);
+                colNumbers[i] = table.getMemberColumnMappingForMember(pkMmd).getColumn(0).getPosition();
             }
         }
-        else if (cmd.getIdentityType() == IdentityType.DATASTORE)
+        else
         {
-            if (sheet != null && sheet.getPhysicalNumberOfRows() > 0)
-            {
-                int datastoreIdColNumber = table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getPosition();
-                for (int i=sheet.getFirstRowNum(); i<sheet.getLastRowNum()+1; i++)
-                {
-                    Row rrow = sheet.getRow(i);
-                    Cell cell = rrow.getCell(datastoreIdColNumber);
-                    if (cell != null)
-                    {
-                        // Valid row. Apache POI would return cell as null if not active
-                        numRows++;
-                    }
-                }
-            }
+            colNumbers = new int[] {getIdentityColumnNumber(cmd, table)}; // First cell when no identity as such
         }
-        else
+
+        int activeRows = 0;
+        long maxId = Long.MIN_VALUE;
+        if (sheet.getPhysicalNumberOfRows() > 0)
         {
-            if (sheet != null && sheet.getPhysicalNumberOfRows() > 0)
+            for (int i=storeMgr.getFirstDataRowNumber(sheet); i<sheet.getLastRowNum()+1; i++)
             {
-                for (int i=sheet.getFirstRowNum(); i<sheet.getLastRowNum()+1; i++)
+                Row row = sheet.getRow(i);
+                if (row != null)
                 {
-                    Row rrow = sheet.getRow(i);
-                    Cell cell = rrow.getCell(0); // Use first cell since no identity as such
-                    if (cell != null)
+                    boolean validRow = true;
+                    for (int j=0;j<colNumbers.length && validRow;j++)
+                    {
+                        validRow = (row.getCell(colNumbers[j]) != null);
+                    }
+                    if (validRow)
                     {
-                        // Valid row. Apache POI would return cell as null if not active
-                        numRows++;
+                        activeRows++;
+                        Cell idCell = row.getCell(colNumbers[0]);
+                        if (idCell.getCellType() == CellType.NUMERIC)
+                        {
+                            maxId = Math.max(maxId, (long)idCell.getNumericCellValue());
+                        }
                     }
                 }
             }
         }
 
-        return numRows;
+        stats = new SheetStatistics(SheetStatistics.getSchemaHash(table), activeRows, maxId, colNumbers[0], sheet);
+        storeMgr.putSheetStatistics(wb, sheet.getSheetName(), stats);
+        return stats;
     }
-}
\ No newline at end of file
+}
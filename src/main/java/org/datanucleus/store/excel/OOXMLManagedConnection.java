@@ -19,17 +19,19 @@ package org.datanucleus.store.excel;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 /**
  * Managed Connection for OOXML.
  */
 public class OOXMLManagedConnection extends AbstractExcelManagedConnection
 {
-    public OOXMLManagedConnection(String filename)
+    public OOXMLManagedConnection(ExcelStoreManager storeMgr, String filename, SharedWorkbook sharedWorkbook)
     {
-        super(filename);
+        super(storeMgr, filename, sharedWorkbook);
     }
 
     /* (non-Javadoc)
@@ -47,6 +49,27 @@ public class OOXMLManagedConnection extends AbstractExcelManagedConnection
     @Override
     protected Workbook getWorkbook(InputStream is) throws IOException
     {
+        if (storeMgr.getBooleanProperty(ExcelStoreManager.PROPERTY_LAZY_SHEETS))
+        {
+            // Parse each worksheet on first use
+            return OOXMLSheetLoader.readWorkbook(is, storeMgr);
+        }
         return new org.apache.poi.xssf.usermodel.XSSFWorkbook(is);
     }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.excel.AbstractExcelManagedConnection#writeWorkbook(org.apache.poi.ss.usermodel.Workbook, java.io.OutputStream)
+     */
+    @Override
+    protected void writeWorkbook(Workbook wb, OutputStream os) throws IOException
+    {
+        OOXMLSheetLoader loader = storeMgr.getSheetLoader(wb);
+        if (loader != null)
+        {
+            // Copy the original content of any worksheet not parsed
+            loader.write((XSSFWorkbook)wb, os);
+            return;
+        }
+        super.writeWorkbook(wb, os);
+    }
 }
\ No newline at end of file
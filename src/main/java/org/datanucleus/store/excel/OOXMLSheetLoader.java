@@ -0,0 +1,271 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.poi.Version;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.util.Localiser;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Loader of the worksheets of an OOXML workbook on first use, so that a workbook with many worksheets can be opened without parsing
+ * the worksheets that aren't used. When the workbook is read, the workbook part, shared strings, styles etc are parsed as normal, but the
+ * content of each worksheet part is replaced by an empty worksheet (retaining the original content). The original content of a worksheet is
+ * parsed when it is first accessed via {@link ExcelStoreManager#getSheet(org.apache.poi.ss.usermodel.Workbook, String)}, and the original
+ * content of any worksheet never accessed is copied, unparsed, into the file when the workbook is written.
+ * <p>
+ * Apache POI has no API to parse a worksheet after the workbook has been read, so the (protected) method used by POI when reading the
+ * workbook is invoked on the worksheet. This is only done with the versions of POI that it is known to work with (see {@link #POI_VERSION_PREFIX}),
+ * otherwise the workbook is read in full. Some worksheets are always parsed when the workbook is read :-
+ * <ul>
+ * <li>Worksheets with pivot tables, since these are registered with the workbook.</li>
+ * <li>Worksheets with formulas, since a formula can refer to another worksheet, and when rows of a worksheet are shifted (on deleting
+ *     an object) POI only updates the references in the formulas of worksheets that have been parsed.</li>
+ * </ul>
+ */
+public class OOXMLSheetLoader
+{
+    /** Content of an empty worksheet, used in place of a worksheet not yet parsed. */
+    static final byte[] EMPTY_SHEET =
+        "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData/></worksheet>".getBytes(StandardCharsets.UTF_8);
+
+    /** Prefix of the versions of Apache POI whose worksheets can be parsed after the workbook has been read. */
+    static final String POI_VERSION_PREFIX = "5.";
+
+    /** Pattern for a formula element in the XML of a worksheet. */
+    private static final Pattern FORMULA_PATTERN = Pattern.compile("<([A-Za-z0-9_]+:)?f[\\s/>]");
+
+    private static final Method READ_METHOD = getReadMethod();
+
+    /** Original content of each worksheet not yet parsed. */
+    final Map<XSSFSheet, byte[]> unloadedSheets = new IdentityHashMap<>();
+
+    private OOXMLSheetLoader()
+    {
+    }
+
+    private static Method getReadMethod()
+    {
+        String poiVersion = Version.getVersion();
+        if (poiVersion == null || !poiVersion.startsWith(POI_VERSION_PREFIX))
+        {
+            NucleusLogger.DATASTORE.warn(Localiser.msg("Excel.LazySheets.Unavailable", "Apache POI v" + poiVersion));
+            return null;
+        }
+        try
+        {
+            Method method = XSSFSheet.class.getDeclaredMethod("read", InputStream.class);
+            method.setAccessible(true);
+            return method;
+        }
+        catch (Exception e)
+        {
+            NucleusLogger.DATASTORE.warn(Localiser.msg("Excel.LazySheets.Unavailable", e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Method to read a workbook from the provided stream, leaving its worksheets to be parsed when first used.
+     * @param is The stream
+     * @param storeMgr StoreManager, with which the loader of the worksheets is registered
+     * @return The workbook
+     * @throws IOException if an error occurs reading the workbook
+     */
+    public static XSSFWorkbook readWorkbook(InputStream is, ExcelStoreManager storeMgr) throws IOException
+    {
+        if (READ_METHOD == null)
+        {
+            return new XSSFWorkbook(is);
+        }
+
+        OPCPackage pkg = null;
+        try
+        {
+            pkg = OPCPackage.open(is);
+            Map<String, byte[]> originalContents = new HashMap<>();
+            for (PackagePart part : pkg.getPartsByContentType(XSSFRelation.WORKSHEET.getContentType()))
+            {
+                if (part.getRelationshipsByType(XSSFRelation.PIVOT_TABLE.getRelation()).size() > 0)
+                {
+                    continue;
+                }
+
+                byte[] content;
+                try (InputStream partStream = part.getInputStream())
+                {
+                    content = IOUtils.toByteArray(partStream);
+                }
+                if (hasFormulas(content))
+                {
+                    continue;
+                }
+                try (OutputStream partStream = part.getOutputStream())
+                {
+                    partStream.write(EMPTY_SHEET);
+                }
+                originalContents.put(part.getPartName().getName(), content);
+            }
+
+            XSSFWorkbook wb = new XSSFWorkbook(pkg);
+            OOXMLSheetLoader loader = new OOXMLSheetLoader();
+            for (Sheet sheet : wb)
+            {
+                XSSFSheet xssfSheet = (XSSFSheet)sheet;
+                byte[] content = originalContents.get(xssfSheet.getPackagePart().getPartName().getName());
+                if (content != null)
+                {
+                    loader.unloadedSheets.put(xssfSheet, content);
+                }
+            }
+            storeMgr.setSheetLoader(wb, loader);
+            return wb;
+        }
+        catch (InvalidFormatException e)
+        {
+            if (pkg != null)
+            {
+                pkg.revert();
+            }
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Convenience method to return whether the XML of a worksheet has any formulas.
+     * @param content The XML of the worksheet
+     * @return Whether it has a formula
+     */
+    private static boolean hasFormulas(byte[] content)
+    {
+        // Element names are ASCII, so any single-byte decoding will do
+        return FORMULA_PATTERN.matcher(new String(content, StandardCharsets.ISO_8859_1)).find();
+    }
+
+    /**
+     * Accessor for whether the specified worksheet has been parsed.
+     * @param sheet The worksheet
+     * @return Whether parsed
+     */
+    public synchronized boolean isLoaded(Sheet sheet)
+    {
+        return !unloadedSheets.containsKey(sheet);
+    }
+
+    /**
+     * Method to parse the original content of the specified worksheet, if not yet done.
+     * @param sheet The worksheet
+     */
+    public synchronized void loadSheet(Sheet sheet)
+    {
+        byte[] content = unloadedSheets.get(sheet);
+        if (content == null)
+        {
+            return;
+        }
+
+        if (NucleusLogger.DATASTORE.isDebugEnabled())
+        {
+            NucleusLogger.DATASTORE.debug(Localiser.msg("Excel.LazySheets.Load", sheet.getSheetName(), "" + content.length));
+        }
+        try
+        {
+            READ_METHOD.invoke(sheet, new ByteArrayInputStream(content));
+        }
+        catch (IllegalAccessException | InvocationTargetException e)
+        {
+            Throwable cause = (e instanceof InvocationTargetException) ? e.getCause() : e;
+            throw new NucleusDataStoreException(Localiser.msg("Excel.LazySheets.LoadFailed", sheet.getSheetName(), cause.getMessage()), cause);
+        }
+        unloadedSheets.remove(sheet);
+    }
+
+    /**
+     * Method to write the workbook to the provided stream, with the original content of each worksheet not yet parsed.
+     * The stream is not closed.
+     * @param wb The workbook
+     * @param os The stream
+     * @throws IOException if an error occurs writing the workbook
+     */
+    public synchronized void write(XSSFWorkbook wb, OutputStream os) throws IOException
+    {
+        // Content of each worksheet not yet parsed, keyed by the name of its zip entry
+        Map<String, byte[]> contentsByEntry = new HashMap<>();
+        for (Sheet sheet : wb)
+        {
+            byte[] content = unloadedSheets.get(sheet);
+            if (content != null)
+            {
+                contentsByEntry.put(((XSSFSheet)sheet).getPackagePart().getPartName().getName().substring(1), content);
+            }
+        }
+        if (contentsByEntry.isEmpty())
+        {
+            wb.write(os);
+            return;
+        }
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        wb.write(written);
+
+        ZipOutputStream zipOut = new ZipOutputStream(os);
+        try (ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(written.toByteArray())))
+        {
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null)
+            {
+                zipOut.putNextEntry(new ZipEntry(entry.getName()));
+                byte[] content = contentsByEntry.get(entry.getName());
+                if (content != null)
+                {
+                    zipOut.write(content);
+                }
+                else
+                {
+                    IOUtils.copy(zipIn, zipOut);
+                }
+                zipOut.closeEntry();
+            }
+        }
+        zipOut.finish();
+    }
+}
@@ -0,0 +1,142 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+
+/**
+ * Copy of the cell values (and styles) of a row of a worksheet, so that the row can later be restored to these values.
+ * Formula cells are copied as their cached result.
+ */
+public class RowImage
+{
+    final int[] columns;
+
+    final CellType[] types;
+
+    final Object[] values;
+
+    final CellStyle[] styles;
+
+    /**
+     * Constructor, copying the cells of the specified row.
+     * @param row The row (or null for an empty row)
+     */
+    public RowImage(Row row)
+    {
+        List<Cell> cells = new ArrayList<>();
+        if (row != null)
+        {
+            for (Cell cell : row)
+            {
+                cells.add(cell);
+            }
+        }
+
+        int numCells = cells.size();
+        columns = new int[numCells];
+        types = new CellType[numCells];
+        values = new Object[numCells];
+        styles = new CellStyle[numCells];
+        for (int i=0;i<numCells;i++)
+        {
+            Cell cell = cells.get(i);
+            CellType cellType = cell.getCellType();
+            if (cellType == CellType.FORMULA)
+            {
+                cellType = cell.getCachedFormulaResultType();
+            }
+            columns[i] = cell.getColumnIndex();
+            types[i] = cellType;
+            styles[i] = cell.getCellStyle();
+            switch (cellType)
+            {
+                case STRING:
+                    values[i] = cell.getRichStringCellValue().getString();
+                    break;
+                case NUMERIC:
+                    values[i] = cell.getNumericCellValue();
+                    break;
+                case BOOLEAN:
+                    values[i] = cell.getBooleanCellValue();
+                    break;
+                case ERROR:
+                    values[i] = cell.getErrorCellValue();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        return columns.length == 0;
+    }
+
+    /**
+     * Method to restore the specified row to the cells of this image, removing any other cells.
+     * @param row The row
+     */
+    public void restore(Row row)
+    {
+        Iterator<Cell> cellIter = row.cellIterator();
+        List<Cell> cells = new ArrayList<>();
+        while (cellIter.hasNext())
+        {
+            cells.add(cellIter.next());
+        }
+        for (Cell cell : cells)
+        {
+            row.removeCell(cell);
+        }
+
+        for (int i=0;i<columns.length;i++)
+        {
+            Cell cell = row.createCell(columns[i]);
+            switch (types[i])
+            {
+                case STRING:
+                    ExcelUtils.setStringCellValue(cell, (String)values[i]);
+                    break;
+                case NUMERIC:
+                    cell.setCellValue((Double)values[i]);
+                    break;
+                case BOOLEAN:
+                    cell.setCellValue((Boolean)values[i]);
+                    break;
+                case ERROR:
+                    cell.setCellErrorValue((Byte)values[i]);
+                    break;
+                default:
+                    break;
+            }
+            if (styles[i] != null)
+            {
+                cell.setCellStyle(styles[i]);
+            }
+        }
+    }
+}
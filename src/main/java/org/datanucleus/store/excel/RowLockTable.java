@@ -0,0 +1,150 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.identity.IdentityUtils;
+import org.datanucleus.util.Localiser;
+
+/**
+ * Table of the rows of a shared workbook that are locked pessimistically (JDO serializeRead, JPA PESSIMISTIC_READ/WRITE).
+ * A row is identified by its worksheet and the identity of its object, and is locked by an owner (the ManagedConnection of the
+ * transaction) until the owner releases all of its locks at the end of the transaction. A row locked by one owner can't be locked
+ * by, nor changed by, another owner until released; a waiting owner fails after the lock timeout (so a deadlock is broken).
+ * A row being changed is also claimed by its owner for the duration of the change (see {@link #claimRow(String, Object, Object)}),
+ * so another owner can't lock it pessimistically between the check and the change.
+ */
+public class RowLockTable
+{
+    final long lockTimeout;
+
+    /** Owner of each locked row, keyed by row key. */
+    final Map<String, Object> ownersByRow = new HashMap<>();
+
+    /** Keys of the rows locked by each owner. */
+    final Map<Object, Set<String>> rowsByOwner = new HashMap<>();
+
+    /**
+     * Constructor.
+     * @param lockTimeout Timeout (millisecs) when waiting for a row lock
+     */
+    public RowLockTable(long lockTimeout)
+    {
+        this.lockTimeout = lockTimeout;
+    }
+
+    /**
+     * Method to lock the row of the specified object, waiting for any other owner to release it.
+     * @param sheetName Name of the worksheet
+     * @param id Identity of the object
+     * @param owner The owner of the lock
+     * @throws NucleusDataStoreException if the row is still locked by another owner after the timeout
+     */
+    public synchronized void lockRow(String sheetName, Object id, Object owner)
+    {
+        String rowKey = getRowKey(sheetName, id);
+        waitForRow(rowKey, owner);
+        ownersByRow.putIfAbsent(rowKey, owner);
+        rowsByOwner.computeIfAbsent(owner, k -> new HashSet<>()).add(rowKey);
+    }
+
+    /**
+     * Method to claim the row of the specified object for a change, waiting for any other owner to release it.
+     * While claimed no other owner can lock the row. Where this returns true the claim must be released (after the change)
+     * by calling {@link #releaseRow(String, Object, Object)}.
+     * @param sheetName Name of the worksheet
+     * @param id Identity of the object
+     * @param owner The owner changing the row
+     * @return Whether the row was claimed (false if the owner already holds it, e.g locked pessimistically)
+     * @throws NucleusDataStoreException if the row is still locked by another owner after the timeout
+     */
+    public synchronized boolean claimRow(String sheetName, Object id, Object owner)
+    {
+        String rowKey = getRowKey(sheetName, id);
+        waitForRow(rowKey, owner);
+        return ownersByRow.putIfAbsent(rowKey, owner) == null;
+    }
+
+    /**
+     * Method to release the claim on the row of the specified object, taken by {@link #claimRow(String, Object, Object)}.
+     * Where the owner has since locked the row pessimistically, it stays locked until {@link #unlockRows(Object)}.
+     * @param sheetName Name of the worksheet
+     * @param id Identity of the object
+     * @param owner The owner changing the row
+     */
+    public synchronized void releaseRow(String sheetName, Object id, Object owner)
+    {
+        String rowKey = getRowKey(sheetName, id);
+        Set<String> lockedRows = rowsByOwner.get(owner);
+        if ((lockedRows == null || !lockedRows.contains(rowKey)) && ownersByRow.remove(rowKey, owner))
+        {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Method to release all row locks of the specified owner.
+     * @param owner The owner
+     */
+    public synchronized void unlockRows(Object owner)
+    {
+        Set<String> rowKeys = rowsByOwner.remove(owner);
+        if (rowKeys != null)
+        {
+            for (String rowKey : rowKeys)
+            {
+                ownersByRow.remove(rowKey);
+            }
+            notifyAll();
+        }
+    }
+
+    private void waitForRow(String rowKey, Object owner)
+    {
+        long deadline = System.currentTimeMillis() + lockTimeout;
+        Object rowOwner = ownersByRow.get(rowKey);
+        while (rowOwner != null && rowOwner != owner)
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+            {
+                throw new NucleusDataStoreException(Localiser.msg("Excel.RowLock.Timeout", rowKey, "" + lockTimeout));
+            }
+            try
+            {
+                wait(remaining);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new NucleusDataStoreException(Localiser.msg("Excel.RowLock.Timeout", rowKey, "" + lockTimeout), e);
+            }
+            rowOwner = ownersByRow.get(rowKey);
+        }
+    }
+
+    private static String getRowKey(String sheetName, Object id)
+    {
+        return sheetName + ":" + IdentityUtils.getPersistableIdentityForId(id);
+    }
+}
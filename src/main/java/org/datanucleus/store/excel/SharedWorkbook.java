@@ -0,0 +1,410 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.util.Localiser;
+
+/**
+ * Holder for a Workbook that is shared by all connections of a StoreManager (persistence property "datanucleus.excel.sharedWorkbook").
+ * Access to the workbook is coordinated using locks :-
+ * <ul>
+ * <li>Each worksheet has its own read-write lock. Operations reading a sheet (fetch, locate, query) take its read lock, so can run
+ *     in parallel, and operations changing a sheet (insert, update, delete) take its write lock.</li>
+ * <li>The workbook has a read-write lock. An operation reading a sheet holds its read lock, whereas an operation changing a sheet,
+ *     creating/removing a sheet and writing the workbook to file take its write lock, so don't overlap with any other sheet operation.</li>
+ * </ul>
+ * In addition a transaction can lock individual rows pessimistically (see {@link RowLockTable}), held until the end of the transaction.
+ * Locks are acquired with a timeout so that two threads that lock sheets in opposite order fail rather than waiting forever.
+ * Note that POI objects are not thread-safe, so all access to a shared workbook must be done holding the appropriate lock.
+ * <p>
+ * Readers of sheets run in parallel, but a change to a sheet excludes all other sheet operations, even on other sheets, since a sheet write
+ * changes structures of the workbook that are common to its sheets (the shared string table, and the references updated when rows are
+ * shifted) and that readers of other sheets use. The one exception is a change made by a thread that is already reading a sheet (e.g
+ * from a callback while fetching an object), since the lock of the workbook can't be upgraded; that change only takes the write lock of
+ * its sheet, so is only serialised with other such changes (holding the monitor of the Workbook, see {@link ExcelUtils#setStringCellValue})
+ * and not with readers of other sheets.
+ * Writing the workbook to file is the only step coordinated across all sheets. The workbook keeps a count of changes made to it, so
+ * that when several connections release at the same time the first writes the changes of all of them, and the others have nothing
+ * left to write.
+ * <p>
+ * All transactions change this same workbook, so a transaction sees the changes of other transactions before they commit, i.e the
+ * isolation level is <i>read-uncommitted</i>. The file only ever holds committed changes though: while any transaction has uncommitted
+ * changes in the workbook (recorded in its {@link ExcelUndoLog}) the workbook isn't written, and the write of the changes committed in
+ * the meantime is left to the end (commit or rollback) of the last such transaction. A long-running transaction therefore delays the
+ * write of the changes committed by others.
+ */
+public class SharedWorkbook
+{
+    /** The workbook, loaded by the first connection to use it. */
+    Workbook workbook;
+
+    /** Last modified time of the file when last read/written by us. */
+    long fileModified;
+
+    /** Length of the file when last read/written by us. */
+    long fileLength;
+
+    /** Number of connections currently using the workbook. */
+    int numberOfConnections = 0;
+
+    /** Count of changes made to the workbook. */
+    final AtomicLong changeCount = new AtomicLong();
+
+    /** Count of changes made to the workbook when it was last written to (or read from) file. */
+    volatile long writtenChangeCount = 0;
+
+    /** Count of changes made to the workbook when changes were last committed (by a transaction or non-transactional operation). */
+    volatile long committedChangeCount = 0;
+
+    /** Undo logs of the connections using the workbook, holding the uncommitted changes of their transactions. */
+    final Set<ExcelUndoLog> undoLogs = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    final long lockTimeout;
+
+    final ReentrantReadWriteLock workbookLock = new ReentrantReadWriteLock();
+
+    final Map<String, ReentrantReadWriteLock> sheetLocks = new ConcurrentHashMap<>();
+
+    /** Rows locked pessimistically by transactions. */
+    final RowLockTable rowLocks;
+
+    /**
+     * Constructor.
+     * @param lockTimeout Timeout (millisecs) when acquiring a lock
+     */
+    public SharedWorkbook(long lockTimeout)
+    {
+        this.lockTimeout = lockTimeout;
+        this.rowLocks = new RowLockTable(lockTimeout);
+    }
+
+    public RowLockTable getRowLockTable()
+    {
+        return rowLocks;
+    }
+
+    public synchronized Workbook getWorkbook()
+    {
+        return workbook;
+    }
+
+    public synchronized void setWorkbook(Workbook wb)
+    {
+        this.workbook = wb;
+    }
+
+    /**
+     * Method to record the last modified time and length of the file, as read or written by us.
+     * @param file The file
+     */
+    public synchronized void setFileStamp(File file)
+    {
+        fileModified = file.lastModified();
+        fileLength = file.length();
+    }
+
+    /**
+     * Accessor for whether the file has been changed (by another process) since we last read or wrote it.
+     * @param file The file
+     * @return Whether it has changed
+     */
+    public synchronized boolean isFileChanged(File file)
+    {
+        return file.lastModified() != fileModified || file.length() != fileLength;
+    }
+
+    public synchronized int getNumberOfConnections()
+    {
+        return numberOfConnections;
+    }
+
+    /**
+     * Method to register a connection now using the workbook.
+     * @param undoLog Undo log of the connection
+     */
+    public synchronized void connectionOpened(ExcelUndoLog undoLog)
+    {
+        numberOfConnections++;
+        undoLogs.add(undoLog);
+    }
+
+    /**
+     * Method to deregister a connection no longer using the workbook.
+     * @param undoLog Undo log of the connection
+     */
+    public synchronized void connectionClosed(ExcelUndoLog undoLog)
+    {
+        numberOfConnections--;
+        undoLogs.remove(undoLog);
+    }
+
+    /**
+     * Accessor for whether any transaction has uncommitted changes in the workbook.
+     * Must be called holding the workbook lock, so that no transaction can be part way through a change.
+     * @return Whether there are uncommitted changes
+     */
+    public boolean hasUncommittedChanges()
+    {
+        synchronized (undoLogs)
+        {
+            for (ExcelUndoLog undoLog : undoLogs)
+            {
+                if (!undoLog.isEmpty())
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to record a change to the workbook, to be written to file.
+     */
+    public void workbookChanged()
+    {
+        changeCount.incrementAndGet();
+    }
+
+    public long getChangeCount()
+    {
+        return changeCount.get();
+    }
+
+    /**
+     * Method to record that the changes made so far by a transaction (or non-transactional operation) are committed, so are to be
+     * written to file.
+     */
+    public void changesCommitted()
+    {
+        committedChangeCount = changeCount.get();
+    }
+
+    /**
+     * Accessor for the count of changes made to the workbook when changes were last committed.
+     * @return The count of changes (see {@link #getChangeCount()})
+     */
+    public long getCommittedChangeCount()
+    {
+        return committedChangeCount;
+    }
+
+    /**
+     * Accessor for whether the specified number of changes have been written to file.
+     * @param count Count of changes (as returned by {@link #getChangeCount()})
+     * @return Whether the file includes these changes
+     */
+    public boolean isWrittenSince(long count)
+    {
+        return writtenChangeCount >= count;
+    }
+
+    /**
+     * Method to record that the workbook has been written to (or read from) file, so the file holds all changes made so far.
+     * Must be called holding the workbook lock, so no change can be made part way through the write.
+     */
+    public void workbookWritten()
+    {
+        writtenChangeCount = changeCount.get();
+    }
+
+    /**
+     * Accessor for whether the current thread holds a lock on the workbook (i.e is within a sheet operation or workbook write).
+     * @return Whether a lock is held
+     */
+    public boolean isLockedByCurrentThread()
+    {
+        return workbookLock.getReadHoldCount() > 0 || workbookLock.isWriteLockedByCurrentThread();
+    }
+
+    /**
+     * Method to lock the specified sheet for reading or writing.
+     * Must be paired with a call to {@link #unlockSheet(String, boolean)}.
+     * @param sheetName Name of the sheet
+     * @param write Whether we are writing to the sheet
+     * @throws NucleusDataStoreException if the lock couldn't be obtained within the timeout
+     */
+    public void lockSheet(String sheetName, boolean write)
+    {
+        Lock lock = getWorkbookLockForSheet(write);
+        acquire(lock, sheetName);
+        ReentrantReadWriteLock sheetLock = getLockForSheet(sheetName);
+        try
+        {
+            acquire(write ? sheetLock.writeLock() : sheetLock.readLock(), sheetName);
+        }
+        catch (RuntimeException e)
+        {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Method to release the lock on the specified sheet.
+     * @param sheetName Name of the sheet
+     * @param write Whether we were writing to the sheet
+     */
+    public void unlockSheet(String sheetName, boolean write)
+    {
+        ReentrantReadWriteLock sheetLock = getLockForSheet(sheetName);
+        if (write)
+        {
+            sheetLock.writeLock().unlock();
+        }
+        else
+        {
+            sheetLock.readLock().unlock();
+        }
+        getWorkbookLockForSheet(write).unlock();
+    }
+
+    /**
+     * Accessor for the lock of the workbook to hold for an operation on a sheet. This is the write lock when changing a sheet, unless
+     * the current thread is already reading a sheet (so only holds the read lock), in which case it is the read lock.
+     * Gives the same lock when releasing the sheet as when locking it, since operations on sheets are nested.
+     * @param write Whether we are writing to the sheet
+     * @return The lock
+     */
+    private Lock getWorkbookLockForSheet(boolean write)
+    {
+        if (write && (workbookLock.getReadHoldCount() == 0 || workbookLock.isWriteLockedByCurrentThread()))
+        {
+            return workbookLock.writeLock();
+        }
+        return workbookLock.readLock();
+    }
+
+    /**
+     * Method to lock the whole workbook, for a change to its structure or for writing it to file.
+     * If the current thread is already within a sheet operation then the lock can't be upgraded (or is already held), so returns false.
+     * @return Whether the lock was obtained (and so {@link #unlockWorkbook()} must be called)
+     * @throws NucleusDataStoreException if the lock couldn't be obtained within the timeout
+     */
+    public boolean lockWorkbook()
+    {
+        if (workbookLock.getReadHoldCount() > 0 || workbookLock.isWriteLockedByCurrentThread())
+        {
+            return false;
+        }
+        acquire(workbookLock.writeLock(), null);
+        return true;
+    }
+
+    public void unlockWorkbook()
+    {
+        workbookLock.writeLock().unlock();
+    }
+
+    /**
+     * Method to create the specified sheet (if not already present), locking the workbook while doing so.
+     * @param sheetName Name of the sheet
+     * @return The sheet
+     */
+    public Sheet createSheet(String sheetName)
+    {
+        boolean locked = lockWorkbook();
+        try
+        {
+            synchronized (this)
+            {
+                // Current thread may be within a sheet operation, so also serialise with other structural changes
+                Sheet sheet = workbook.getSheet(sheetName);
+                if (sheet == null)
+                {
+                    sheet = workbook.createSheet(sheetName);
+                    workbookChanged();
+                }
+                return sheet;
+            }
+        }
+        finally
+        {
+            if (locked)
+            {
+                unlockWorkbook();
+            }
+        }
+    }
+
+    /**
+     * Method to remove the specified sheet (if present), locking the workbook while doing so.
+     * @param sheetName Name of the sheet
+     * @return Whether the sheet was present
+     */
+    public boolean removeSheet(String sheetName)
+    {
+        boolean locked = lockWorkbook();
+        try
+        {
+            synchronized (this)
+            {
+                int sheetIndex = workbook.getSheetIndex(sheetName);
+                if (sheetIndex < 0)
+                {
+                    return false;
+                }
+                workbook.removeSheetAt(sheetIndex);
+                workbookChanged();
+                return true;
+            }
+        }
+        finally
+        {
+            if (locked)
+            {
+                unlockWorkbook();
+            }
+        }
+    }
+
+    protected ReentrantReadWriteLock getLockForSheet(String sheetName)
+    {
+        return sheetLocks.computeIfAbsent(sheetName, k -> new ReentrantReadWriteLock());
+    }
+
+    private void acquire(Lock lock, String sheetName)
+    {
+        try
+        {
+            if (!lock.tryLock(lockTimeout, TimeUnit.MILLISECONDS))
+            {
+                throw new NucleusDataStoreException(Localiser.msg("Excel.Lock.Timeout", (sheetName != null ? sheetName : "(workbook)"), "" + lockTimeout));
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new NucleusDataStoreException(Localiser.msg("Excel.Lock.Timeout", (sheetName != null ? sheetName : "(workbook)"), "" + lockTimeout), e);
+        }
+    }
+}
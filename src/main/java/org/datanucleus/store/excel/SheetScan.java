@@ -0,0 +1,123 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * Scan of the rows of a worksheet, returning the rows that satisfy a filter, in row order.
+ * A large sheet is split into chunks of rows that are scanned in parallel on the common ForkJoinPool, and the rows of the chunks
+ * are then merged. The sheet must not be changed during the scan, so the caller should hold (at least) a read lock on the sheet
+ * (or be the only user of the workbook), and the filter must only read the rows.
+ */
+public class SheetScan extends RecursiveTask<List<Row>>
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Number of rows of a sheet from which it is scanned in parallel. */
+    public static final int PARALLEL_THRESHOLD = 20000;
+
+    final transient Sheet sheet;
+
+    final int start;
+
+    final int end;
+
+    final int chunkSize;
+
+    final transient Predicate<Row> filter;
+
+    /**
+     * Method to return the rows of the specified worksheet that satisfy the filter.
+     * @param sheet The worksheet
+     * @param filter The filter
+     * @return The rows, in row order
+     */
+    public static List<Row> scan(Sheet sheet, Predicate<Row> filter)
+    {
+        return scan(sheet, sheet.getFirstRowNum(), filter);
+    }
+
+    /**
+     * Method to return the rows of the specified worksheet, from the specified row, that satisfy the filter.
+     * @param sheet The worksheet
+     * @param firstRowNum Number of the first row to scan (e.g after a header row)
+     * @param filter The filter
+     * @return The rows, in row order
+     */
+    public static List<Row> scan(Sheet sheet, int firstRowNum, Predicate<Row> filter)
+    {
+        if (sheet.getPhysicalNumberOfRows() == 0 || firstRowNum > sheet.getLastRowNum())
+        {
+            return new ArrayList<>();
+        }
+
+        int numRows = sheet.getLastRowNum() - firstRowNum + 1;
+        if (numRows < PARALLEL_THRESHOLD)
+        {
+            return new SheetScan(sheet, firstRowNum, firstRowNum + numRows, numRows, filter).compute();
+        }
+
+        // Split into a few chunks per thread, so threads that finish early can take work from the others
+        int chunkSize = Math.max(PARALLEL_THRESHOLD / 4, numRows / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        return ForkJoinPool.commonPool().invoke(new SheetScan(sheet, firstRowNum, firstRowNum + numRows, chunkSize, filter));
+    }
+
+    SheetScan(Sheet sheet, int start, int end, int chunkSize, Predicate<Row> filter)
+    {
+        this.sheet = sheet;
+        this.start = start;
+        this.end = end;
+        this.chunkSize = chunkSize;
+        this.filter = filter;
+    }
+
+    @Override
+    protected List<Row> compute()
+    {
+        if (end - start <= chunkSize)
+        {
+            List<Row> rows = new ArrayList<>();
+            for (int i=start;i<end;i++)
+            {
+                Row row = sheet.getRow(i);
+                if (row != null && filter.test(row))
+                {
+                    rows.add(row);
+                }
+            }
+            return rows;
+        }
+
+        int mid = (start + end) >>> 1;
+        SheetScan first = new SheetScan(sheet, start, mid, chunkSize, filter);
+        SheetScan second = new SheetScan(sheet, mid, end, chunkSize, filter);
+        first.fork();
+        List<Row> secondRows = second.compute();
+        List<Row> rows = first.join();
+        rows.addAll(secondRows);
+        return rows;
+    }
+}
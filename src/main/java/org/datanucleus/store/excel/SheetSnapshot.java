@@ -0,0 +1,161 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.io.IOException;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.datanucleus.exceptions.NucleusDataStoreException;
+
+/**
+ * Immutable view of the active rows of a worksheet, as at a particular modification epoch of that sheet.
+ * The snapshot initially refers to the live rows of the sheet. Before any existing row of the sheet is updated or removed, the
+ * snapshot is given its own copy of the rows (copy-on-write, see {@link ExcelStoreManager#beforeSheetChange(Workbook, String, boolean)}),
+ * so the rows seen via the snapshot, and their positions, don't change for the life of the snapshot.
+ */
+public class SheetSnapshot
+{
+    final String sheetName;
+
+    final long epoch;
+
+    /** The worksheet holding the rows; the live sheet until copied, and then a sheet of a private workbook. */
+    Sheet sheet;
+
+    /** The active rows, in order. */
+    Row[] rows;
+
+    boolean copied = false;
+
+    /**
+     * Constructor.
+     * @param sheet The live worksheet
+     * @param rows The active rows of the sheet
+     * @param epoch Modification epoch of the sheet when the rows were taken
+     */
+    public SheetSnapshot(Sheet sheet, Row[] rows, long epoch)
+    {
+        this.sheetName = sheet.getSheetName();
+        this.sheet = sheet;
+        this.rows = rows;
+        this.epoch = epoch;
+    }
+
+    public String getSheetName()
+    {
+        return sheetName;
+    }
+
+    public long getEpoch()
+    {
+        return epoch;
+    }
+
+    public int size()
+    {
+        return rows.length;
+    }
+
+    /**
+     * Accessor for the worksheet to read the rows of this snapshot from.
+     * @return The worksheet
+     */
+    public synchronized Sheet getSheet()
+    {
+        return sheet;
+    }
+
+    /**
+     * Accessor for the number, in {@link #getSheet()}, of the row at the specified position of this snapshot.
+     * @param index Position in the snapshot
+     * @return The row number
+     */
+    public synchronized int getRowNumber(int index)
+    {
+        return rows[index].getRowNum();
+    }
+
+    public synchronized boolean isCopied()
+    {
+        return copied;
+    }
+
+    /**
+     * Method to take a copy of the cell values of the rows of this snapshot, so that the live sheet can be changed.
+     * The copied rows are held in a sheet of a private workbook of the same format.
+     */
+    synchronized void copyRows()
+    {
+        if (copied)
+        {
+            return;
+        }
+
+        Workbook copyWb = null;
+        try
+        {
+            copyWb = WorkbookFactory.create(!(sheet.getWorkbook() instanceof HSSFWorkbook));
+        }
+        catch (IOException e)
+        {
+            throw new NucleusDataStoreException(e.getMessage(), e);
+        }
+        Sheet copySheet = copyWb.createSheet(sheetName);
+        Row[] copyRows = new Row[rows.length];
+        for (int i=0;i<rows.length;i++)
+        {
+            copyRows[i] = copySheet.createRow(i);
+            for (Cell cell : rows[i])
+            {
+                Cell copyCell = copyRows[i].createCell(cell.getColumnIndex());
+                CellType cellType = cell.getCellType();
+                if (cellType == CellType.FORMULA)
+                {
+                    cellType = cell.getCachedFormulaResultType();
+                }
+                switch (cellType)
+                {
+                    case STRING:
+                        copyCell.setCellValue(cell.getRichStringCellValue().getString());
+                        break;
+                    case NUMERIC:
+                        copyCell.setCellValue(cell.getNumericCellValue());
+                        break;
+                    case BOOLEAN:
+                        copyCell.setCellValue(cell.getBooleanCellValue());
+                        break;
+                    case ERROR:
+                        copyCell.setCellErrorValue(cell.getErrorCellValue());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        this.sheet = copySheet;
+        this.rows = copyRows;
+        this.copied = true;
+    }
+}
@@ -0,0 +1,325 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.datanucleus.store.schema.table.Column;
+import org.datanucleus.store.schema.table.Table;
+
+/**
+ * Statistics of a worksheet holding objects of a class, namely the number of active rows (rows holding an object, so excluding any
+ * header row) and the maximum numeric value in the identity column, so that these don't need a pass over the sheet each time they are needed.
+ * They are maintained as rows are inserted and deleted, and are persisted in the system worksheet of the workbook (see {@link ExcelMetaSheet}).
+ * The statistics are only valid while the sheet has the layout (last row number, number of physical rows) recorded with them, so any other
+ * change to the sheet (e.g by a rollback, or by editing the file in Excel) means that they are recalculated. Statistics read from the file
+ * also record a hash of the identity column (see {@link #getContentHash(Sheet, int)}), checked against the sheet when first used, since
+ * another tool can change the values of cells without changing the layout.
+ */
+public class SheetStatistics
+{
+    /** Hash of the columns of the table when the statistics were taken. */
+    final String schemaHash;
+
+    int activeRows;
+
+    /** Maximum numeric value in the identity column, or Long.MIN_VALUE if none. */
+    long maxId;
+
+    int lastRowNum;
+
+    int physicalRows;
+
+    /** Number of the (first) identity column, whose values the content hash is taken of. */
+    final int idColNumber;
+
+    /** Hash of the identity column when the statistics were persisted (null if not yet persisted). */
+    String contentHash;
+
+    /** Whether the statistics are known to be for the current content of the sheet (rather than just read from the file). */
+    boolean contentVerified;
+
+    /** Whether the statistics are known to be for the current columns of the table (rather than just read from the file). */
+    boolean schemaVerified;
+
+    /** Number of the checkpoint at which the sheet was last found changed (see {@link ExcelMetaSheet}). */
+    long modificationEpoch;
+
+    /** Modification epoch of the sheet (see {@link ExcelStoreManager#getSheetEpoch}) when last persisted. */
+    long sheetEpoch;
+
+    /**
+     * Constructor for statistics calculated from the specified worksheet.
+     * @param schemaHash Hash of the columns of the table (see {@link #getSchemaHash(Table)})
+     * @param activeRows Number of active rows
+     * @param maxId Maximum numeric value in the identity column (Long.MIN_VALUE if none)
+     * @param idColNumber Number of the (first) identity column
+     * @param sheet The worksheet
+     */
+    public SheetStatistics(String schemaHash, int activeRows, long maxId, int idColNumber, Sheet sheet)
+    {
+        this.schemaHash = schemaHash;
+        this.activeRows = activeRows;
+        this.maxId = maxId;
+        this.idColNumber = idColNumber;
+        this.schemaVerified = true;
+        this.contentVerified = true;
+        this.sheetEpoch = -1;
+        recordLayout(sheet);
+    }
+
+    /**
+     * Constructor for statistics read from the system worksheet.
+     * @param schemaHash Hash of the columns of the table when the statistics were taken
+     * @param activeRows Number of active rows
+     * @param maxId Maximum numeric value in the identity column (Long.MIN_VALUE if none)
+     * @param lastRowNum Last row number of the sheet
+     * @param physicalRows Number of physical rows of the sheet
+     * @param modificationEpoch Number of the checkpoint at which the sheet was last changed
+     * @param idColNumber Number of the (first) identity column
+     * @param contentHash Hash of the identity column when the statistics were taken
+     */
+    public SheetStatistics(String schemaHash, int activeRows, long maxId, int lastRowNum, int physicalRows, long modificationEpoch,
+            int idColNumber, String contentHash)
+    {
+        this.schemaHash = schemaHash;
+        this.activeRows = activeRows;
+        this.maxId = maxId;
+        this.lastRowNum = lastRowNum;
+        this.physicalRows = physicalRows;
+        this.modificationEpoch = modificationEpoch;
+        this.idColNumber = idColNumber;
+        this.contentHash = contentHash;
+        this.schemaVerified = false;
+        this.contentVerified = false;
+    }
+
+    /**
+     * Accessor for a hash of the values of the specified column of all rows of a worksheet (including any header row), used to check that
+     * statistics read from the file are for the current content of the sheet.
+     * @param sheet The worksheet
+     * @param colNumber Number of the column
+     * @return The hash
+     */
+    public static String getContentHash(Sheet sheet, int colNumber)
+    {
+        long hash = 17;
+        if (sheet.getPhysicalNumberOfRows() > 0)
+        {
+            for (int i=sheet.getFirstRowNum(); i<sheet.getLastRowNum()+1; i++)
+            {
+                Row row = sheet.getRow(i);
+                Cell cell = (row != null) ? row.getCell(colNumber) : null;
+                if (cell != null)
+                {
+                    long valueHash;
+                    switch (cell.getCellType())
+                    {
+                        case NUMERIC:
+                            valueHash = Double.doubleToLongBits(cell.getNumericCellValue());
+                            break;
+                        case STRING:
+                            valueHash = cell.getStringCellValue().hashCode();
+                            break;
+                        case BOOLEAN:
+                            valueHash = cell.getBooleanCellValue() ? 1231 : 1237;
+                            break;
+                        default:
+                            valueHash = cell.getCellType().ordinal();
+                            break;
+                    }
+                    hash = 31 * (31 * hash + i) + valueHash;
+                }
+            }
+        }
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * Accessor for a hash of the names and positions of the columns of a table, used to check that statistics read from the file were
+     * taken with the current columns.
+     * @param table The table
+     * @return The hash
+     */
+    public static String getSchemaHash(Table table)
+    {
+        StringBuilder str = new StringBuilder();
+        for (Column col : table.getColumns())
+        {
+            str.append(col.getName()).append(':').append(col.getPosition()).append(';');
+        }
+        return Integer.toHexString(str.toString().hashCode());
+    }
+
+    public String getSchemaHash()
+    {
+        return schemaHash;
+    }
+
+    public synchronized int getActiveRows()
+    {
+        return activeRows;
+    }
+
+    public synchronized long getMaxId()
+    {
+        return maxId;
+    }
+
+    public synchronized int getLastRowNum()
+    {
+        return lastRowNum;
+    }
+
+    public synchronized int getPhysicalRows()
+    {
+        return physicalRows;
+    }
+
+    public int getIdColumnNumber()
+    {
+        return idColNumber;
+    }
+
+    /**
+     * Method to check whether these statistics are valid for the specified worksheet of the specified table.
+     * Statistics read from the file are checked against the content of the sheet the first time (see {@link #matchesContent(Sheet)}).
+     * @param sheet The worksheet
+     * @param table The table (or null if the columns aren't to be checked)
+     * @return Whether valid
+     */
+    public synchronized boolean isValidFor(Sheet sheet, Table table)
+    {
+        if (!matchesLayout(sheet))
+        {
+            return false;
+        }
+        if (!schemaVerified && table != null)
+        {
+            if (!schemaHash.equals(getSchemaHash(table)))
+            {
+                return false;
+            }
+            schemaVerified = true;
+        }
+        return matchesContent(sheet);
+    }
+
+    /**
+     * Method to check whether the specified worksheet still has the content recorded with these statistics (see
+     * {@link #getContentHash(Sheet, int)}). Only statistics read from the file need checking, and then only once.
+     * @param sheet The worksheet
+     * @return Whether the content is the same
+     */
+    public synchronized boolean matchesContent(Sheet sheet)
+    {
+        if (!contentVerified)
+        {
+            if (contentHash == null || !contentHash.equals(getContentHash(sheet, idColNumber)))
+            {
+                return false;
+            }
+            contentVerified = true;
+        }
+        return true;
+    }
+
+    /**
+     * Method to take the hash of the identity column of the specified worksheet, when persisting the statistics.
+     * @param sheet The worksheet
+     * @return The hash
+     */
+    synchronized String checkpointContent(Sheet sheet)
+    {
+        contentHash = getContentHash(sheet, idColNumber);
+        return contentHash;
+    }
+
+    synchronized String getContentHash()
+    {
+        return contentHash;
+    }
+
+    /**
+     * Method to check whether the specified worksheet still has the layout recorded with these statistics.
+     * @param sheet The worksheet
+     * @return Whether the layout is the same
+     */
+    public synchronized boolean matchesLayout(Sheet sheet)
+    {
+        return sheet.getLastRowNum() == lastRowNum && sheet.getPhysicalNumberOfRows() == physicalRows;
+    }
+
+    /**
+     * Method to update the statistics for a row that has been added to the sheet.
+     * @param sheet The worksheet (after adding the row)
+     * @param idCell Cell of the identity column of the row (or null)
+     */
+    public synchronized void rowAdded(Sheet sheet, Cell idCell)
+    {
+        activeRows++;
+        if (idCell != null && idCell.getCellType() == CellType.NUMERIC)
+        {
+            maxId = Math.max(maxId, (long)idCell.getNumericCellValue());
+        }
+        recordLayout(sheet);
+    }
+
+    /**
+     * Method to update the statistics for rows that have been removed from the sheet.
+     * The maximum identity is left as it was, so remains an upper bound.
+     * @param sheet The worksheet (after removing the rows)
+     * @param numRows Number of rows removed
+     */
+    public synchronized void rowsRemoved(Sheet sheet, int numRows)
+    {
+        activeRows = Math.max(activeRows - numRows, 0);
+        recordLayout(sheet);
+    }
+
+    /**
+     * Method to record the modification epoch of the sheet when persisting the statistics, moving the modification epoch of the
+     * statistics on to the specified checkpoint if the sheet has changed since they were last persisted.
+     * @param currentSheetEpoch Current modification epoch of the sheet
+     * @param checkpoint Number of the checkpoint
+     * @return The modification epoch to persist
+     */
+    synchronized long checkpoint(long currentSheetEpoch, long checkpoint)
+    {
+        if (sheetEpoch != currentSheetEpoch)
+        {
+            sheetEpoch = currentSheetEpoch;
+            modificationEpoch = checkpoint;
+        }
+        return modificationEpoch;
+    }
+
+    private void recordLayout(Sheet sheet)
+    {
+        this.lastRowNum = sheet.getLastRowNum();
+        this.physicalRows = sheet.getPhysicalNumberOfRows();
+    }
+
+    public String toString()
+    {
+        return "SheetStatistics[activeRows=" + activeRows + " maxId=" + (maxId == Long.MIN_VALUE ? "" : "" + maxId) + " lastRow=" + lastRowNum +
+            " physicalRows=" + physicalRows + " schema=" + schemaHash + "]";
+    }
+}
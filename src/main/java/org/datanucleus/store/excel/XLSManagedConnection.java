@@ -27,9 +27,9 @@ import org.apache.poi.ss.usermodel.Workbook;
  */
 public class XLSManagedConnection extends AbstractExcelManagedConnection
 {
-    public XLSManagedConnection(String filename)
+    public XLSManagedConnection(ExcelStoreManager storeMgr, String filename, SharedWorkbook sharedWorkbook)
     {
-        super(filename);
+        super(storeMgr, filename, sharedWorkbook);
     }
 
     /* (non-Javadoc)
@@ -48,6 +48,7 @@ import org.datanucleus.metadata.JdbcType;
 import org.datanucleus.metadata.MetaDataUtils;
 import org.datanucleus.metadata.RelationType;
 import org.datanucleus.state.DNStateManager;
+import org.datanucleus.store.excel.ExcelTypeCode;
 import org.datanucleus.store.fieldmanager.AbstractFetchFieldManager;
 import org.datanucleus.store.fieldmanager.FieldManager;
 import org.datanucleus.store.query.QueryUtils;
@@ -692,116 +693,90 @@ public class FetchFieldManager extends AbstractFetchFieldManager
     {
         AbstractMemberMetaData mmd = mapping.getMemberMetaData();
 
-        if (Date.class.isAssignableFrom(requiredType))
+        switch (ExcelTypeCode.forType(requiredType))
         {
-            Date date = cell.getDateCellValue();
-            if (date == null)
+            case ExcelTypeCode.DATE:
             {
-                return null;
+                return cell.getDateCellValue();
             }
-
-            Object value = date;
-            if (requiredType == java.sql.Date.class)
+            case ExcelTypeCode.SQL_DATE:
             {
-                value = new java.sql.Date(date.getTime());
+                Date date = cell.getDateCellValue();
+                return (date != null) ? new java.sql.Date(date.getTime()) : null;
             }
-            else if (requiredType == java.sql.Time.class)
+            case ExcelTypeCode.SQL_TIME:
             {
-                value = new java.sql.Time(date.getTime());
+                Date date = cell.getDateCellValue();
+                return (date != null) ? new java.sql.Time(date.getTime()) : null;
             }
-            else if (requiredType == java.sql.Timestamp.class)
+            case ExcelTypeCode.SQL_TIMESTAMP:
             {
-                value = new java.sql.Timestamp(date.getTime());
+                Date date = cell.getDateCellValue();
+                return (date != null) ? new java.sql.Timestamp(date.getTime()) : null;
             }
-            return value;
-        }
-        else if (Calendar.class.isAssignableFrom(requiredType))
-        {
-            Date date = cell.getDateCellValue();
-            if (date == null)
+            case ExcelTypeCode.CALENDAR:
             {
-                return null;
-            }
+                Date date = cell.getDateCellValue();
+                if (date == null)
+                {
+                    return null;
+                }
 
-            Calendar cal = Calendar.getInstance();
-            cal.setTime(date);
-            return cal;
-        }
-        else if (Boolean.class.isAssignableFrom(requiredType))
-        {
-            boolean boolValue = cell.getBooleanCellValue();
-            return Boolean.valueOf(boolValue);
-        }
-        else if (String.class.isAssignableFrom(requiredType))
-        {
-            return cell.getRichStringCellValue().getString();
-        }
-        else if (Character.class.isAssignableFrom(requiredType))
-        {
-            String strValue = cell.getRichStringCellValue().getString();
-            return Character.valueOf(strValue.charAt(0));
-        }
-        else if (Number.class.isAssignableFrom(requiredType))
-        {
-            double val = cell.getNumericCellValue();
-            if (Double.class.isAssignableFrom(requiredType))
-            {
-                return Double.valueOf(val);
-            }
-            else if (Float.class.isAssignableFrom(requiredType))
-            {
-                return Float.valueOf((float)val);
-            }
-            else if (Integer.class.isAssignableFrom(requiredType))
-            {
-                return Integer.valueOf((int)val);
-            }
-            else if (Long.class.isAssignableFrom(requiredType))
-            {
-                return Long.valueOf((long)val);
-            }
-            else if (Short.class.isAssignableFrom(requiredType))
-            {
-                return Short.valueOf((short)val);
+                Calendar cal = Calendar.getInstance();
+                cal.setTime(date);
+                return cal;
             }
-            else if (Byte.class.isAssignableFrom(requiredType))
+            case ExcelTypeCode.BOOLEAN:
+                return Boolean.valueOf(cell.getBooleanCellValue());
+            case ExcelTypeCode.STRING:
+                return cell.getRichStringCellValue().getString();
+            case ExcelTypeCode.CHARACTER:
+                return Character.valueOf(cell.getRichStringCellValue().getString().charAt(0));
+            case ExcelTypeCode.DOUBLE:
+                return Double.valueOf(cell.getNumericCellValue());
+            case ExcelTypeCode.FLOAT:
+                return Float.valueOf((float)cell.getNumericCellValue());
+            case ExcelTypeCode.INTEGER:
+                return Integer.valueOf((int)cell.getNumericCellValue());
+            case ExcelTypeCode.LONG:
+                return Long.valueOf((long)cell.getNumericCellValue());
+            case ExcelTypeCode.SHORT:
+                return Short.valueOf((short)cell.getNumericCellValue());
+            case ExcelTypeCode.BYTE:
+                return Byte.valueOf((byte)cell.getNumericCellValue());
+            case ExcelTypeCode.BIGDECIMAL:
+                return new BigDecimal(cell.getNumericCellValue());
+            case ExcelTypeCode.BIGINTEGER:
+                return new BigInteger("" + (Double.valueOf(cell.getNumericCellValue()).longValue()));
+            case ExcelTypeCode.ENUM:
             {
-                return Byte.valueOf((byte)val);
-            }
-            else if (BigDecimal.class.isAssignableFrom(requiredType))
-            {
-                return new BigDecimal(val);
-            }
-            else if (BigInteger.class.isAssignableFrom(requiredType))
-            {
-                return new BigInteger("" + (Double.valueOf(val).longValue()));
-            }
-        }
-        else if (Enum.class.isAssignableFrom(requiredType))
-        {
-            JdbcType enumJdbcType = MetaDataUtils.getJdbcTypeForEnum(mmd, FieldRole.ROLE_FIELD, ec.getClassLoaderResolver());
-            Object datastoreValue = null;
-            if (MetaDataUtils.isJdbcTypeNumeric(enumJdbcType))
-            {
-                datastoreValue = cell.getNumericCellValue();
-            }
-            else
-            {
-                datastoreValue = cell.getRichStringCellValue().getString();
-            }
-            if (datastoreValue == null)
-            {
-                return null;
+                JdbcType enumJdbcType = MetaDataUtils.getJdbcTypeForEnum(mmd, FieldRole.ROLE_FIELD, ec.getClassLoaderResolver());
+                Object datastoreValue = null;
+                if (MetaDataUtils.isJdbcTypeNumeric(enumJdbcType))
+                {
+                    datastoreValue = cell.getNumericCellValue();
+                }
+                else
+                {
+                    datastoreValue = cell.getRichStringCellValue().getString();
+                }
+                if (datastoreValue == null)
+                {
+                    return null;
+                }
+                return EnumConversionHelper.getEnumForStoredValue(mmd, FieldRole.ROLE_FIELD, datastoreValue, ec.getClassLoaderResolver());
             }
-            return EnumConversionHelper.getEnumForStoredValue(mmd, FieldRole.ROLE_FIELD, datastoreValue, ec.getClassLoaderResolver());
-        }
-        else if (requiredType == byte[].class)
-        {
-            String value = cell.getStringCellValue();
-            if (value != null)
+            case ExcelTypeCode.BYTE_ARRAY:
             {
-                return Base64.getDecoder().decode(value);
+                String value = cell.getStringCellValue();
+                if (value != null)
+                {
+                    return Base64.getDecoder().decode(value);
+                }
+                break;
             }
+            default:
+                break;
         }
 
         // Fallback to String/Long TypeConverters
@@ -32,7 +32,6 @@ import java.util.Map;
 import java.util.Optional;
 
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CreationHelper;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Row.MissingCellPolicy;
 import org.datanucleus.ClassLoaderResolver;
@@ -48,6 +47,7 @@ import org.datanucleus.metadata.IdentityType;
 import org.datanucleus.metadata.MetaDataUtils;
 import org.datanucleus.metadata.RelationType;
 import org.datanucleus.state.DNStateManager;
+import org.datanucleus.store.excel.ExcelUtils;
 import org.datanucleus.store.fieldmanager.AbstractStoreFieldManager;
 import org.datanucleus.store.schema.table.MemberColumnMapping;
 import org.datanucleus.store.schema.table.SurrogateColumnType;
@@ -214,8 +214,7 @@ public class StoreFieldManager extends AbstractStoreFieldManager
         }
         else
         {
-            CreationHelper createHelper = row.getSheet().getWorkbook().getCreationHelper();
-            cell.setCellValue(createHelper.createRichTextString(value));
+            ExcelUtils.setStringCellValue(cell, value);
         }
     }
 
@@ -417,8 +416,7 @@ public class StoreFieldManager extends AbstractStoreFieldManager
                     TypeConverter strConv = typeMgr.getTypeConverterForType(type, String.class);
                     if (strConv != null)
                     {
-                        CreationHelper createHelper = row.getSheet().getWorkbook().getCreationHelper();
-                        cell.setCellValue(createHelper.createRichTextString((String) strConv.toDatastoreType(value)));
+                        ExcelUtils.setStringCellValue(cell, (String) strConv.toDatastoreType(value));
                         return;
                     }
                     else if (longConv != null)
@@ -455,8 +453,7 @@ public class StoreFieldManager extends AbstractStoreFieldManager
 
             Object valuePC = ec.persistObjectInternal(value, null, PersistableObjectType.PC, sm, fieldNumber);
             Object valueId = ec.getApiAdapter().getIdForObject(valuePC);
-            CreationHelper createHelper = row.getSheet().getWorkbook().getCreationHelper();
-            cell.setCellValue(createHelper.createRichTextString("[" + IdentityUtils.getPersistableIdentityForId(valueId) + "]"));
+            ExcelUtils.setStringCellValue(cell, "[" + IdentityUtils.getPersistableIdentityForId(valueId) + "]");
             return;
         }
         else if (RelationType.isRelationMultiValued(relationType))
@@ -505,8 +502,7 @@ public class StoreFieldManager extends AbstractStoreFieldManager
                     }
                 }
                 cellValue.append("]");
-                CreationHelper createHelper = row.getSheet().getWorkbook().getCreationHelper();
-                cell.setCellValue(createHelper.createRichTextString(cellValue.toString()));
+                ExcelUtils.setStringCellValue(cell, cellValue.toString());
             }
             else if (mmd.hasMap())
             {
@@ -548,8 +544,7 @@ public class StoreFieldManager extends AbstractStoreFieldManager
                     }
                 }
                 cellValue.append("]");
-                CreationHelper createHelper = row.getSheet().getWorkbook().getCreationHelper();
-                cell.setCellValue(createHelper.createRichTextString(cellValue.toString()));
+                ExcelUtils.setStringCellValue(cell, cellValue.toString());
             }
             else if (mmd.hasArray())
             {
@@ -566,8 +561,7 @@ public class StoreFieldManager extends AbstractStoreFieldManager
                     }
                 }
                 cellValue.append("]");
-                CreationHelper createHelper = row.getSheet().getWorkbook().getCreationHelper();
-                cell.setCellValue(createHelper.createRichTextString(cellValue.toString()));
+                ExcelUtils.setStringCellValue(cell, cellValue.toString());
             }
             return;
         }
@@ -583,7 +577,7 @@ public class StoreFieldManager extends AbstractStoreFieldManager
         }
         else if (Character.class.isAssignableFrom(type))
         {
-            cell.setCellValue(row.getSheet().getWorkbook().getCreationHelper().createRichTextString("" + value));
+            ExcelUtils.setStringCellValue(cell, "" + value);
         }
         else if (Boolean.class.isAssignableFrom(type))
         {
@@ -599,7 +593,7 @@ public class StoreFieldManager extends AbstractStoreFieldManager
         }
         else if (String.class.isAssignableFrom(type))
         {
-            cell.setCellValue(row.getSheet().getWorkbook().getCreationHelper().createRichTextString((String)value));
+            ExcelUtils.setStringCellValue(cell, (String)value);
         }
         else if (Enum.class.isAssignableFrom(type))
         {
@@ -610,13 +604,13 @@ public class StoreFieldManager extends AbstractStoreFieldManager
             }
             else
             {
-                cell.setCellValue(row.getSheet().getWorkbook().getCreationHelper().createRichTextString((String)datastoreValue));
+                ExcelUtils.setStringCellValue(cell, (String)datastoreValue);
             }
         }
         else if (byte[].class == type)
         {
             String strValue = Base64.getEncoder().encodeToString((byte[]) value);
-            cell.setCellValue(strValue);
+            ExcelUtils.setStringCellValue(cell, strValue);
         }
         // TODO Persist Collection of String as comma-separated?
         else
@@ -18,13 +18,14 @@ Contributors:
 package org.datanucleus.store.excel.query;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.datanucleus.ExecutionContext;
@@ -38,7 +39,10 @@ import org.datanucleus.state.DNStateManager;
 import org.datanucleus.store.FieldValues;
 import org.datanucleus.store.StoreData;
 import org.datanucleus.store.connection.ManagedConnection;
+import org.datanucleus.store.excel.CellMatcher;
 import org.datanucleus.store.excel.ExcelStoreManager;
+import org.datanucleus.store.excel.SheetSnapshot;
+import org.datanucleus.store.excel.SheetStatistics;
 import org.datanucleus.store.excel.fieldmanager.FetchFieldManager;
 import org.datanucleus.store.query.AbstractCandidateLazyLoadList;
 import org.datanucleus.store.schema.table.SurrogateColumnType;
@@ -46,6 +50,12 @@ import org.datanucleus.store.schema.table.Table;
 
 /**
  * Wrapper for a List of candidate instances from Excel. Loads the instances from the workbook lazily.
+ * When created this takes a snapshot of the active rows of the worksheet of each candidate class (see {@link SheetSnapshot}),
+ * so the candidates, and their positions, are stable for the life of the list even if the worksheets are changed meanwhile
+ * (e.g rows deleted and the following rows moved up). Where a query filter is provided, rows that can't satisfy it are omitted
+ * from the snapshot (see {@link ExcelQueryFilter}). For a query of several classes (e.g with subclasses) the snapshots of the
+ * worksheets are taken concurrently, with the candidates ordered by class as before. Where the objects of a class overflow onto
+ * further worksheets (see {@link ExcelStoreManager#getSheetsForTable(Workbook, String)}) each is snapshotted, in order.
  */
 public class ExcelCandidateList extends AbstractCandidateLazyLoadList
 {
@@ -55,8 +65,14 @@ public class ExcelCandidateList extends AbstractCandidateLazyLoadList
 
     FetchPlan fetchPlan;
 
-    /** Number of objects per class, in same order as class meta-data. */
-    List<Integer> numberInstancesPerClass = null;
+    /** Snapshot of the rows of each worksheet of the classes, ordered by class (in same order as class meta-data) and then by worksheet. */
+    List<SheetSnapshot> snapshots = null;
+
+    /** Index (in the class meta-data) of the class of each snapshot. */
+    int[] snapshotClassIndexes;
+
+    /** Position in this list of the first candidate of each snapshot, plus the size of the list at the end. */
+    int[] firstIndexes;
 
     /**
      * Constructor for the lazy loaded Excel candidate list.
@@ -69,21 +85,39 @@ public class ExcelCandidateList extends AbstractCandidateLazyLoadList
      * @param fp Fetch Plan
      */
     public ExcelCandidateList(Class cls, boolean subclasses, ExecutionContext ec, String cacheType, ManagedConnection mconn, boolean ignoreCache, FetchPlan fp)
+    {
+        this(cls, subclasses, ec, cacheType, mconn, ignoreCache, fp, null);
+    }
+
+    /**
+     * Constructor for the lazy loaded Excel candidate list, omitting rows that can't satisfy the filter of the query.
+     * @param cls The candidate class
+     * @param subclasses Whether to include subclasses
+     * @param ec execution context
+     * @param cacheType Type of caching
+     * @param mconn Connection to the datastore
+     * @param ignoreCache Whether to ignore the cache on object retrieval
+     * @param fp Fetch Plan
+     * @param filter Part of the query filter to evaluate against the cells when scanning the worksheets (or null if none)
+     */
+    public ExcelCandidateList(Class cls, boolean subclasses, ExecutionContext ec, String cacheType, ManagedConnection mconn, boolean ignoreCache, FetchPlan fp,
+            ExcelQueryFilter filter)
     {
         super(cls, subclasses, ec, cacheType);
         this.mconn = mconn;
         this.ignoreCache = ignoreCache;
         this.fetchPlan = fp;
 
-        // Count the instances per class by scanning the associated worksheets
-        numberInstancesPerClass = new ArrayList<Integer>();
+        // Find the worksheet of each class (managing any class not yet managed), and what of the filter applies to it
         ExcelStoreManager storeMgr = (ExcelStoreManager) ec.getStoreManager();
-        Iterator<AbstractClassMetaData> cmdIter = cmds.iterator();
         Workbook workbook = (Workbook) mconn.getConnection();
-        while (cmdIter.hasNext())
+        int numClasses = cmds.size();
+        Table[] tables = new Table[numClasses];
+        int[] idColIndexes = new int[numClasses];
+        CellMatcher[][] matchers = new CellMatcher[numClasses][];
+        for (int i=0;i<numClasses;i++)
         {
-            AbstractClassMetaData cmd = cmdIter.next();
-
+            AbstractClassMetaData cmd = cmds.get(i);
             StoreData sd = storeMgr.getStoreDataForClass(cmd.getFullClassName());
             if (sd == null)
             {
@@ -91,55 +125,100 @@ public class ExcelCandidateList extends AbstractCandidateLazyLoadList
                 sd = storeMgr.getStoreDataForClass(cmd.getFullClassName());
             }
             Table table = sd.getTable();
-            String sheetName = table.getName();
-            Sheet sheet = workbook.getSheet(sheetName);
-            int size = 0;
-            if (sheet != null && sheet.getPhysicalNumberOfRows() > 0)
-            {
-                // Take the next row in this worksheet
-                int idColIndex = -1;
-                if (cmd.getIdentityType() == IdentityType.APPLICATION)
-                {
-                    int[] pkFieldNums = cmd.getPKMemberPositions(); // TODO Check all pk cols?
-                    AbstractMemberMetaData pkMmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(pkFieldNums[0]);
-                    idColIndex = table.getMemberColumnMappingForMember(pkMmd).getColumn(0).getPosition();
-                }
-                else if (cmd.getIdentityType() == IdentityType.DATASTORE)
-                {
-                    idColIndex = table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getPosition();
-                }
-                else
-                {
-                    idColIndex = 0; // No id column with nondurable, so just take the first
-                }
+            tables[i] = table;
+            idColIndexes[i] = getIdColumnIndex(cmd, table);
+            matchers[i] = (filter != null) ? filter.getMatchersForClass(cmd, table, ec.getClassLoaderResolver()) : null;
+        }
 
-                for (int i=sheet.getFirstRowNum();i<=sheet.getLastRowNum();i++)
-                {
-                    Row row = sheet.getRow(i);
-                    if (row.getCell(idColIndex) != null) // Omit inactive rows
-                    {
-                        size++;
-                    }
-                }
+        // Take a snapshot of the active rows of the associated worksheets, concurrently when there are several (e.g subclasses)
+        IntStream classIndexes = IntStream.range(0, numClasses);
+        if (numClasses > 1)
+        {
+            classIndexes = classIndexes.parallel();
+        }
+        List<List<SheetSnapshot>> classSnapshots = classIndexes.mapToObj(i -> createSnapshots(storeMgr, workbook, tables[i], idColIndexes[i], matchers[i]))
+                .collect(Collectors.toList());
+
+        // Position of the first candidate of each snapshot
+        snapshots = new ArrayList<>();
+        for (List<SheetSnapshot> classSnapshot : classSnapshots)
+        {
+            snapshots.addAll(classSnapshot);
+        }
+        snapshotClassIndexes = new int[snapshots.size()];
+        firstIndexes = new int[snapshots.size() + 1];
+        int snapshotIndex = 0;
+        for (int i=0;i<numClasses;i++)
+        {
+            for (SheetSnapshot snapshot : classSnapshots.get(i))
+            {
+                snapshotClassIndexes[snapshotIndex] = i;
+                firstIndexes[snapshotIndex+1] = firstIndexes[snapshotIndex] + snapshot.size();
+                snapshotIndex++;
             }
-            numberInstancesPerClass.add(size);
         }
     }
 
-    /* (non-Javadoc)
-     * @see org.datanucleus.store.query.AbstractLazyLoadList#getSize()
+    /**
+     * Method to take a snapshot of the (possibly matching) active rows of each worksheet of the specified table, holding its read lock.
+     * Where there is no filter, any valid statistics of a worksheet (see {@link SheetStatistics}) are used to avoid testing each row.
+     * @param storeMgr StoreManager
+     * @param workbook The workbook
+     * @param table The table
+     * @param idColIndex Number of the column that is populated for all active rows
+     * @param matchers Matchers for the filter (or null)
+     * @return The snapshots (empty if the table has no worksheet)
      */
-    protected int getSize()
+    private static List<SheetSnapshot> createSnapshots(ExcelStoreManager storeMgr, Workbook workbook, Table table, int idColIndex, CellMatcher[] matchers)
     {
-        int size = 0;
+        String tableName = table.getName();
+        boolean locked = storeMgr.lockSheet(tableName, false);
+        try
+        {
+            List<SheetSnapshot> tableSnapshots = new ArrayList<>();
+            for (Sheet sheet : storeMgr.getSheetsForTable(workbook, tableName))
+            {
+                SheetStatistics stats = (matchers == null) ? storeMgr.getSheetStatistics(workbook, sheet, table) : null;
+                tableSnapshots.add(storeMgr.createSheetSnapshot(workbook, sheet, idColIndex, matchers, stats));
+            }
+            return tableSnapshots;
+        }
+        finally
+        {
+            if (locked)
+            {
+                storeMgr.unlockSheet(tableName, false);
+            }
+        }
+    }
 
-        Iterator<Integer> numberIter = numberInstancesPerClass.iterator();
-        while (numberIter.hasNext())
+    /**
+     * Convenience accessor for the column that is populated for all active rows of the worksheet of a class.
+     * @param cmd Metadata for the class
+     * @param table Table for the class
+     * @return The column number
+     */
+    private static int getIdColumnIndex(AbstractClassMetaData cmd, Table table)
+    {
+        if (cmd.getIdentityType() == IdentityType.APPLICATION)
         {
-            size += numberIter.next();
+            int[] pkFieldNums = cmd.getPKMemberPositions(); // TODO Check all pk cols?
+            AbstractMemberMetaData pkMmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(pkFieldNums[0]);
+            return table.getMemberColumnMappingForMember(pkMmd).getColumn(0).getPosition();
         }
+        else if (cmd.getIdentityType() == IdentityType.DATASTORE)
+        {
+            return table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getPosition();
+        }
+        return 0; // No id column with nondurable, so just take the first
+    }
 
-        return size;
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.AbstractLazyLoadList#getSize()
+     */
+    protected int getSize()
+    {
+        return firstIndexes[firstIndexes.length-1];
     }
 
     /* (non-Javadoc)
@@ -152,141 +231,86 @@ public class ExcelCandidateList extends AbstractCandidateLazyLoadList
             throw new NoSuchElementException();
         }
 
-        Iterator<AbstractClassMetaData> cmdIter = cmds.iterator();
-        Iterator<Integer> numIter = numberInstancesPerClass.iterator();
-        int first = 0;
-        int last = -1;
-        while (cmdIter.hasNext())
+        // Find the snapshot with this candidate, being the last snapshot whose first position is at or before the index
+        int snapshotIndex = Arrays.binarySearch(firstIndexes, index);
+        if (snapshotIndex < 0)
         {
-            final AbstractClassMetaData cmd = cmdIter.next();
-            int number = numIter.next();
-            last = first+number;
-
-            if (index >= first && index < last)
+            snapshotIndex = -(snapshotIndex + 1) - 1;
+        }
+        else
+        {
+            // Skip any preceding snapshots with no candidates
+            while (firstIndexes[snapshotIndex+1] == index)
             {
-                // Object is of this candidate type, so find the object
-                Table table = ec.getStoreManager().getStoreDataForClass(cmd.getFullClassName()).getTable();
-                String sheetName = table.getName();
-                Workbook workbook = (Workbook) mconn.getConnection();
-                final Sheet worksheet = workbook.getSheet(sheetName);
-                if (worksheet != null)
-                {
-                    int idColIndex = -1;
-                    if (cmd.getIdentityType() == IdentityType.APPLICATION)
-                    {
-                        int[] pkFieldNums = cmd.getPKMemberPositions(); // TODO Check all pk cols?
-                        AbstractMemberMetaData pkMmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(pkFieldNums[0]);
-                        idColIndex = table.getMemberColumnMappingForMember(pkMmd).getColumn(0).getPosition();
-                    }
-                    else if (cmd.getIdentityType() == IdentityType.DATASTORE)
-                    {
-                        idColIndex = table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getPosition();
-                    }
-                    else
-                    {
-                        idColIndex = 0; // No id column with nondurable, so just take the first
-                    }
+                snapshotIndex++;
+            }
+        }
+
+        final AbstractClassMetaData cmd = cmds.get(snapshotClassIndexes[snapshotIndex]);
+        SheetSnapshot snapshot = snapshots.get(snapshotIndex);
+        int first = firstIndexes[snapshotIndex];
 
-                    int current = first;
-                    for (int i=worksheet.getFirstRowNum();i<=worksheet.getLastRowNum();i++)
-                    {
-                        final Row row = worksheet.getRow(i);
-                        if (row.getCell(idColIndex) != null) // Omit inactive rows
-                        {
-                            if (current == index)
-                            {
-                                // This row equates to the required index
-                                final int rowNumber = i;
-                                int[] fpFieldNums = fetchPlan.getFetchPlanForClass(cmd).getMemberNumbers();
-                                if (cmd.getIdentityType() == IdentityType.APPLICATION)
-                                {
-                                    final FetchFieldManager fm = new FetchFieldManager(ec, cmd, worksheet, rowNumber, table);
-                                    Object id = IdentityUtils.getApplicationIdentityForResultSetRow(ec, cmd, null, false, fm);
+        ExcelStoreManager storeMgr = (ExcelStoreManager) ec.getStoreManager();
+        Table table = storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable();
+        String sheetName = table.getName();
 
-                                    return ec.findObject(id, new FieldValues()
-                                    {
-                                        // StateManager calls the fetchFields method
-                                        public void fetchFields(DNStateManager sm)
-                                        {
-                                            sm.replaceFields(fpFieldNums, fm);
-                                        }
-                                        public void fetchNonLoadedFields(DNStateManager sm)
-                                        {
-                                            sm.replaceNonLoadedFields(fpFieldNums, fm);
-                                        }
-                                        public FetchPlan getFetchPlanForLoading()
-                                        {
-                                            return null;
-                                        }
-                                    }, null, ignoreCache, false);
-                                }
-                                else if (cmd.getIdentityType() == IdentityType.DATASTORE)
-                                {
-                                    final FetchFieldManager fm = new FetchFieldManager(ec, cmd, worksheet, rowNumber, table);
-                                    Object id = null;
-                                    Cell idCell = row.getCell(idColIndex);
-                                    if (idCell.getCellType() == CellType.STRING)
-                                    {
-                                        String key = idCell.getRichStringCellValue().getString();
-                                        id = ec.getNucleusContext().getIdentityManager().getDatastoreId(cmd.getFullClassName(), key);
-                                    }
-                                    else if (idCell.getCellType() == CellType.NUMERIC)
-                                    {
-                                        long key = (long)idCell.getNumericCellValue();
-                                        id = ec.getNucleusContext().getIdentityManager().getDatastoreId(cmd.getFullClassName(), key);
-                                    }
-                                    return ec.findObject(id, new FieldValues()
-                                    {
-                                        // StateManager calls the fetchFields method
-                                        public void fetchFields(DNStateManager sm)
-                                        {
-                                            sm.replaceFields(fpFieldNums, fm);
-                                        }
-                                        public void fetchNonLoadedFields(DNStateManager sm)
-                                        {
-                                            sm.replaceNonLoadedFields(fpFieldNums, fm);
-                                        }
-                                        public FetchPlan getFetchPlanForLoading()
-                                        {
-                                            return null;
-                                        }
-                                    }, null, ignoreCache, false);
-                                }
-                                else
-                                {
-                                    // Nondurable identity
-                                    final FetchFieldManager fm = new FetchFieldManager(ec, cmd, worksheet, rowNumber, table);
-                                    Object id = new SCOID(cmd.getFullClassName());
-                                    return ec.findObject(id, new FieldValues()
-                                    {
-                                        // StateManager calls the fetchFields method
-                                        public void fetchFields(DNStateManager sm)
-                                        {
-                                            sm.replaceFields(fpFieldNums, fm);
-                                        }
-                                        public void fetchNonLoadedFields(DNStateManager sm)
-                                        {
-                                            sm.replaceNonLoadedFields(fpFieldNums, fm);
-                                        }
-                                        public FetchPlan getFetchPlanForLoading()
-                                        {
-                                            return null;
-                                        }
-                                    }, null, ignoreCache, false);
-                                }
-                            }
+        // Lock the live sheet while reading from it (the snapshot can't then be switched to its own copy part way through)
+        boolean locked = storeMgr.lockSheet(sheetName, false);
+        try
+        {
+            final Sheet worksheet = snapshot.getSheet();
+            final int rowNumber = snapshot.getRowNumber(index - first);
+            final FetchFieldManager fm = new FetchFieldManager(ec, cmd, worksheet, rowNumber, table);
+            int[] fpFieldNums = fetchPlan.getFetchPlanForClass(cmd).getMemberNumbers();
 
-                            current++;
-                        }
-                    }
+            Object id = null;
+            if (cmd.getIdentityType() == IdentityType.APPLICATION)
+            {
+                id = IdentityUtils.getApplicationIdentityForResultSetRow(ec, cmd, null, false, fm);
+            }
+            else if (cmd.getIdentityType() == IdentityType.DATASTORE)
+            {
+                Cell idCell = worksheet.getRow(rowNumber).getCell(getIdColumnIndex(cmd, table));
+                if (idCell.getCellType() == CellType.STRING)
+                {
+                    String key = idCell.getRichStringCellValue().getString();
+                    id = ec.getNucleusContext().getIdentityManager().getDatastoreId(cmd.getFullClassName(), key);
+                }
+                else if (idCell.getCellType() == CellType.NUMERIC)
+                {
+                    long key = (long)idCell.getNumericCellValue();
+                    id = ec.getNucleusContext().getIdentityManager().getDatastoreId(cmd.getFullClassName(), key);
                 }
             }
             else
             {
-                first += number;
+                // Nondurable identity
+                id = new SCOID(cmd.getFullClassName());
             }
-        }
 
-        return null;
+            return ec.findObject(id, new FieldValues()
+            {
+                // StateManager calls the fetchFields method
+                public void fetchFields(DNStateManager sm)
+                {
+                    sm.replaceFields(fpFieldNums, fm);
+                }
+                public void fetchNonLoadedFields(DNStateManager sm)
+                {
+                    sm.replaceNonLoadedFields(fpFieldNums, fm);
+                }
+                public FetchPlan getFetchPlanForLoading()
+                {
+                    return null;
+                }
+            }, null, ignoreCache, false);
+        }
+        finally
+        {
+            if (locked)
+            {
+                storeMgr.unlockSheet(sheetName, false);
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,261 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel.query;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.RelationType;
+import org.datanucleus.store.excel.CellMatcher;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.expression.DyadicExpression;
+import org.datanucleus.store.query.expression.Expression;
+import org.datanucleus.store.query.expression.InvokeExpression;
+import org.datanucleus.store.query.expression.Literal;
+import org.datanucleus.store.query.expression.ParameterExpression;
+import org.datanucleus.store.query.expression.PrimaryExpression;
+import org.datanucleus.store.query.expression.VariableExpression;
+import org.datanucleus.store.schema.table.MemberColumnMapping;
+import org.datanucleus.store.schema.table.Table;
+
+/**
+ * Part of the filter of a query that can be evaluated against the cells of the worksheets, so that rows that can't satisfy the filter
+ * are omitted from the candidates (when scanning the sheet) rather than having their objects instantiated and evaluated in-memory.
+ * This is the "field == value" terms (value being a literal or parameter) of the top-level conjunction of the filter.
+ * The full filter is still evaluated in-memory on the remaining candidates, so any term that can't be evaluated here is simply ignored.
+ */
+public class ExcelQueryFilter
+{
+    /** Value required for each field, keyed by field name. */
+    final Map<String, Object> valuesByField = new LinkedHashMap<>();
+
+    /**
+     * Method to return the part of the filter of the specified query compilation that can be evaluated against the cells.
+     * @param compilation The query compilation
+     * @param parameters Values of the parameters, keyed by name (or position)
+     * @return The filter
+     */
+    public static ExcelQueryFilter getFilterForQuery(QueryCompilation compilation, Map parameters)
+    {
+        ExcelQueryFilter filter = new ExcelQueryFilter();
+        if (compilation.getExprFilter() != null)
+        {
+            filter.addExpression(compilation.getExprFilter(), compilation.getCandidateAlias(), parameters);
+        }
+        return filter;
+    }
+
+    /**
+     * Convenience method to return whether the filter of a query can be evaluated against the cells. When the query isn't ignoring the cache,
+     * the objects of the candidates are the cached objects, and any change to these that is not yet flushed (i.e where datastore operations
+     * are delayed until commit/flush) would not be seen in the cells, so a row could be omitted even though its (changed) object satisfies the filter.
+     * @param ec ExecutionContext
+     * @param ignoreCache Whether the query ignores the cache
+     * @return Whether the filter can be evaluated against the cells
+     */
+    public static boolean isApplicable(ExecutionContext ec, boolean ignoreCache)
+    {
+        return ignoreCache || !ec.isDelayDatastoreOperationsEnabled();
+    }
+
+    /**
+     * Accessor for the matchers for the cells of the worksheet of the specified class.
+     * @param cmd Metadata for the class
+     * @param table Table for the class
+     * @param clr ClassLoader resolver
+     * @return The matchers (or null if there are no terms that can be evaluated against the cells)
+     */
+    public CellMatcher[] getMatchersForClass(AbstractClassMetaData cmd, Table table, ClassLoaderResolver clr)
+    {
+        List<CellMatcher> matchers = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : valuesByField.entrySet())
+        {
+            CellMatcher matcher = null;
+            AbstractMemberMetaData mmd = cmd.getMetaDataForMember(entry.getKey());
+            if (mmd != null && mmd.getRelationType(clr) == RelationType.NONE && isCompatible(mmd.getType(), entry.getValue()))
+            {
+                MemberColumnMapping mapping = table.getMemberColumnMappingForMember(mmd);
+                if (mapping != null && mapping.getNumberOfColumns() == 1 && mapping.getTypeConverter() == null)
+                {
+                    matcher = new CellMatcher(mapping.getColumn(0).getPosition(), mmd.getType(), entry.getValue());
+                }
+            }
+
+            if (matcher != null && matcher.isKeyable())
+            {
+                matchers.add(matcher);
+            }
+        }
+        return matchers.isEmpty() ? null : matchers.toArray(new CellMatcher[matchers.size()]);
+    }
+
+    /**
+     * Convenience method to return whether the specified query compilation is just a count of the candidates with no filter
+     * (e.g "SELECT count(this) FROM ..."), so can be evaluated from the number of candidates without instantiating them.
+     * @param compilation The query compilation
+     * @return Whether the result is a count of the candidates
+     */
+    public static boolean isCountOfCandidates(QueryCompilation compilation)
+    {
+        Expression[] resultExprs = compilation.getExprResult();
+        if (resultExprs == null || resultExprs.length != 1 || !(resultExprs[0] instanceof InvokeExpression) ||
+            compilation.getExprFilter() != null || compilation.getExprGrouping() != null || compilation.getExprHaving() != null)
+        {
+            return false;
+        }
+
+        InvokeExpression invokeExpr = (InvokeExpression)resultExprs[0];
+        List<Expression> args = invokeExpr.getArguments();
+        if (invokeExpr.getLeft() != null || !"count".equalsIgnoreCase(invokeExpr.getOperation()) || args == null || args.size() != 1)
+        {
+            return false;
+        }
+
+        Expression argExpr = args.get(0);
+        String alias = compilation.getCandidateAlias();
+        if (argExpr instanceof PrimaryExpression)
+        {
+            return ((PrimaryExpression)argExpr).getId().equals(alias);
+        }
+        else if (argExpr instanceof VariableExpression)
+        {
+            return ((VariableExpression)argExpr).getId().equals(alias);
+        }
+        return false;
+    }
+
+    private void addExpression(Expression expr, String alias, Map parameters)
+    {
+        if (expr instanceof DyadicExpression && expr.getOperator() == Expression.OP_AND)
+        {
+            addExpression(expr.getLeft(), alias, parameters);
+            addExpression(expr.getRight(), alias, parameters);
+            return;
+        }
+
+        if (expr instanceof DyadicExpression && expr.getOperator() == Expression.OP_EQ)
+        {
+            String fieldName = getFieldName(expr.getLeft(), alias);
+            Object value = (fieldName != null) ? getValue(expr.getRight(), parameters) : null;
+            if (fieldName == null)
+            {
+                fieldName = getFieldName(expr.getRight(), alias);
+                value = (fieldName != null) ? getValue(expr.getLeft(), parameters) : null;
+            }
+            if (fieldName != null && value != null && !valuesByField.containsKey(fieldName))
+            {
+                valuesByField.put(fieldName, value);
+            }
+        }
+    }
+
+    private static String getFieldName(Expression expr, String alias)
+    {
+        if (expr instanceof PrimaryExpression)
+        {
+            List<String> tuples = ((PrimaryExpression)expr).getTuples();
+            if (tuples.size() == 1)
+            {
+                return tuples.get(0);
+            }
+            else if (tuples.size() == 2 && tuples.get(0).equals(alias))
+            {
+                return tuples.get(1);
+            }
+        }
+        return null;
+    }
+
+    private static Object getValue(Expression expr, Map parameters)
+    {
+        if (expr instanceof Literal)
+        {
+            return ((Literal)expr).getLiteral();
+        }
+        else if (expr instanceof ParameterExpression && parameters != null)
+        {
+            String paramName = ((ParameterExpression)expr).getId();
+            if (parameters.containsKey(paramName))
+            {
+                return parameters.get(paramName);
+            }
+            else if (!paramName.isEmpty() && paramName.chars().allMatch(Character::isDigit) && parameters.containsKey(Integer.valueOf(paramName)))
+            {
+                // Numbered parameter (JPQL "?1")
+                return parameters.get(Integer.valueOf(paramName));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Convenience method to return whether a value can be compared with the cell of a field of the specified type, giving the same
+     * result as comparing it in-memory with the value of the field.
+     * @param type Type of the field
+     * @param value The value
+     * @return Whether it is compatible
+     */
+    private static boolean isCompatible(Class type, Object value)
+    {
+        if (value instanceof Number)
+        {
+            boolean integralValue = value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+            long longValue = ((Number)value).longValue();
+            if (type == long.class || type == Long.class)
+            {
+                return integralValue;
+            }
+            else if (type == int.class || type == Integer.class)
+            {
+                return integralValue && longValue == (int)longValue;
+            }
+            else if (type == short.class || type == Short.class)
+            {
+                return integralValue && longValue == (short)longValue;
+            }
+            else if (type == byte.class || type == Byte.class)
+            {
+                return integralValue && longValue == (byte)longValue;
+            }
+            else if (type == double.class || type == Double.class)
+            {
+                return integralValue || value instanceof Double;
+            }
+            else if (type == float.class || type == Float.class)
+            {
+                return integralValue || value instanceof Float;
+            }
+            return false;
+        }
+        else if (value instanceof Boolean)
+        {
+            return type == boolean.class || type == Boolean.class;
+        }
+        else if (value instanceof Character)
+        {
+            return type == char.class || type == Character.class;
+        }
+        return type.isInstance(value);
+    }
+}
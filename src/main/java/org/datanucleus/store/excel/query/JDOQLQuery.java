@@ -20,6 +20,7 @@ package org.datanucleus.store.excel.query;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +29,7 @@ import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.metadata.QueryLanguage;
 import org.datanucleus.store.StoreManager;
 import org.datanucleus.store.connection.ManagedConnection;
+import org.datanucleus.store.excel.ExcelStoreManager;
 import org.datanucleus.store.query.AbstractJDOQLQuery;
 import org.datanucleus.store.query.Query;
 import org.datanucleus.store.query.inmemory.JDOQLInMemoryEvaluator;
@@ -84,6 +86,7 @@ public class JDOQLQuery extends AbstractJDOQLQuery
      */
     protected Object performExecute(Map parameters)
     {
+        ((ExcelStoreManager)getStoreManager()).checkExecutionContext(ec);
         ManagedConnection mconn = getStoreManager().getConnectionManager().getConnection(ec);
         try
         {
@@ -96,17 +99,31 @@ public class JDOQLQuery extends AbstractJDOQLQuery
             List candidates = null;
             if (candidateCollection == null)
             {
-                candidates = new ExcelCandidateList(candidateClass, subclasses, ec, (String)getExtension(Query.EXTENSION_RESULT_CACHE_TYPE), mconn, ignoreCache, getFetchPlan());
+                // Evaluate what we can of the filter when scanning the worksheets, unless the user requires in-memory evaluation
+                ExcelQueryFilter filter = (getBooleanExtensionProperty(EXTENSION_EVALUATE_IN_MEMORY, false) || !ExcelQueryFilter.isApplicable(ec, ignoreCache)) ?
+                    null : ExcelQueryFilter.getFilterForQuery(compilation, parameters);
+                candidates = new ExcelCandidateList(candidateClass, subclasses, ec, (String)getExtension(Query.EXTENSION_RESULT_CACHE_TYPE), mconn, ignoreCache, getFetchPlan(), filter);
             }
             else
             {
                 candidates = new ArrayList(candidateCollection);
             }
 
-            // Evaluate result/filter/grouping/having/ordering in-memory
-            JavaQueryInMemoryEvaluator resultMapper = new JDOQLInMemoryEvaluator(this, candidates, compilation,
-                parameters, ec.getClassLoaderResolver());
-            Collection results = resultMapper.execute(true, true, true, true, true);
+            Collection results = null;
+            if (candidates instanceof ExcelCandidateList && type == QueryType.SELECT && resultClass == null &&
+                getRangeFromIncl() <= 0 && getRangeToExcl() == Long.MAX_VALUE && getRangeFromInclParam() == null && getRangeToExclParam() == null &&
+                ExcelQueryFilter.isCountOfCandidates(compilation))
+            {
+                // Count of the candidates, which is the number of active rows found by the scan
+                results = Collections.singletonList(Long.valueOf(candidates.size()));
+            }
+            else
+            {
+                // Evaluate result/filter/grouping/having/ordering in-memory
+                JavaQueryInMemoryEvaluator resultMapper = new JDOQLInMemoryEvaluator(this, candidates, compilation,
+                    parameters, ec.getClassLoaderResolver());
+                results = resultMapper.execute(true, true, true, true, true);
+            }
 
             if (NucleusLogger.QUERY.isDebugEnabled())
             {
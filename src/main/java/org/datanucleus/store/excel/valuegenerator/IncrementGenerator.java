@@ -20,14 +20,18 @@ package org.datanucleus.store.excel.valuegenerator;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.store.StoreManager;
 import org.datanucleus.store.connection.ManagedConnection;
+import org.datanucleus.store.excel.ExcelStoreManager;
+import org.datanucleus.store.excel.ExcelUtils;
 import org.datanucleus.store.valuegenerator.AbstractConnectedGenerator;
 import org.datanucleus.store.valuegenerator.ValueGenerationBlock;
 import org.datanucleus.store.valuegenerator.ValueGenerator;
@@ -36,13 +40,38 @@ import org.datanucleus.util.NucleusLogger;
 
 /**
  * Generator that uses a collection in Excel to store and allocate identity values.
+ * Values are reserved from the worksheet in blocks, starting at the "key-cache-size" (default 10) and growing by the factor
+ * "key-cache-growth" (default 2) on each reservation up to "key-cache-max-size" (default 1000), so a run of inserts only
+ * changes the worksheet occasionally. The values of the current block are handed out without locking.
  */
 public class IncrementGenerator extends AbstractConnectedGenerator<Long>
 {
+    /** Property for the factor by which the size of the block of values reserved grows on each reservation. */
+    public static final String PROPERTY_KEY_CACHE_GROWTH = "key-cache-growth";
+
+    /** Property for the maximum size of the block of values reserved. */
+    public static final String PROPERTY_KEY_CACHE_MAX_SIZE = "key-cache-max-size";
+
     /** Key used in the Table to access the increment count */
-    private String key;
+    protected String key;
+
+    protected String worksheetName = null;
+
+    /** Value of the first value allocated for the key. */
+    protected long initialValue = 1;
+
+    protected double allocationGrowth = 2.0;
+
+    protected int maxAllocationSize = 1000;
 
-    private String worksheetName = null;
+    /** Number of the row of the worksheet holding the key (if known). */
+    private int keyRowNumber = -1;
+
+    /** Next value to hand out. */
+    private final AtomicLong nextValue = new AtomicLong();
+
+    /** End (exclusive) of the block of values currently reserved. */
+    private volatile long blockEnd = 0;
 
     /**
      * Constructor. Will receive the following properties (as a minimum) through this constructor.
@@ -75,8 +104,21 @@ public class IncrementGenerator extends AbstractConnectedGenerator<Long>
         }
         else
         {
-            allocationSize = 1;
+            allocationSize = 10;
         }
+        if (properties.containsKey(ValueGenerator.PROPERTY_KEY_INITIAL_VALUE))
+        {
+            initialValue = Long.valueOf(properties.getProperty(ValueGenerator.PROPERTY_KEY_INITIAL_VALUE));
+        }
+        if (properties.containsKey(PROPERTY_KEY_CACHE_GROWTH))
+        {
+            allocationGrowth = Double.valueOf(properties.getProperty(PROPERTY_KEY_CACHE_GROWTH));
+        }
+        if (properties.containsKey(PROPERTY_KEY_CACHE_MAX_SIZE))
+        {
+            maxAllocationSize = Integer.valueOf(properties.getProperty(PROPERTY_KEY_CACHE_MAX_SIZE));
+        }
+        maxAllocationSize = Math.max(maxAllocationSize, allocationSize);
     }
 
     public String getName()
@@ -84,6 +126,52 @@ public class IncrementGenerator extends AbstractConnectedGenerator<Long>
         return this.name;
     }
 
+    /**
+     * Accessor for the next value, taken from the current block of values, only reserving a new block when this one is used up.
+     * @return The next value
+     */
+    @Override
+    public Long next()
+    {
+        while (true)
+        {
+            long value = nextValue.get();
+            if (value < blockEnd)
+            {
+                if (nextValue.compareAndSet(value, value+1))
+                {
+                    return value;
+                }
+            }
+            else
+            {
+                synchronized (this)
+                {
+                    if (nextValue.get() >= blockEnd)
+                    {
+                        long size = allocationSize;
+                        long firstValue = reserveValues(size);
+                        allocationSize = (int)Math.min(maxAllocationSize, Math.max(size+1, (long)(size * allocationGrowth)));
+
+                        // Set the next value before the end, so no other thread takes a value from the old position
+                        nextValue.set(firstValue);
+                        blockEnd = firstValue + size;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Accessor for the last value handed out.
+     * @return The current value (or null if no value handed out yet)
+     */
+    @Override
+    public Long current()
+    {
+        return (blockEnd > 0) ? nextValue.get() - 1 : null;
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.store.valuegenerator.AbstractGenerator#reserveBlock(long)
      */
@@ -94,74 +182,106 @@ public class IncrementGenerator extends AbstractConnectedGenerator<Long>
             return null;
         }
 
-        // Allocate value(s)
-        ManagedConnection mconn = connectionProvider.retrieveConnection();
+        long firstValue = reserveValues(size);
         List<Long> oids = new ArrayList<Long>();
+        for (int i=0;i<size;i++)
+        {
+            oids.add(firstValue + i);
+        }
+        return new ValueGenerationBlock<Long>(oids);
+    }
+
+    /**
+     * Method to reserve the specified number of values in the worksheet.
+     * @param size Number of values
+     * @return The first value reserved
+     */
+    protected long reserveValues(long size)
+    {
+        ManagedConnection mconn = connectionProvider.retrieveConnection();
+        boolean locked = false;
         try
         {
-            // Create the worksheet if not existing
             Workbook spreadsheetDoc = (Workbook)mconn.getConnection();
-            Sheet sheet = spreadsheetDoc.getSheet(worksheetName);
-            Row row = null;
-            Cell valueCell = null;
-            if (sheet == null)
-            {
-                if (!storeMgr.getSchemaHandler().isAutoCreateTables())
-                {
-                    throw new NucleusUserException(Localiser.msg("040011", worksheetName));
-                }
+            Sheet sheet = getWorksheet(spreadsheetDoc);
 
-                sheet = spreadsheetDoc.createSheet(worksheetName);
-                row = sheet.createRow(0);
-                Cell cell = row.createCell(0);
-                cell.setCellValue(key);
-                valueCell = row.createCell(1);
-                valueCell.setCellValue(Double.valueOf(0));
-            }
-            else
+            locked = ((ExcelStoreManager)storeMgr).lockSheet(worksheetName, true);
+            ((ExcelStoreManager)storeMgr).beforeSheetChange(spreadsheetDoc, worksheetName, true);
+            Row row = (keyRowNumber >= 0 && isKeyRow(sheet.getRow(keyRowNumber))) ? sheet.getRow(keyRowNumber) : null;
+            if (row == null && sheet.getPhysicalNumberOfRows() > 0)
             {
+                // Position of the key not known (or the sheet has been edited) so find it
                 for (int i=sheet.getFirstRowNum(); i<sheet.getLastRowNum()+1; i++)
                 {
                     Row tblRow = sheet.getRow(i);
-                    if (tblRow != null)
+                    if (isKeyRow(tblRow))
                     {
-                        Cell tblCell = tblRow.getCell(0);
-                        if (tblCell.getStringCellValue().equals(key))
-                        {
-                            row = tblRow;
-                            valueCell = row.getCell(1);
-                            break;
-                        }
+                        row = tblRow;
+                        break;
                     }
                 }
-                if (row == null)
-                {
-                    row = sheet.createRow(sheet.getLastRowNum()+1);
-                    
-                    Cell cell1 = row.createCell(0);
-                    cell1.setCellValue(key);
-                    valueCell = row.createCell(1);
-                    valueCell.setCellValue(Double.valueOf(0));
-                }
             }
+            Cell valueCell = (row != null) ? row.getCell(1) : null;
+            if (row == null)
+            {
+                row = sheet.createRow(sheet.getPhysicalNumberOfRows() > 0 ? sheet.getLastRowNum()+1 : 0);
 
-            // Update the row
-            if (valueCell != null)
+                Cell cell1 = row.createCell(0);
+                ExcelUtils.setStringCellValue(cell1, key);
+                valueCell = row.createCell(1);
+                valueCell.setCellValue(Double.valueOf(initialValue-1));
+            }
+
+            else if (valueCell == null)
             {
-                NucleusLogger.VALUEGENERATION.debug("Allowing " + size + " values for increment generator for "+key);
-                long currentVal = (long)valueCell.getNumericCellValue();
-                valueCell.setCellValue(Double.valueOf(currentVal+size));
-                for (int i=0;i<size;i++)
-                {
-                    oids.add(currentVal+1);
-                    currentVal++;
-                }
+                valueCell = row.createCell(1);
+                valueCell.setCellValue(Double.valueOf(initialValue-1));
             }
+            keyRowNumber = row.getRowNum();
+
+            // Update the row
+            NucleusLogger.VALUEGENERATION.debug("Allowing " + size + " values for increment generator for "+key);
+            long currentVal = (long)valueCell.getNumericCellValue();
+            valueCell.setCellValue(Double.valueOf(currentVal+size));
+            return currentVal+1;
         }
         finally
         {
+            if (locked)
+            {
+                ((ExcelStoreManager)storeMgr).unlockSheet(worksheetName, true);
+            }
             connectionProvider.releaseConnection();
         }
-        return new ValueGenerationBlock<Long>(oids);
+    }
+
+    /**
+     * Accessor for the worksheet holding the values, creating it if not existing.
+     * @param wb The workbook
+     * @return The worksheet
+     */
+    protected Sheet getWorksheet(Workbook wb)
+    {
+        Sheet sheet = ((ExcelStoreManager)storeMgr).getSheet(wb, worksheetName);
+        if (sheet == null)
+        {
+            if (!storeMgr.getSchemaHandler().isAutoCreateTables())
+            {
+                throw new NucleusUserException(Localiser.msg("040011", worksheetName));
+            }
+
+            sheet = ((ExcelStoreManager)storeMgr).createSheet(wb, worksheetName);
+        }
+        return sheet;
+    }
+
+    private boolean isKeyRow(Row row)
+    {
+        if (row == null)
+        {
+            return false;
+        }
+        Cell cell = row.getCell(0);
+        return cell != null && cell.getCellType() == CellType.STRING && key.equals(cell.getStringCellValue());
     }
 }
\ No newline at end of file
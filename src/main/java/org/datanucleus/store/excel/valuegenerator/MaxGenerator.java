@@ -0,0 +1,239 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+***********************************************************************/
+package org.datanucleus.store.excel.valuegenerator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.store.StoreData;
+import org.datanucleus.store.StoreManager;
+import org.datanucleus.store.connection.ManagedConnection;
+import org.datanucleus.store.excel.ExcelStoreManager;
+import org.datanucleus.store.schema.table.Column;
+import org.datanucleus.store.schema.table.MemberColumnMapping;
+import org.datanucleus.store.schema.table.SurrogateColumnType;
+import org.datanucleus.store.schema.table.Table;
+import org.datanucleus.store.valuegenerator.AbstractConnectedGenerator;
+import org.datanucleus.store.valuegenerator.ValueGenerationBlock;
+import org.datanucleus.store.valuegenerator.ValueGenerator;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Generator that allocates values as max+1 of the values in the column of the field in the worksheet(s) of the class.
+ * The maximum is read from the worksheets once, on the first allocation, and values are then handed out from memory without accessing
+ * the workbook. This assumes that this is the only process inserting objects of the class. Any "key-initial-value" is the minimum
+ * value allocated. Since each class has its own worksheet(s), and the generator of a field is shared by the classes of its inheritance
+ * hierarchy, the worksheets of all classes of the hierarchy are read. The column is always read (rather than using any statistics of
+ * the worksheet) since the values may have been edited in place.
+ */
+public class MaxGenerator extends AbstractConnectedGenerator<Long>
+{
+    /** Last value allocated. */
+    private final AtomicLong lastValue = new AtomicLong();
+
+    private volatile boolean initialised = false;
+
+    /**
+     * Constructor. Will receive the following properties (as a minimum) through this constructor.
+     * <ul>
+     * <li>class-name : Name of the class whose object is being inserted.</li>
+     * <li>field-name : Name of the field with the strategy (unless datastore identity field)</li>
+     * </ul>
+     * @param storeMgr StoreManager
+     * @param name Symbolic name for this generator
+     * @param props Properties controlling the behaviour of the generator (or null if not required).
+     */
+    public MaxGenerator(StoreManager storeMgr, String name, Properties props)
+    {
+        super(storeMgr, name, props);
+        allocationSize = 1;
+    }
+
+    @Override
+    public Long next()
+    {
+        if (!initialised)
+        {
+            initialise();
+        }
+        return lastValue.incrementAndGet();
+    }
+
+    @Override
+    public Long current()
+    {
+        return initialised ? lastValue.get() : null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.valuegenerator.AbstractGenerator#reserveBlock(long)
+     */
+    protected ValueGenerationBlock<Long> reserveBlock(long size)
+    {
+        if (size < 1)
+        {
+            return null;
+        }
+        if (!initialised)
+        {
+            initialise();
+        }
+
+        long firstValue = lastValue.getAndAdd(size) + 1;
+        List<Long> oids = new ArrayList<Long>();
+        for (int i=0;i<size;i++)
+        {
+            oids.add(firstValue + i);
+        }
+        return new ValueGenerationBlock<Long>(oids);
+    }
+
+    /**
+     * Method to read the maximum value of the column from the worksheets of the classes of the inheritance hierarchy.
+     */
+    protected synchronized void initialise()
+    {
+        if (initialised)
+        {
+            return;
+        }
+
+        long maxValue = 0;
+        if (properties.containsKey(ValueGenerator.PROPERTY_KEY_INITIAL_VALUE))
+        {
+            maxValue = Long.valueOf(properties.getProperty(ValueGenerator.PROPERTY_KEY_INITIAL_VALUE)) - 1;
+        }
+
+        String className = properties.getProperty(ValueGenerator.PROPERTY_CLASS_NAME);
+        ManagedConnection mconn = connectionProvider.retrieveConnection();
+        try
+        {
+            Workbook wb = (Workbook)mconn.getConnection();
+            ClassLoaderResolver clr = storeMgr.getNucleusContext().getClassLoaderResolver(null);
+
+            // Find all classes of the inheritance hierarchy, since these share the generator
+            AbstractClassMetaData rootCmd = storeMgr.getMetaDataManager().getMetaDataForClass(className, clr).getBaseAbstractClassMetaData();
+            List<String> classNames = new ArrayList<>();
+            classNames.add(rootCmd.getFullClassName());
+            String[] subclassNames = storeMgr.getMetaDataManager().getSubclassesForClass(rootCmd.getFullClassName(), true);
+            if (subclassNames != null)
+            {
+                Collections.addAll(classNames, subclassNames);
+            }
+            ((ExcelStoreManager)storeMgr).manageClasses(classNames.toArray(new String[classNames.size()]), clr, wb);
+
+            Set<String> sheetNames = new HashSet<>();
+            for (String clsName : classNames)
+            {
+                StoreData sd = storeMgr.getStoreDataForClass(clsName);
+                Table table = (sd != null) ? sd.getTable() : null;
+                if (table == null || !sheetNames.add(table.getName()))
+                {
+                    continue;
+                }
+                int colNumber = getColumnNumber(storeMgr.getMetaDataManager().getMetaDataForClass(clsName, clr), table);
+                if (colNumber >= 0)
+                {
+                    maxValue = Math.max(maxValue, getMaxValue(wb, table.getName(), colNumber));
+                }
+            }
+        }
+        finally
+        {
+            connectionProvider.releaseConnection();
+        }
+
+        NucleusLogger.VALUEGENERATION.debug("Max generator for " + className + " starting from value " + maxValue);
+        lastValue.set(maxValue);
+        initialised = true;
+    }
+
+    /**
+     * Method to read the maximum numeric value in the specified column of the worksheet(s) of a table.
+     * @param wb The workbook
+     * @param sheetName Name of the worksheet of the table
+     * @param colNumber Number of the column
+     * @return The maximum value (or 0 if none)
+     */
+    private long getMaxValue(Workbook wb, String sheetName, int colNumber)
+    {
+        long maxValue = 0;
+        boolean locked = ((ExcelStoreManager)storeMgr).lockSheet(sheetName, false);
+        try
+        {
+            for (Sheet sheet : ((ExcelStoreManager)storeMgr).getSheetsForTable(wb, sheetName))
+            {
+                if (sheet.getPhysicalNumberOfRows() > 0)
+                {
+                    for (int i=((ExcelStoreManager)storeMgr).getFirstDataRowNumber(sheet); i<sheet.getLastRowNum()+1; i++)
+                    {
+                        Row row = sheet.getRow(i);
+                        Cell cell = (row != null) ? row.getCell(colNumber) : null;
+                        if (cell != null && cell.getCellType() == CellType.NUMERIC)
+                        {
+                            maxValue = Math.max(maxValue, (long)cell.getNumericCellValue());
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            if (locked)
+            {
+                ((ExcelStoreManager)storeMgr).unlockSheet(sheetName, false);
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * Accessor for the number of the column of the field (or datastore identity) in the table of a class.
+     * @param cmd Metadata for the class
+     * @param table The table of the class
+     * @return The column number (or -1 if the class doesn't have the field)
+     */
+    private int getColumnNumber(AbstractClassMetaData cmd, Table table)
+    {
+        String fieldName = properties.getProperty(ValueGenerator.PROPERTY_FIELD_NAME);
+        if (fieldName != null)
+        {
+            // Field name is qualified by the class declaring it
+            AbstractMemberMetaData mmd = cmd.getMetaDataForMember(fieldName.substring(fieldName.lastIndexOf('.') + 1));
+            MemberColumnMapping mapping = (mmd != null) ? table.getMemberColumnMappingForMember(mmd) : null;
+            return (mapping != null) ? mapping.getColumn(0).getPosition() : -1;
+        }
+
+        // Datastore identity
+        Column col = table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID);
+        return (col != null) ? col.getPosition() : -1;
+    }
+}
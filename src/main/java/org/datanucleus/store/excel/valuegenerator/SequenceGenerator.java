@@ -0,0 +1,70 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+***********************************************************************/
+package org.datanucleus.store.excel.valuegenerator;
+
+import java.util.Properties;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.datanucleus.store.StoreManager;
+import org.datanucleus.store.excel.ExcelStoreManager;
+import org.datanucleus.store.valuegenerator.ValueGenerator;
+
+/**
+ * Generator for a named sequence (JDO SequenceMetaData, JPA @SequenceGenerator), storing the current value of each sequence in a row of
+ * a "very hidden" worksheet (default "SequenceTable"). The initial value ("key-initial-value") and allocation size ("key-cache-size")
+ * of the sequence are honoured, the allocation size being the number of values reserved in the worksheet at a time.
+ */
+public class SequenceGenerator extends IncrementGenerator
+{
+    /**
+     * Constructor. Will receive the following properties (as a minimum) through this constructor.
+     * <ul>
+     * <li>sequence-name : Name of the sequence</li>
+     * <li>key-initial-value : First value of the sequence</li>
+     * <li>key-cache-size : Number of values allocated at a time</li>
+     * </ul>
+     * @param storeMgr StoreManager
+     * @param name Symbolic name for this generator
+     * @param props Properties controlling the behaviour of the generator (or null if not required).
+     */
+    public SequenceGenerator(StoreManager storeMgr, String name, Properties props)
+    {
+        super(storeMgr, name, props);
+        this.key = properties.getProperty(ValueGenerator.PROPERTY_SEQUENCE_NAME, name);
+        this.worksheetName = properties.getProperty(ValueGenerator.PROPERTY_SEQUENCETABLE_TABLE, "SequenceTable");
+        if (!properties.containsKey(PROPERTY_KEY_CACHE_GROWTH))
+        {
+            // Allocate the sequence in blocks of its allocation size
+            allocationGrowth = 1.0;
+        }
+    }
+
+    /**
+     * Accessor for the worksheet holding the sequences, creating it (very hidden) if not existing.
+     * @param wb The workbook
+     * @return The worksheet
+     */
+    @Override
+    protected Sheet getWorksheet(Workbook wb)
+    {
+        Sheet sheet = super.getWorksheet(wb);
+        ((ExcelStoreManager)storeMgr).hideSheet(wb, sheet);
+        return sheet;
+    }
+}
@@ -0,0 +1,134 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors :
+    ...
+***********************************************************************/
+package org.datanucleus.store.excel.valuegenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.store.StoreManager;
+import org.datanucleus.store.excel.ExcelStoreManager;
+import org.datanucleus.store.valuegenerator.AbstractGenerator;
+import org.datanucleus.store.valuegenerator.ValueGenerationBlock;
+import org.datanucleus.util.Localiser;
+
+/**
+ * Generator of time-ordered 64-bit values, without any access to the workbook. Each value is made up of
+ * <ul>
+ * <li>41 bits : millisecs since 2020-01-01T00:00:00Z</li>
+ * <li>10 bits : node id, from the generator property "node-id" or the persistence property "datanucleus.excel.nodeId"
+ * (so processes using the same file with different node ids never allocate the same value)</li>
+ * <li>12 bits : sequence within the millisec</li>
+ * </ul>
+ * Values are strictly increasing within a process. Where more than 4096 values are needed in a millisec, or the clock goes backwards,
+ * the values continue from the last value allocated (running ahead of the clock).
+ */
+public class SnowflakeGenerator extends AbstractGenerator<Long>
+{
+    /** Generator property for the node id. */
+    public static final String PROPERTY_NODE_ID = "node-id";
+
+    /** Start of the time of values (2020-01-01T00:00:00Z). */
+    public static final long EPOCH = 1577836800000L;
+
+    private static final int NODE_BITS = 10;
+
+    private static final int SEQUENCE_BITS = 12;
+
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    /** Properties controlling the behaviour of the generator (or null). */
+    protected final Properties properties;
+
+    private final long nodeId;
+
+    /** Last allocation, as (millisecs since the epoch) followed by the sequence bits. */
+    private final AtomicLong lastAllocation = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param storeMgr StoreManager
+     * @param name Symbolic name for this generator
+     * @param props Properties controlling the behaviour of the generator (or null if not required).
+     */
+    public SnowflakeGenerator(StoreManager storeMgr, String name, Properties props)
+    {
+        super(storeMgr, name);
+        this.properties = props;
+        allocationSize = 1;
+
+        long node;
+        if (properties != null && properties.containsKey(PROPERTY_NODE_ID))
+        {
+            node = Long.valueOf(properties.getProperty(PROPERTY_NODE_ID));
+        }
+        else
+        {
+            node = storeMgr.getIntProperty(ExcelStoreManager.PROPERTY_NODE_ID);
+        }
+        if (node < 0 || node > MAX_NODE_ID)
+        {
+            throw new NucleusUserException(Localiser.msg("Excel.Snowflake.InvalidNodeId", "" + node, "" + MAX_NODE_ID));
+        }
+        this.nodeId = node;
+    }
+
+    @Override
+    public Long next()
+    {
+        while (true)
+        {
+            long last = lastAllocation.get();
+            long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+            long allocation = (now > last) ? now : last + 1;
+            if (lastAllocation.compareAndSet(last, allocation))
+            {
+                return getValueForAllocation(allocation);
+            }
+        }
+    }
+
+    @Override
+    public Long current()
+    {
+        long last = lastAllocation.get();
+        return (last > 0) ? getValueForAllocation(last) : null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.valuegenerator.AbstractGenerator#reserveBlock(long)
+     */
+    protected ValueGenerationBlock<Long> reserveBlock(long size)
+    {
+        List<Long> oids = new ArrayList<Long>();
+        for (int i=0;i<size;i++)
+        {
+            oids.add(next());
+        }
+        return new ValueGenerationBlock<Long>(oids);
+    }
+
+    private long getValueForAllocation(long allocation)
+    {
+        long millisecs = allocation >>> SEQUENCE_BITS;
+        long sequence = allocation & ((1 << SEQUENCE_BITS) - 1);
+        return (millisecs << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | sequence;
+    }
+}
@@ -0,0 +1,142 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Transaction;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Base for tests persisting to an Excel file, with a PersistenceManagerFactory for a new file per test.
+ */
+public abstract class AbstractExcelTest
+{
+    protected File file;
+
+    protected PersistenceManagerFactory pmf;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        File dir = new File("target/test-files");
+        dir.mkdirs();
+        file = new File(dir, getClass().getSimpleName() + "-" + System.nanoTime() + ".xls");
+        pmf = createPMF(new Properties());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (pmf != null && !pmf.isClosed())
+        {
+            pmf.close();
+        }
+    }
+
+    /**
+     * Method to create a PersistenceManagerFactory for the file of the test.
+     * @param extraProps Any persistence properties in addition to the defaults
+     * @return The PMF
+     */
+    protected PersistenceManagerFactory createPMF(Properties extraProps)
+    {
+        Properties props = new Properties();
+        props.setProperty("javax.jdo.PersistenceManagerFactoryClass", "org.datanucleus.api.jdo.JDOPersistenceManagerFactory");
+        props.setProperty("javax.jdo.option.ConnectionURL", "excel:file:" + file.getAbsolutePath());
+        props.setProperty("datanucleus.schema.autoCreateAll", "true");
+        props.putAll(extraProps);
+        return JDOHelper.getPersistenceManagerFactory(props);
+    }
+
+    /**
+     * Method to recreate the PersistenceManagerFactory with the specified persistence properties, so the file is read again.
+     * @param extraProps Any persistence properties in addition to the defaults
+     */
+    protected void reopen(Properties extraProps)
+    {
+        pmf.close();
+        pmf = createPMF(extraProps);
+    }
+
+    /**
+     * Method to persist the specified objects in a transaction.
+     * @param objs The objects
+     */
+    protected void persist(Object... objs)
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            pm.makePersistentAll(objs);
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    /**
+     * Method to read the file of the test directly with Apache POI. The PMF should be closed first.
+     * @return The workbook
+     * @throws IOException if an error occurs reading the file
+     */
+    protected Workbook readFile() throws IOException
+    {
+        return WorkbookFactory.create(file, null, true);
+    }
+
+    /**
+     * Accessor for the worksheets of the workbook whose names start with the specified (table) name, ignoring case.
+     * @param wb The workbook
+     * @param tableName Name of the table
+     * @return The worksheets
+     */
+    protected static List<Sheet> getSheetsStartingWith(Workbook wb, String tableName)
+    {
+        List<Sheet> sheets = new ArrayList<>();
+        for (Sheet sheet : wb)
+        {
+            if (sheet.getSheetName().toUpperCase(Locale.ENGLISH).startsWith(tableName.toUpperCase(Locale.ENGLISH)))
+            {
+                sheets.add(sheet);
+            }
+        }
+        return sheets;
+    }
+}
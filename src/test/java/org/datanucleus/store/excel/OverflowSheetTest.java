@@ -0,0 +1,230 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Properties;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import javax.jdo.Transaction;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.datanucleus.store.excel.test.model.Product;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for classes overflowing onto further worksheets when a worksheet is full ("datanucleus.excel.maxRowsPerSheet").
+ */
+public class OverflowSheetTest extends AbstractExcelTest
+{
+    private static final int MAX_ROWS = 3;
+
+    private static final int NUM_PRODUCTS = 8;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+        reopen(getProperties());
+
+        Product[] products = new Product[NUM_PRODUCTS];
+        for (int i = 0; i < NUM_PRODUCTS; i++)
+        {
+            products[i] = new Product(i + 1, "Product " + (i + 1), 10.0 * (i + 1));
+        }
+        persist((Object[])products);
+    }
+
+    /**
+     * Accessor for the persistence properties used by the tests, in addition to the defaults.
+     * @return The properties
+     */
+    protected Properties getProperties()
+    {
+        Properties props = new Properties();
+        props.setProperty(ExcelStoreManager.PROPERTY_MAX_ROWS_PER_SHEET, "" + MAX_ROWS);
+        return props;
+    }
+
+    @Test
+    public void testRowsSpreadOverSheets() throws Exception
+    {
+        pmf.close();
+        try (Workbook wb = readFile())
+        {
+            List<Sheet> sheets = getSheetsStartingWith(wb, "Product");
+            assertEquals(3, sheets.size());
+            int numRows = 0;
+            for (Sheet sheet : sheets)
+            {
+                assertTrue("Sheet " + sheet.getSheetName() + " has more rows than allowed", sheet.getPhysicalNumberOfRows() <= MAX_ROWS);
+                numRows += sheet.getPhysicalNumberOfRows();
+            }
+            assertEquals(NUM_PRODUCTS, numRows);
+        }
+    }
+
+    @Test
+    public void testQueryReadsAllSheets()
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            Query<Product> q = pm.newQuery(Product.class);
+            assertEquals(NUM_PRODUCTS, q.executeList().size());
+
+            Query<Product> countQ = pm.newQuery(Product.class);
+            countQ.setResult("count(this)");
+            assertEquals(Long.valueOf(NUM_PRODUCTS), countQ.executeResultUnique());
+
+            Query<Product> filterQ = pm.newQuery(Product.class, "name == :name");
+            List<Product> results = filterQ.setParameters("Product 7").executeList();
+            assertEquals(1, results.size());
+            assertEquals(7, results.get(0).getId());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testGetObjectByIdInOverflowSheet()
+    {
+        reopen(getProperties());
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            Product p = pm.getObjectById(Product.class, 8L);
+            assertEquals("Product 8", p.getName());
+            assertEquals(80.0, p.getPrice(), 0.001);
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testDeleteFromOverflowSheet()
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            pm.deletePersistent(pm.getObjectById(Product.class, 5L));
+            pm.deletePersistent(pm.getObjectById(Product.class, 8L));
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+        checkProductsAfterDelete();
+
+        reopen(getProperties());
+        checkProductsAfterDelete();
+    }
+
+    @Test
+    public void testInsertAfterDeleteFromOverflowSheet()
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            // Delete the first row of the last sheet, shifting the remaining row up, then insert into that sheet
+            tx.begin();
+            pm.deletePersistent(pm.getObjectById(Product.class, 7L));
+            tx.commit();
+
+            tx.begin();
+            pm.makePersistent(new Product(9, "Product 9", 90.0));
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+        checkProductsAfterInsert();
+
+        reopen(getProperties());
+        checkProductsAfterInsert();
+    }
+
+    private void checkProductsAfterInsert()
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            assertEquals(NUM_PRODUCTS, pm.newQuery(Product.class).executeList().size());
+            assertEquals("Product 8", pm.getObjectById(Product.class, 8L).getName());
+            assertEquals("Product 9", pm.getObjectById(Product.class, 9L).getName());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    private void checkProductsAfterDelete()
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            assertEquals(NUM_PRODUCTS - 2, pm.newQuery(Product.class).executeList().size());
+            for (long id : new long[] {5, 8})
+            {
+                try
+                {
+                    pm.getObjectById(Product.class, id);
+                    fail("Product " + id + " was found after being deleted");
+                }
+                catch (JDOObjectNotFoundException onfe)
+                {
+                    // Expected
+                }
+            }
+            assertEquals("Product 4", pm.getObjectById(Product.class, 4L).getName());
+            assertEquals("Product 6", pm.getObjectById(Product.class, 6L).getName());
+            assertEquals("Product 7", pm.getObjectById(Product.class, 7L).getName());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Transaction;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.datanucleus.store.excel.test.model.Product;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for rolling back transactions using a shared workbook, where the changes are undone in the workbook held in memory (see {@link ExcelUndoLog}).
+ */
+public class SharedWorkbookRollbackTest extends AbstractExcelTest
+{
+    private static final int MAX_ROWS = 2;
+
+    private static final int NUM_PRODUCTS = 5;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+        reopen(getProperties());
+
+        Product[] products = new Product[NUM_PRODUCTS];
+        for (int i = 0; i < NUM_PRODUCTS; i++)
+        {
+            products[i] = new Product(i + 1, "Product " + (i + 1), 10.0 * (i + 1));
+        }
+        persist((Object[])products);
+    }
+
+    private static Properties getProperties()
+    {
+        Properties props = new Properties();
+        props.setProperty(ExcelStoreManager.PROPERTY_SHARED_WORKBOOK, "true");
+        props.setProperty(ExcelStoreManager.PROPERTY_MAX_ROWS_PER_SHEET, "" + MAX_ROWS);
+        return props;
+    }
+
+    @Test
+    public void testRollbackInsertUpdateDelete() throws Exception
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            pm.makePersistent(new Product(6, "Product 6", 60.0));
+            pm.getObjectById(Product.class, 2L).setName("Changed");
+            pm.deletePersistent(pm.getObjectById(Product.class, 4L));
+            pm.flush();
+            tx.rollback();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+        checkProductsUnchanged();
+
+        reopen(getProperties());
+        checkProductsUnchanged();
+    }
+
+    @Test
+    public void testRollbackDeleteRespectsMaxRows() throws Exception
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            pm.deletePersistent(pm.getObjectById(Product.class, 1L));
+            pm.flush();
+            tx.rollback();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+        checkProductsUnchanged();
+
+        // Commit a change so the (restored) workbook is written to the file
+        pm = pmf.getPersistenceManager();
+        tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            pm.getObjectById(Product.class, 3L).setPrice(35.0);
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+
+        pmf.close();
+        try (Workbook wb = readFile())
+        {
+            int numRows = 0;
+            for (Sheet sheet : getSheetsStartingWith(wb, "Product"))
+            {
+                assertTrue("Sheet " + sheet.getSheetName() + " has more rows than allowed", sheet.getPhysicalNumberOfRows() <= MAX_ROWS);
+                numRows += sheet.getPhysicalNumberOfRows();
+            }
+            assertEquals(NUM_PRODUCTS, numRows);
+        }
+
+        pmf = createPMF(getProperties());
+        checkProductsUnchanged();
+    }
+
+    private void checkProductsUnchanged()
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            assertEquals(NUM_PRODUCTS, pm.newQuery(Product.class).executeList().size());
+            for (long id = 1; id <= NUM_PRODUCTS; id++)
+            {
+                assertEquals("Product " + id, pm.getObjectById(Product.class, id).getName());
+            }
+            try
+            {
+                pm.getObjectById(Product.class, 6L);
+                fail("Product 6 was found after its insert was rolled back");
+            }
+            catch (JDOObjectNotFoundException onfe)
+            {
+                // Expected
+            }
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+}
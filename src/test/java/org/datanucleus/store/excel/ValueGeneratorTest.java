@@ -0,0 +1,201 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.jdo.PersistenceManager;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.store.excel.test.model.Car;
+import org.datanucleus.store.excel.test.model.MaxItem;
+import org.datanucleus.store.excel.test.model.SequenceItem;
+import org.datanucleus.store.excel.test.model.SnowflakeItem;
+import org.datanucleus.store.excel.test.model.Vehicle;
+import org.datanucleus.store.excel.valuegenerator.SnowflakeGenerator;
+import org.junit.Test;
+
+/**
+ * Tests for the value generators of the Excel datastore ("max", "sequence", "snowflake").
+ */
+public class ValueGeneratorTest extends AbstractExcelTest
+{
+    @Test
+    public void testMaxAllocatesAfterExistingValues()
+    {
+        MaxItem[] items = {new MaxItem("a"), new MaxItem("b"), new MaxItem("c")};
+        persist((Object[])items);
+        assertEquals(1, items[0].getId());
+        assertEquals(2, items[1].getId());
+        assertEquals(3, items[2].getId());
+
+        // A new generator reads the maximum from the worksheet
+        reopen(new Properties());
+        MaxItem item = new MaxItem("d");
+        persist(item);
+        assertEquals(4, item.getId());
+    }
+
+    @Test
+    public void testMaxReadsValuesEditedInPlace() throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty(ExcelStoreManager.PROPERTY_STATISTICS_SHEET, "true");
+        reopen(props);
+        persist(new MaxItem("a"), new MaxItem("b"));
+        pmf.close();
+
+        // Change the identity of the last object by hand, without changing the layout of the sheet
+        try (InputStream is = new FileInputStream(file); Workbook wb = WorkbookFactory.create(is))
+        {
+            Sheet sheet = getSheetsStartingWith(wb, "MaxItem").get(0);
+            assertEquals(1, replaceNumericValue(sheet, 2, 50));
+            try (OutputStream os = new FileOutputStream(file))
+            {
+                wb.write(os);
+            }
+        }
+
+        reopen(props);
+        MaxItem item = new MaxItem("c");
+        persist(item);
+        assertEquals(51, item.getId());
+    }
+
+    @Test
+    public void testMaxAcrossInheritanceHierarchy()
+    {
+        persist(new Car("a", 3), new Car("b", 5), new Car("c", 5));
+
+        // The generator of the root class must allow for the identities in the worksheet of the subclass
+        reopen(new Properties());
+        Vehicle vehicle = new Vehicle("d");
+        persist(vehicle);
+        assertEquals(4, vehicle.getId());
+    }
+
+    @Test
+    public void testSequence()
+    {
+        SequenceItem[] items = {new SequenceItem("a"), new SequenceItem("b"), new SequenceItem("c")};
+        persist((Object[])items);
+        assertEquals(100, items[0].getId());
+        assertEquals(101, items[1].getId());
+        assertEquals(102, items[2].getId());
+
+        // The sequence continues after the values already reserved in the worksheet
+        reopen(new Properties());
+        SequenceItem item = new SequenceItem("d");
+        persist(item);
+        assertTrue("Sequence value " + item.getId() + " should follow those allocated before", item.getId() > 102);
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            assertEquals("a", pm.getObjectById(SequenceItem.class, 100L).getName());
+            assertEquals("d", pm.getObjectById(SequenceItem.class, item.getId()).getName());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testSnowflakeStrategy()
+    {
+        Properties props = new Properties();
+        props.setProperty(ExcelStoreManager.PROPERTY_NODE_ID, "3");
+        reopen(props);
+
+        SnowflakeItem[] items = {new SnowflakeItem("a"), new SnowflakeItem("b")};
+        persist((Object[])items);
+        assertTrue(items[1].getId() > items[0].getId());
+        assertEquals(3, (items[0].getId() >> 12) & SnowflakeGenerator.MAX_NODE_ID);
+    }
+
+    @Test
+    public void testSnowflakeValuesIncrease()
+    {
+        Properties props = new Properties();
+        props.setProperty(SnowflakeGenerator.PROPERTY_NODE_ID, "7");
+        SnowflakeGenerator generator = new SnowflakeGenerator(null, "test", props);
+
+        Set<Long> values = new HashSet<>();
+        long last = 0;
+        for (int i=0;i<10000;i++)
+        {
+            long value = generator.next();
+            assertTrue(value > last);
+            assertEquals(7, (value >> 12) & SnowflakeGenerator.MAX_NODE_ID);
+            values.add(value);
+            last = value;
+        }
+        assertEquals(10000, values.size());
+        assertEquals(Long.valueOf(last), generator.current());
+    }
+
+    @Test
+    public void testSnowflakeInvalidNodeId()
+    {
+        Properties props = new Properties();
+        props.setProperty(SnowflakeGenerator.PROPERTY_NODE_ID, "" + (SnowflakeGenerator.MAX_NODE_ID + 1));
+        try
+        {
+            new SnowflakeGenerator(null, "test", props);
+            fail("Expected a node id out of range to be rejected");
+        }
+        catch (NucleusUserException e)
+        {
+            // Expected
+        }
+    }
+
+    private static int replaceNumericValue(Sheet sheet, double value, double newValue)
+    {
+        int numReplaced = 0;
+        for (Row row : sheet)
+        {
+            for (Cell cell : row)
+            {
+                if (cell.getCellType() == CellType.NUMERIC && cell.getNumericCellValue() == value)
+                {
+                    cell.setCellValue(newValue);
+                    numReplaced++;
+                }
+            }
+        }
+        return numReplaced;
+    }
+}
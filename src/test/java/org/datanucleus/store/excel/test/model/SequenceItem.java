@@ -0,0 +1,54 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.excel.test.model;
+
+import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+import javax.jdo.annotations.Sequence;
+import javax.jdo.annotations.SequenceStrategy;
+
+/**
+ * Object with application identity generated from a datastore sequence.
+ */
+@PersistenceCapable
+@Sequence(name="ItemSequence", datastoreSequence="ITEM_SEQ", strategy=SequenceStrategy.NONTRANSACTIONAL, initialValue=100, allocationSize=5)
+public class SequenceItem
+{
+    @PrimaryKey
+    @Persistent(valueStrategy=IdGeneratorStrategy.SEQUENCE, sequence="ItemSequence")
+    long id;
+
+    String name;
+
+    public SequenceItem(String name)
+    {
+        this.name = name;
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+}